@@ -0,0 +1,601 @@
+package webapps;
+/**
+ * Name: Bench.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class used to benchmark the server execution modes against
+ *              each other on the same hardware. Each mode is started as a
+ *              WebSrv in its own JVM so thread counts and memory are not
+ *              mixed between runs, then loaded by a number of concurrent
+ *              clients. Throughput, latency percentiles, the peak thread
+ *              count and resident memory of the server and its garbage
+ *              collection pauses are printed for each mode. Each mode is
+ *              then started again and held with many idle kept alive
+ *              connections that are sent a trickle of requests, the peak
+ *              thread count and resident memory while they are held show
+ *              what idle clients cost the mode. Run with -h to see help
+ *              manual.
+ *
+ *              Basic usage:
+ *              	java webapps.Bench [options] <directory>
+ *
+ * Inherits: Main
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import webapps.Option.OptionException;
+import webapps.Option.OptionInt;
+import webapps.Option.OptionString;
+
+/**
+ * Class definition
+ */
+public class Bench extends Main {
+	OptionInt connOpt; // number of concurrent clients
+	OptionInt reqOpt; // total number of requests per mode
+	OptionString resOpt; // comma separated resources requested by clients
+	OptionString modeOpt; // comma separated modes to run
+	OptionInt idleOpt; // number of idle connections held, 0 skips idle phase
+	OptionInt idleTimeOpt; // seconds idle connections are held
+	File dir; // directory served by benchmarked servers
+
+	final static int TRICKLE = 20; // requests per second sent over idle connections
+
+	// duration at the end of a GC log pause line
+	final static Pattern PAUSE = Pattern.compile("Pause.* ([0-9]+[.,][0-9]+)ms");
+
+	// length of body in a response header
+	final static Pattern CONTENT_LENGTH = Pattern.compile("(?i)\r\nContent-Length: *([0-9]+)");
+
+	/**
+	 * Constructor of Bench initiates options
+	 * Called By: main()
+	 *     Calls: super(String, String, String), OptionInt(), OptionString(),
+	 *            Main.addOption()
+	 * @param name - name of program
+	 * @param desc - description of program
+	 * @param usage - usage syntax of program
+	 */
+	public Bench(String name, String desc, String usage) throws OptionException {
+		super(name, desc, usage);
+
+		connOpt = new OptionInt("c", "Number of concurrent clients, default: 200", "200");
+		reqOpt = new OptionInt("n", "Number of requests sent to each mode, default: 20000", "20000");
+		resOpt = new OptionString("r", "Comma separated resources requested by clients in turn, "
+				+ "default: /index.html", "/index.html");
+		modeOpt = new OptionString("m", "Comma separated modes to run, default: pool,virtual",
+				"pool,virtual");
+		idleOpt = new OptionInt("i", "Number of idle kept alive connections held open after "
+				+ "the load, 0 skips the idle phase, default: 1000", "1000");
+		idleTimeOpt = new OptionInt("s", "Seconds idle connections are held open, default: 10", "10");
+
+		addOption(connOpt);
+		addOption(reqOpt);
+		addOption(resOpt);
+		addOption(modeOpt);
+		addOption(idleOpt);
+		addOption(idleTimeOpt);
+	}
+
+	/**
+	 * Sets directory served by benchmarked servers
+	 * Called By: super.parseOptions()
+	 *     Calls: File()
+	 * @param param - directory path
+	 */
+	@Override
+	public void setParam(String param) throws OptionException {
+		params.add(param);
+		dir = new File(param);
+	}
+
+	/**
+	 * Sets option of benchmark
+	 * @param name - name of option
+	 * @param value - value of option
+	 * @throws OptionException - if error with option exists
+	 */
+	@Override
+	public void setOption(String name, String value) throws OptionException {
+		getOption(name).setValue(value);
+	}
+
+	/**
+	 * Checks directory is valid
+	 * @throws OptionException - if directory is missing or invalid
+	 */
+	@Override
+	public void checkParams() throws OptionException {
+		if (dir == null || !dir.isDirectory()) {
+			throw new OptionException("directory must be provided, use -h option for help");
+		}
+	}
+
+	/**
+	 * Gets the server flags used for a mode
+	 * Called by: run()
+	 *     Calls: none
+	 * @param mode - name of mode
+	 * @return - flags passed to WebSrv or null if mode is unknown
+	 */
+	String[] getModeFlags(String mode) {
+		switch (mode) {
+		case "pool":
+			return new String[0];
+		case "virtual":
+			return new String[] {"--virtual"};
+		case "nio":
+			return new String[] {"--nio"};
+		case "bounded":
+			return new String[] {"--workers", "64", "--queue", "128"};
+		case "heapcache":
+			return new String[] {"--cache", "256", "--cachefile", "16384"};
+		case "offheap":
+			return new String[] {"--cache", "256", "--cachefile", "16384", "--offheap"};
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Runs each requested mode and prints a result line for each, the idle
+	 * columns are 0 when the idle phase is skipped
+	 * Called by: main()
+	 *     Calls: getModeFlags(), runMode()
+	 */
+	public void run() throws IOException, InterruptedException {
+		System.out.println("mode,requests,errors,req/s,p50 ms,p99 ms,peak threads,peak rss kB,"
+				+ "gc pauses,max pause ms,total pause ms,idle conns,idle errors,idle peak threads,"
+				+ "idle peak rss kB");
+		for (String mode : modeOpt.getValue().split(",")) {
+			String[] flags = getModeFlags(mode);
+			if (flags == null) {
+				printError("unknown mode: " + mode);
+				continue;
+			}
+			if (mode.equals("virtual") && Srv.getVirtualExecutor() == null) {
+				System.out.println(mode + ",skipped,JDK 21 or newer is required");
+				continue;
+			}
+			runMode(mode, flags);
+		}
+	}
+
+	/**
+	 * Starts a server in a new JVM with the flags for the mode
+	 * Called by: runMode(), runIdle()
+	 *     Calls: ProcessBuilder.start()
+	 * @param port - port server listens on
+	 * @param gcLog - file server logs its garbage collections to
+	 * @param flags - flags passed to WebSrv
+	 * @return - server process
+	 */
+	private Process startServer(int port, Path gcLog, String[] flags) throws IOException {
+		// build command that starts the server
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.add("-Xlog:gc:file=" + gcLog);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add("webapps.WebSrv");
+		cmd.add("-p");
+		cmd.add(String.valueOf(port));
+		cmd.addAll(Arrays.asList(flags));
+		cmd.add(dir.getAbsolutePath());
+
+		return new ProcessBuilder(cmd)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.DISCARD)
+				.start();
+	}
+
+	/**
+	 * Starts thread that samples the thread count and resident memory of
+	 * the server process until it is interrupted
+	 * Called by: runMode(), runIdle()
+	 *     Calls: readProcStatus()
+	 * @param srv - server process
+	 * @param peakThreads - raised to the peak thread count
+	 * @param peakRss - raised to the peak resident memory in kB
+	 * @return - started sampler thread
+	 */
+	private static Thread startSampler(Process srv, AtomicLong peakThreads, AtomicLong peakRss) {
+		Thread sampler = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				peakThreads.accumulateAndGet(readProcStatus(srv.pid(), "Threads:"), Math::max);
+				peakRss.accumulateAndGet(readProcStatus(srv.pid(), "VmRSS:"), Math::max);
+				try {
+					Thread.sleep(50);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		sampler.start();
+		return sampler;
+	}
+
+	/**
+	 * Starts a server in a new JVM with the flags for the mode, loads it
+	 * with concurrent clients, runs the idle phase and prints results. The
+	 * server logs its garbage collections to a temporary file that is read
+	 * once it stops
+	 * Called by: run()
+	 *     Calls: getFreePort(), startServer(), waitForPort(), startSampler(), request(),
+	 *            readPauses(), runIdle()
+	 * @param mode - name of mode
+	 * @param flags - flags passed to WebSrv
+	 */
+	private void runMode(String mode, String[] flags) throws IOException, InterruptedException {
+		int port = getFreePort();
+		Path gcLog = Files.createTempFile("webapps-gc", ".log");
+		String[] resources = resOpt.getValue().split(",");
+
+		Process srv = startServer(port, gcLog, flags);
+		double[] pauses;
+		try {
+			waitForPort(port);
+
+			int total = reqOpt.getValue();
+			int clients = connOpt.getValue();
+			long[] latency = new long[total];
+			AtomicInteger next = new AtomicInteger();
+			AtomicInteger errors = new AtomicInteger();
+			AtomicLong peakThreads = new AtomicLong();
+			AtomicLong peakRss = new AtomicLong();
+
+			// sample server process while it is under load
+			Thread sampler = startSampler(srv, peakThreads, peakRss);
+
+			// each client sends requests until total is reached
+			ExecutorService pool = Executors.newFixedThreadPool(clients);
+			long start = System.nanoTime();
+			for (int i = 0; i < clients; i++) {
+				pool.submit(() -> {
+					int n;
+					while ((n = next.getAndIncrement()) < total) {
+						long t = System.nanoTime();
+						if (!request(port, resources[n % resources.length])) {
+							errors.incrementAndGet();
+						}
+						latency[n] = System.nanoTime() - t;
+					}
+				});
+			}
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.HOURS);
+			long elapsed = System.nanoTime() - start;
+			sampler.interrupt();
+			sampler.join();
+
+			// stop server so its GC log is complete
+			srv.destroy();
+			srv.waitFor();
+			pauses = readPauses(gcLog);
+
+			long[] idle = idleOpt.getValue() > 0 ? runIdle(flags, resources[0]) : new long[4];
+
+			Arrays.sort(latency);
+			System.out.printf("%s,%d,%d,%.0f,%.2f,%.2f,%d,%d,%.0f,%.2f,%.2f,%d,%d,%d,%d%n",
+					mode,
+					total,
+					errors.get(),
+					total / (elapsed / 1e9),
+					latency[total / 2] / 1e6,
+					latency[(int)(total * 0.99)] / 1e6,
+					peakThreads.get(),
+					peakRss.get(),
+					pauses[0],
+					pauses[1],
+					pauses[2],
+					idle[0],
+					idle[1],
+					idle[2],
+					idle[3]);
+		}
+		finally {
+			srv.destroy();
+			srv.waitFor();
+			Files.deleteIfExists(gcLog);
+		}
+	}
+
+	/**
+	 * Starts a fresh server for the mode so threads left from the load are
+	 * not counted, opens the idle connections and sends a trickle of
+	 * requests over them in turn while they are held. The server keeps
+	 * connections alive for longer than they are held
+	 * Called by: runMode()
+	 *     Calls: getFreePort(), startServer(), waitForPort(), startSampler(),
+	 *            Socket(), exchange(), Thread.sleep()
+	 * @param flags - flags passed to WebSrv
+	 * @param resource - resource requested
+	 * @return - connections opened, failed requests, peak threads and peak
+	 *           resident memory in kB
+	 */
+	private long[] runIdle(String[] flags, String resource) throws IOException, InterruptedException {
+		int port = getFreePort();
+		Path gcLog = Files.createTempFile("webapps-gc", ".log");
+		int seconds = idleTimeOpt.getValue();
+		String[] idleFlags = Arrays.copyOf(flags, flags.length + 4);
+		idleFlags[flags.length] = "--keepalive";
+		idleFlags[flags.length + 1] = String.valueOf(seconds + 60);
+		idleFlags[flags.length + 2] = "--requests";
+		idleFlags[flags.length + 3] = String.valueOf(Integer.MAX_VALUE);
+
+		Process srv = startServer(port, gcLog, idleFlags);
+		ArrayList<Socket> socks = new ArrayList<Socket>();
+		try {
+			waitForPort(port);
+
+			long errors = 0;
+			AtomicLong peakThreads = new AtomicLong();
+			AtomicLong peakRss = new AtomicLong();
+			Thread sampler = startSampler(srv, peakThreads, peakRss);
+			byte[] req = ("GET " + resource + " HTTP/1.1\r\n"
+					+ "Host: localhost\r\n\r\n").getBytes();
+
+			// open connections, each is left idle after its first response
+			for (int i = 0; i < idleOpt.getValue(); i++) {
+				try {
+					Socket sock = new Socket("localhost", port);
+					sock.setSoTimeout(10000);
+					socks.add(sock);
+					if (!exchange(sock, req)) {
+						errors++;
+					}
+				}
+				catch (IOException e) {
+					errors++;
+				}
+			}
+
+			// trickle requests over the idle connections in turn
+			long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+			for (int i = 0; System.nanoTime() < end && !socks.isEmpty(); i++) {
+				if (!exchange(socks.get(i % socks.size()), req)) {
+					errors++;
+				}
+				Thread.sleep(1000 / TRICKLE);
+			}
+			sampler.interrupt();
+			sampler.join();
+			return new long[] {socks.size(), errors, peakThreads.get(), peakRss.get()};
+		}
+		finally {
+			for (Socket sock : socks) {
+				try {
+					sock.close();
+				}
+				catch (IOException e) {
+					// connection already closed
+				}
+			}
+			srv.destroy();
+			srv.waitFor();
+			Files.deleteIfExists(gcLog);
+		}
+	}
+
+	/**
+	 * Sends one request over a kept alive connection and reads its
+	 * response, the body is skipped using its Content-Length
+	 * Called by: runIdle()
+	 *     Calls: OutputStream.write(), InputStream.read(), InputStream.skip()
+	 * @param sock - connection to server
+	 * @param req - encoded request
+	 * @return - true if server responded with 200
+	 */
+	private static boolean exchange(Socket sock, byte[] req) {
+		try {
+			OutputStream out = sock.getOutputStream();
+			out.write(req);
+			out.flush();
+
+			// read header a byte at a time so no part of the body is consumed
+			InputStream in = sock.getInputStream();
+			StringBuilder header = new StringBuilder();
+			int c;
+			while (header.indexOf("\r\n\r\n") < 0) {
+				if ((c = in.read()) == -1) {
+					return false;
+				}
+				header.append((char)c);
+			}
+			Matcher m = CONTENT_LENGTH.matcher(header);
+			long length = m.find() ? Long.parseLong(m.group(1)) : 0;
+			while (length > 0) {
+				long n = in.skip(length);
+				if (n <= 0) {
+					if (in.read() == -1) {
+						return false;
+					}
+					n = 1;
+				}
+				length -= n;
+			}
+			return header.toString().startsWith("HTTP/1.1 200");
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the pauses from a GC log written with -Xlog:gc
+	 * Called by: runMode()
+	 *     Calls: Files.readAllLines(), Pattern.matcher()
+	 * @param gcLog - path of log
+	 * @return - number of pauses, longest and total pause in milliseconds
+	 */
+	static double[] readPauses(Path gcLog) {
+		double[] pauses = new double[3];
+		try {
+			for (String line : Files.readAllLines(gcLog)) {
+				Matcher m = PAUSE.matcher(line);
+				if (m.find()) {
+					double ms = Double.parseDouble(m.group(1).replace(',', '.'));
+					pauses[0]++;
+					pauses[1] = Math.max(pauses[1], ms);
+					pauses[2] += ms;
+				}
+			}
+		}
+		catch (IOException e) {
+			// no pauses counted
+		}
+		return pauses;
+	}
+
+	/**
+	 * Sends one request to server and reads the response until the server
+	 * closes the connection
+	 * Called by: runMode()
+	 *     Calls: Socket(), OutputStream.write(), InputStream.read()
+	 * @param port - port server listens on
+	 * @param resource - resource requested
+	 * @return - true if server responded with 200
+	 */
+	private boolean request(int port, String resource) {
+		byte[] req = ("GET " + resource + " HTTP/1.1\r\n"
+				+ "Host: localhost\r\n"
+				+ "Connection: close\r\n\r\n").getBytes();
+		try (Socket sock = new Socket("localhost", port)) {
+			sock.setSoTimeout(10000);
+			OutputStream out = sock.getOutputStream();
+			out.write(req);
+			out.flush();
+
+			InputStream in = sock.getInputStream();
+			byte[] buf = new byte[8192];
+			int n = in.read(buf);
+			boolean ok = n > 12 && new String(buf, 0, 12).equals("HTTP/1.1 200");
+			while (n != -1) {
+				n = in.read(buf);
+			}
+			return ok;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets a port that is currently free on the local host
+	 * Called by: runMode()
+	 *     Calls: ServerSocket()
+	 * @return - free port number
+	 */
+	private static int getFreePort() throws IOException {
+		try (ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		}
+	}
+
+	/**
+	 * Waits until server accepts connections on port
+	 * Called by: runMode()
+	 *     Calls: Socket.connect()
+	 * @param port - port server listens on
+	 * @throws IOException - if server does not start in time
+	 */
+	private static void waitForPort(int port) throws IOException, InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			try (Socket s = new Socket()) {
+				s.connect(new InetSocketAddress("localhost", port), 100);
+				return;
+			}
+			catch (IOException e) {
+				Thread.sleep(100);
+			}
+		}
+		throw new IOException("server failed to start on port " + port);
+	}
+
+	/**
+	 * Reads numeric value of a field from /proc/[pid]/status, only
+	 * available on Linux
+	 * Called by: runMode()
+	 *     Calls: BufferedReader.readLine()
+	 * @param pid - process id
+	 * @param field - name of field including colon
+	 * @return - value of field or 0 if it could not be read
+	 */
+	private static long readProcStatus(long pid, String field) {
+		try (BufferedReader r = new BufferedReader(new FileReader("/proc/" + pid + "/status"))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				if (line.startsWith(field)) {
+					return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e) {
+			// not available on this platform
+		}
+		return 0;
+	}
+
+	/**
+	 * Main method that runs benchmark. Takes command line arguments
+	 * @param args - options and parameters for benchmark
+	 * Calls: Bench(), Main.parseOptions(), Main.getHelp(), this.checkParams(),
+	 *        this.run()
+	 */
+	public static void main(String[] args) {
+		Bench bench = null;
+		try {
+			bench = new Bench("Bench",
+					"Benchmarks WebSrv execution modes against each other by serving "
+					+ "the same resources to many concurrent clients. Modes: pool, virtual, nio, bounded, "
+					+ "heapcache, offheap",
+					"java webapps.Bench [options] <directory>");
+
+			bench.parseOptions(args);
+
+			if (bench.getHelp()) {
+				bench.printHelp();
+				System.exit(0);
+			}
+
+			bench.checkParams();
+		}
+		catch (OptionException e) {
+			printError(e.getMessage());
+			System.exit(1);
+		}
+
+		try {
+			bench.run();
+		}
+		catch (IOException | InterruptedException e) {
+			printError("benchmark failed: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package webapps;
+/**
+ * Name: BloomFilter.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that implements a Bloom filter of strings. It answers
+ *              whether a string might have been added using a fixed array of
+ *              bits, a string that was added is always reported and one that
+ *              was not is reported with a small false positive rate. Used by
+ *              NegativeCache to answer requests for paths that can not exist
+ *              without searching the served directories.
+ */
+
+
+/**
+ * Class definition
+ */
+public class BloomFilter {
+	long[] bits; // bit array
+	int size; // number of bits
+	int hashes; // number of bits set per string
+	int count; // number of strings added
+	int capacity; // strings that can be added before the false positive rate rises
+
+	/**
+	 * Class constructor that sizes the filter for the number of strings
+	 * and false positive rate
+	 * Called by: NegativeCache.build()
+	 *     Calls: none
+	 * @param capacity - expected number of strings
+	 * @param falsePositive - false positive rate at capacity, between 0 and 1
+	 */
+	public BloomFilter(int capacity, double falsePositive) {
+		this.capacity = Math.max(capacity, 1);
+		double ln2 = Math.log(2);
+		long m = (long)Math.ceil(-this.capacity * Math.log(falsePositive) / (ln2 * ln2));
+		size = (int)Math.min(Math.max(m, 64), Integer.MAX_VALUE - 63);
+		hashes = Math.max(1, (int)Math.round((double)size / this.capacity * ln2));
+		bits = new long[(size + 63) / 64];
+	}
+
+	/**
+	 * Adds string to filter
+	 * Called by: NegativeCache
+	 *     Calls: hash2()
+	 * @param s - string to add
+	 */
+	public void add(String s) {
+		int h1 = s.hashCode();
+		int h2 = hash2(h1);
+		for (int i = 0; i < hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, size);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+		count++;
+	}
+
+	/**
+	 * Checks if string might have been added
+	 * Called by: NegativeCache.isMissing()
+	 *     Calls: hash2()
+	 * @param s - string to check
+	 * @return - false if string was never added
+	 */
+	public boolean mightContain(String s) {
+		int h1 = s.hashCode();
+		int h2 = hash2(h1);
+		for (int i = 0; i < hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, size);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates more strings were added than the filter was sized for
+	 * Called by: NegativeCache.changed()
+	 *     Calls: none
+	 * @return - true if filter is over capacity
+	 */
+	public boolean isFull() {
+		return count > capacity;
+	}
+
+	/**
+	 * Derives a second hash from the first by mixing its bits so the
+	 * two are independent enough for double hashing
+	 * Called by: add(), mightContain()
+	 *     Calls: none
+	 * @param h - first hash
+	 * @return - second hash, always odd
+	 */
+	private static int hash2(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h | 1;
+	}
+}
@@ -0,0 +1,310 @@
+package webapps;
+/**
+ * Name: CacheControl.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that chooses the Cache-Control field sent with each
+ *              served file. A fingerprinted file, one whose name holds a
+ *              hash of its content such as app.3f2a9c1b.js or
+ *              main-BfWnX8e3.css, never changes under its name so it is
+ *              sent as immutable for a year and clients stop asking for
+ *              it. Fingerprinted files are read from the asset manifest of
+ *              the build, a flat JSON map of each logical name to its
+ *              fingerprinted name as written by webpack-manifest-plugin or
+ *              gulp-rev. Without a manifest they are told by their names.
+ *              A name that only looks like it holds a hash would have a
+ *              changed file cached for a year, so names are matched
+ *              strictly and are not trusted at all once a manifest is
+ *              read. Other files are matched against rules read from a
+ *              file, each line a pattern and the value sent, the first
+ *              rule that matches is used:
+ *              	/index.html  no-cache
+ *              	*.html       public, max-age=300
+ *              	/            public, max-age=3600
+ *              A pattern starting with / matches paths it is a prefix of,
+ *              one starting with * matches paths ending with the rest. Each
+ *              value is encoded into its header line when it is read.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class definition
+ */
+public class CacheControl {
+	static final String IMMUTABLE = "public, max-age=31536000, immutable"; // value sent with fingerprinted files
+	static final int MIN_HASH = 8; // shortest fingerprint recognised in a name
+	static final int MAX_HASH = 64; // longest fingerprint recognised in a name
+
+	// string pairs of a flat JSON map
+	static final Pattern PAIR = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	// encoded line sent with fingerprinted files
+	static final byte[] IMMUTABLE_LINE = HttpRespHeader.encode("Cache-Control: " + IMMUTABLE + "\r\n");
+
+	boolean names; // fingerprints are recognised in file names, off once a manifest is read
+	HashSet<String> manifest; // fingerprinted resources of the manifest, empty if none
+	ArrayList<Rule> rules; // rules in order of precedence
+
+	/**
+	 * Class that holds one rule of the rules file
+	 */
+	static class Rule {
+		String prefix; // path prefix matched, null if suffix is matched
+		String suffix; // path suffix matched, null if prefix is matched
+		byte[] line; // encoded Cache-Control line
+
+		/**
+		 * Class constructor
+		 * Called by: CacheControl.readRules()
+		 *     Calls: HttpRespHeader.encode()
+		 * @param pattern - /prefix or *suffix
+		 * @param value - value of Cache-Control field
+		 */
+		Rule(String pattern, String value) {
+			if (pattern.startsWith("*")) {
+				suffix = pattern.substring(1);
+			}
+			else {
+				prefix = pattern;
+			}
+			line = HttpRespHeader.encode("Cache-Control: " + value + "\r\n");
+		}
+
+		/**
+		 * Checks if rule applies to a resource
+		 * Called by: CacheControl.getLine()
+		 *     Calls: String.startsWith(), String.endsWith()
+		 * @param resource - normalized resource path
+		 * @return - true if rule matches
+		 */
+		boolean matches(String resource) {
+			return (prefix != null) ? resource.startsWith(prefix) : resource.endsWith(suffix);
+		}
+	}
+
+	/**
+	 * Class constructor with no fingerprinted files and no rules
+	 * Called by: WebSrv.checkParams(), Test
+	 *     Calls: HashSet(), ArrayList()
+	 * @param names - recognise fingerprints in file names
+	 */
+	public CacheControl(boolean names) {
+		this.names = names;
+		manifest = new HashSet<String>();
+		rules = new ArrayList<Rule>();
+	}
+
+	/**
+	 * Reads the fingerprinted files of an asset manifest, the values of
+	 * its flat JSON map. Relative names are taken from the served root.
+	 * Only the files of the manifest are sent as immutable from then on
+	 * Called by: WebSrv.checkParams()
+	 *     Calls: Files.readString(), Pattern.matcher(), DirWatcher.normalize()
+	 * @param file - manifest file
+	 * @return - number of fingerprinted files read
+	 * @throws IOException - if file fails to be read
+	 */
+	public int readManifest(File file) throws IOException {
+		String json = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+		names = false;
+		int count = 0;
+		Matcher m = PAIR.matcher(json);
+		while (m.find()) {
+			String value = m.group(2).replace("\\/", "/");
+			if (value.startsWith("http:") || value.startsWith("https:") || value.startsWith("//")) {
+				continue; // served from elsewhere
+			}
+			if (value.indexOf('?') >= 0) {
+				continue; // busted by query, the file itself changes under its name
+			}
+			String key = DirWatcher.normalize("/" + value);
+			if (key != null && manifest.add(key)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reads rules from a file, a pattern and the value sent on each line,
+	 * text after # is ignored
+	 * Called by: WebSrv.checkParams()
+	 *     Calls: Files.newBufferedReader(), Rule()
+	 * @param file - rules file
+	 * @return - number of rules read
+	 * @throws IOException - if file fails to be read or a line is not a rule
+	 */
+	public int readRules(File file) throws IOException {
+		int count = 0;
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int hash = line.indexOf('#');
+				if (hash >= 0) {
+					line = line.substring(0, hash);
+				}
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] words = line.split("\\s+", 2);
+				if (words.length < 2 || !(words[0].startsWith("/") || words[0].startsWith("*"))) {
+					throw new IOException("invalid rule: " + line);
+				}
+				rules.add(new Rule(words[0], words[1]));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the Cache-Control line sent with a file, the immutable line if
+	 * it is fingerprinted otherwise that of the first rule that matches
+	 * Called by: WebSrvThread.setValidators()
+	 *     Calls: isFingerprinted(), Rule.matches()
+	 * @param resource - normalized resource path
+	 * @return - encoded line or null if none is sent
+	 */
+	public byte[] getLine(String resource) {
+		if ((names && isFingerprinted(resource)) || manifest.contains(resource)) {
+			return IMMUTABLE_LINE;
+		}
+		for (Rule r : rules) {
+			if (r.matches(resource)) {
+				return r.line;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if a file name holds a fingerprint, a part of the name
+	 * between . or - and the extension of MIN_HASH to MAX_HASH characters
+	 * that is either lower case hex with a digit and a letter, or base64url
+	 * with a digit, a lower case letter and an upper case letter past its
+	 * first character. A year joined to a word, as in report-2024final.pdf,
+	 * is never taken for a fingerprint
+	 * Called by: getLine()
+	 *     Calls: isDatedWord()
+	 * @param resource - resource path
+	 * @return - true if name is fingerprinted
+	 */
+	static boolean isFingerprinted(String resource) {
+		int ext = resource.lastIndexOf('.');
+		int slash = resource.lastIndexOf('/');
+		if (ext <= slash + 1) {
+			return false; // name has no extension
+		}
+		int end = ext;
+		int start = end;
+		boolean digit = false;
+		boolean lower = false;
+		boolean hex = true;
+		int uppers = 0; // upper case letters in part
+		int upper = -1; // index of first upper case letter
+		while (start > slash + 1) {
+			char c = resource.charAt(start - 1);
+			if (c >= '0' && c <= '9') {
+				digit = true;
+			}
+			else if (c >= 'a' && c <= 'z') {
+				lower = true;
+				hex &= c <= 'f';
+			}
+			else if (c >= 'A' && c <= 'Z') {
+				uppers++;
+				upper = start - 1;
+				hex = false;
+			}
+			else if (c == '_') {
+				hex = false;
+			}
+			else {
+				break;
+			}
+			start--;
+		}
+		int len = end - start;
+		if (start <= slash + 1 || len < MIN_HASH || len > MAX_HASH) {
+			return false; // fingerprint must follow a name
+		}
+		char sep = resource.charAt(start - 1);
+		if ((sep != '.' && sep != '-') || !digit || !lower || isDatedWord(resource, start, end)) {
+			return false;
+		}
+		return hex || uppers > 1 || (uppers == 1 && upper != start);
+	}
+
+	/**
+	 * Checks if part of a name is a word joined to a year, such as
+	 * 2024final or summer2023
+	 * Called by: isFingerprinted()
+	 *     Calls: none
+	 * @param s - resource path
+	 * @param start - index of first character of part
+	 * @param end - index after last character of part
+	 * @return - true if part is a year before or after letters only
+	 */
+	static boolean isDatedWord(String s, int start, int end) {
+		if (isYear(s, start) && isLetters(s, start + 4, end)) {
+			return true;
+		}
+		return end - 4 > start && isYear(s, end - 4) && isLetters(s, start, end - 4);
+	}
+
+	/**
+	 * Checks if a name holds a year from 1900 to 2099 at an index
+	 * Called by: isDatedWord()
+	 *     Calls: none
+	 * @param s - resource path
+	 * @param i - index of first digit
+	 * @return - true if four digits of a year start at index
+	 */
+	private static boolean isYear(String s, int i) {
+		if (i + 4 > s.length()) {
+			return false;
+		}
+		for (int j = i; j < i + 4; j++) {
+			if (s.charAt(j) < '0' || s.charAt(j) > '9') {
+				return false;
+			}
+		}
+		return s.startsWith("19", i) || s.startsWith("20", i);
+	}
+
+	/**
+	 * Checks if part of a name is only ASCII letters and not empty
+	 * Called by: isDatedWord()
+	 *     Calls: none
+	 * @param s - resource path
+	 * @param start - index of first character
+	 * @param end - index after last character
+	 * @return - true if part is letters only
+	 */
+	private static boolean isLetters(String s, int start, int end) {
+		if (start >= end) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
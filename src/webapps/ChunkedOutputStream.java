@@ -0,0 +1,187 @@
+package webapps;
+/**
+ * Name: ChunkedOutputStream.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Stream used by HttpRespSrv to send a body whose length is
+ *              not known when the header is written. Bytes are collected in a
+ *              buffer of fixed size and written as one chunk of the chunked
+ *              transfer coding each time it fills, so the memory used does
+ *              not depend on the size of the body. Room for the size line and
+ *              the closing CRLF is kept around the buffer so each chunk is
+ *              one write. Closing the stream writes the last chunk and any
+ *              trailer fields but leaves the connection's stream open.
+ *
+ * Inherits: FilterOutputStream
+ */
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Class definition
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+	static final int CHUNK_SIZE = 8192; // largest chunk written
+	static final int SIZE_LINE = 10; // room for size of chunk in hex and CRLF
+
+	byte[] buf; // size line, bytes of chunk being collected and CRLF
+	int count; // bytes of chunk in buffer
+	int size; // largest chunk written
+	long length; // byte count of body written
+	boolean finished; // last chunk was written
+	Map<String, String> trailers; // fields sent after the last chunk, null if none
+
+	/**
+	 * Class constructor
+	 * Called by: HttpRespSrv.sendChunked()
+	 *     Calls: FilterOutputStream()
+	 * @param out - stream chunks are written to
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		this(out, CHUNK_SIZE);
+	}
+
+	/**
+	 * Class constructor with size of chunks
+	 * Called by: this()
+	 *     Calls: FilterOutputStream()
+	 * @param out - stream chunks are written to
+	 * @param size - largest chunk written
+	 */
+	public ChunkedOutputStream(OutputStream out, int size) {
+		super(out);
+		this.size = size;
+		buf = new byte[SIZE_LINE + size + 2];
+	}
+
+	/**
+	 * Sets the fields sent after the last chunk. The map is read when the
+	 * stream is finished so values may be added while the body is written
+	 * Called by: HttpRespSrv.sendChunked()
+	 *     Calls: none
+	 * @param trailers - names and values of trailer fields
+	 */
+	public void setTrailers(Map<String, String> trailers) {
+		this.trailers = trailers;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == size) {
+			writeChunk();
+		}
+		buf[SIZE_LINE + count++] = (byte)b;
+	}
+
+	/**
+	 * Writes bytes to the body, a full buffer is written as a chunk
+	 * Called by: OutputStream
+	 *     Calls: writeChunk(), System.arraycopy()
+	 * @param b - bytes to write
+	 * @param off - offset of first byte
+	 * @param len - byte count to write
+	 * @throws IOException - if error occurs writing
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == size) {
+				writeChunk();
+			}
+			int n = Math.min(len, size - count);
+			System.arraycopy(b, off, buf, SIZE_LINE + count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes collected bytes as a chunk and flushes the stream
+	 * Called by: OutputStream
+	 *     Calls: writeChunk(), OutputStream.flush()
+	 * @throws IOException - if error occurs writing
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeChunk();
+		out.flush();
+	}
+
+	/**
+	 * Writes collected bytes and the last chunk, the underlying stream is
+	 * not closed
+	 * Called by: HttpRespSrv.sendChunked(), DeflaterOutputStream.close()
+	 *     Calls: finish()
+	 * @throws IOException - if error occurs writing
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+	/**
+	 * Writes collected bytes, the last chunk that ends the body and the
+	 * trailer fields
+	 * Called by: close()
+	 *     Calls: writeChunk(), OutputStream.write()
+	 * @throws IOException - if error occurs writing
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		writeChunk();
+		StringBuilder last = new StringBuilder("0\r\n");
+		if (trailers != null) {
+			for (Map.Entry<String, String> t : trailers.entrySet()) {
+				last.append(t.getKey()).append(": ").append(t.getValue()).append("\r\n");
+			}
+		}
+		last.append("\r\n");
+		out.write(HttpRespHeader.encode(last.toString()));
+	}
+
+	/**
+	 * Gets byte count of body written, not counting chunk framing
+	 * Called by: HttpRespSrv.sendChunked()
+	 *     Calls: none
+	 * @return - byte count
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Writes collected bytes as one chunk, the size line is written into
+	 * the room before the bytes so the chunk is a single write. Nothing is
+	 * written when the buffer is empty since an empty chunk ends the body
+	 * Called by: write(), flush(), finish()
+	 *     Calls: OutputStream.write()
+	 * @throws IOException - if error occurs writing
+	 */
+	private void writeChunk() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		int start = SIZE_LINE - 2;
+		buf[start] = '\r';
+		buf[start + 1] = '\n';
+		for (int n = count; n > 0; n >>>= 4) {
+			buf[--start] = (byte)Character.forDigit(n & 0xf, 16);
+		}
+		buf[SIZE_LINE + count] = '\r';
+		buf[SIZE_LINE + count + 1] = '\n';
+		out.write(buf, start, SIZE_LINE - start + count + 2);
+		length += count;
+		count = 0;
+	}
+}
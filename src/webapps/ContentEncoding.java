@@ -0,0 +1,154 @@
+package webapps;
+/**
+ * Name: ContentEncoding.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class with the content codings the server can compress a
+ *              body with. Chooses the coding from the Accept-Encoding field
+ *              of a request, decides which content types are worth
+ *              compressing and wraps a stream so what is written to it is
+ *              compressed. gzip is preferred over deflate when the client
+ *              accepts both equally since it is the only coding kept in the
+ *              GzipCache and precompressed as .gz files.
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class definition
+ */
+public class ContentEncoding {
+	static final String GZIP = "gzip"; // gzip coding
+	static final String DEFLATE = "deflate"; // zlib coding
+	static final long MIN_LENGTH = 256; // smaller bodies are not worth compressing
+
+	/**
+	 * Chooses the coding to send a body with from an Accept-Encoding field,
+	 * codings with a quality of 0 are refused
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: getQuality()
+	 * @param accept - value of Accept-Encoding field or null
+	 * @return - gzip, deflate or null if the body is sent as it is
+	 */
+	public static String negotiate(String accept) {
+		if (accept == null) {
+			return null;
+		}
+		float gzip = -1; // quality of each coding, -1 if not listed
+		float deflate = -1;
+		float any = -1;
+		for (String item : accept.split(",")) {
+			String[] parts = item.split(";");
+			String name = parts[0].trim().toLowerCase();
+			float q = getQuality(parts);
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzip = q;
+			}
+			else if (name.equals(DEFLATE)) {
+				deflate = q;
+			}
+			else if (name.equals("*")) {
+				any = q;
+			}
+		}
+		if (gzip < 0) {
+			gzip = any;
+		}
+		if (deflate < 0) {
+			deflate = any;
+		}
+		if (gzip > 0 && gzip >= deflate) {
+			return GZIP;
+		}
+		if (deflate > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the quality parameter of an item of an Accept-Encoding field
+	 * Called by: negotiate()
+	 *     Calls: Float.parseFloat()
+	 * @param parts - coding name followed by its parameters
+	 * @return - quality from 0 to 1, 1 if not given or invalid
+	 */
+	private static float getQuality(String[] parts) {
+		for (int i = 1; i < parts.length; i++) {
+			String param = parts[i].trim();
+			if (param.startsWith("q=")) {
+				try {
+					return Float.parseFloat(param.substring(2).trim());
+				}
+				catch (NumberFormatException e) {
+					return 1;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Checks if a content type is text that compresses well, images,
+	 * audio, video and archives are already compressed
+	 * Called by: MimeTypes.Type()
+	 *     Calls: none
+	 * @param type - content type
+	 * @return - true if bodies of the type are compressed
+	 */
+	public static boolean isCompressible(String type) {
+		if (type == null) {
+			return false;
+		}
+		int semi = type.indexOf(';');
+		if (semi >= 0) {
+			type = type.substring(0, semi);
+		}
+		type = type.trim().toLowerCase();
+		return type.startsWith("text/")
+				|| type.endsWith("+xml")
+				|| type.endsWith("+json")
+				|| type.equals("application/javascript")
+				|| type.equals("application/x-javascript")
+				|| type.equals("application/json")
+				|| type.equals("application/xml")
+				|| type.equals("application/wasm");
+	}
+
+	/**
+	 * Wraps a stream so bytes written to it are compressed with a coding,
+	 * closing the wrapper writes the end of the compressed data and closes
+	 * the stream
+	 * Called by: HttpRespSrv.sendCompressed(), GzipCache.read()
+	 *     Calls: GZIPOutputStream(), DeflaterOutputStream(), Deflater()
+	 * @param out - stream compressed bytes are written to
+	 * @param coding - gzip or deflate
+	 * @param level - compression level from 1 to 9
+	 * @return - stream to write uncompressed bytes to
+	 * @throws IOException - if the gzip header can not be written
+	 */
+	public static DeflaterOutputStream wrap(OutputStream out, String coding, int level) throws IOException {
+		if (coding.equals(GZIP)) {
+			return new GZIPOutputStream(out, 8192) {
+				{
+					def.setLevel(level);
+				}
+			};
+		}
+		return new DeflaterOutputStream(out, new Deflater(level), 8192) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				def.end(); // release native memory of the deflater created here
+			}
+		};
+	}
+}
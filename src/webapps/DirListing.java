@@ -0,0 +1,241 @@
+package webapps;
+/**
+ * Name: DirListing.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that renders HTML listings of directories and keeps
+ *              the rendered listings so a directory is only read again once
+ *              it changes. A listing is written while the directory is read
+ *              with a DirectoryStream, entries are never collected into a
+ *              list so a directory of any size is listed in constant memory.
+ *              Entries are listed in the order the file system returns them.
+ *              The rendered bytes are copied aside while they are sent and
+ *              cached when the listing fits the bound of one entry. Lookup,
+ *              eviction and the bound are inherited from FileCache, a change
+ *              to a file also drops the listing of the directory holding it.
+ *
+ * Inherits: FileCache
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Class definition
+ */
+public class DirListing extends FileCache {
+	static final String TYPE = "text/html; charset=utf-8"; // content type of listings
+	static final DateTimeFormatter DATE =
+			DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC); // format of modified times
+
+	/**
+	 * Class that passes bytes to a stream and keeps a copy of them until
+	 * they exceed a limit
+	 */
+	static class Tee extends FilterOutputStream {
+		ByteArrayOutputStream copy; // bytes written, null once over the limit
+		long limit; // largest copy kept
+
+		/**
+		 * Class constructor
+		 * Called by: DirListing.write()
+		 *     Calls: FilterOutputStream(), ByteArrayOutputStream()
+		 * @param out - stream bytes are passed to
+		 * @param limit - largest copy kept, 0 keeps none
+		 */
+		Tee(OutputStream out, long limit) {
+			super(out);
+			this.limit = limit;
+			if (limit > 0) {
+				copy = new ByteArrayOutputStream();
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (copy != null) {
+				if (copy.size() + len > limit) {
+					copy = null; // too large to cache
+				}
+				else {
+					copy.write(b, off, len);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Class constructor that creates an empty cache
+	 * Called by: WebSrv.start()
+	 *     Calls: FileCache()
+	 * @param maxBytes - maximum total size of rendered listings, 0 caches none
+	 */
+	public DirListing(long maxBytes) {
+		super(maxBytes, maxBytes / 2);
+	}
+
+	/**
+	 * Gets the body that renders the listing of a directory while it is
+	 * sent and caches it once it is sent
+	 * Called by: WebSrvThread.sendListing()
+	 *     Calls: DirWatcher.normalize(), write()
+	 * @param resource - requested resource, ends with /
+	 * @param dir - directory resource was found at
+	 * @return - body of listing
+	 */
+	public HttpRespSrv.Body render(String resource, File dir) {
+		String key = DirWatcher.normalize(resource);
+		return out -> write(key, dir, out);
+	}
+
+	/**
+	 * Writes the listing of a directory, each entry is written as it is
+	 * read. The copy of the listing is cached if the directory did not
+	 * change while it was read
+	 * Called by: render()
+	 *     Calls: Tee(), Files.newDirectoryStream(), writeEntry(), Entry(), put()
+	 * @param key - normalized resource path
+	 * @param dir - directory to list
+	 * @param out - stream to write listing to
+	 * @throws IOException - if the directory can not be read or writing fails
+	 */
+	void write(String key, File dir, OutputStream out) throws IOException {
+		long gen;
+		synchronized (this) {
+			gen = generation;
+		}
+
+		Tee tee = new Tee(out, maxFileSize);
+		Writer w = new BufferedWriter(new OutputStreamWriter(tee, StandardCharsets.UTF_8));
+		String title = escape(key.equals("/") ? key : key + "/");
+		w.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Index of " + title
+				+ "</title></head>\n<body><h1>Index of " + title + "</h1>\n<pre>");
+		if (!key.equals("/")) {
+			w.write("<a href=\"../\">../</a>\n");
+		}
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.toPath())) {
+			for (Path p : entries) {
+				writeEntry(w, p);
+			}
+		}
+		w.write("</pre></body></html>\n");
+		w.flush();
+
+		if (tee.copy != null) {
+			put(key, new Entry(key, TYPE, tee.copy.toByteArray()), gen);
+		}
+	}
+
+	/**
+	 * Writes the line of one entry with its link, modified time and size,
+	 * directories end with / and have no size
+	 * Called by: write()
+	 *     Calls: Files.readAttributes(), URLEncoder.encode(), escape()
+	 * @param w - writer of listing
+	 * @param p - path of entry
+	 * @throws IOException - if writing fails
+	 */
+	private void writeEntry(Writer w, Path p) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(p, BasicFileAttributes.class);
+		}
+		catch (IOException e) {
+			return; // removed since directory was read
+		}
+		String name = p.getFileName().toString();
+		String slash = attrs.isDirectory() ? "/" : "";
+		String href = URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20") + slash;
+		w.write("<a href=\"" + href + "\">" + escape(name + slash) + "</a> ");
+		w.write(DATE.format(attrs.lastModifiedTime().toInstant()));
+		w.write(attrs.isDirectory() ? " -\n" : " " + attrs.size() + "\n");
+	}
+
+	/**
+	 * Escapes text written into the listing
+	 * Called by: write(), writeEntry()
+	 *     Calls: none
+	 * @param text - text to escape
+	 * @return - text with HTML special characters replaced
+	 */
+	static String escape(String text) {
+		StringBuilder b = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				b.append("&amp;");
+				break;
+			case '<':
+				b.append("&lt;");
+				break;
+			case '>':
+				b.append("&gt;");
+				break;
+			case '"':
+				b.append("&quot;");
+				break;
+			case '\'':
+				b.append("&#39;");
+				break;
+			default:
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Removes listings of a changed resource and all below it, and the
+	 * listing of the directory holding it since its entries changed
+	 * Called by: DirWatcher.run()
+	 *     Calls: FileCache.changed(), removed()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public synchronized void changed(String resource) {
+		super.changed(resource);
+		int slash = resource.lastIndexOf('/');
+		String parent = (slash <= 0) ? "/" : resource.substring(0, slash);
+		Entry e = entries.remove(parent);
+		if (e != null) {
+			bytes -= e.size();
+			removed(e);
+		}
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: FileCache.report()
+	 * @return - report string
+	 */
+	@Override
+	public String report() {
+		return "listing " + super.report();
+	}
+}
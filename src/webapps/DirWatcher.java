@@ -0,0 +1,225 @@
+package webapps;
+/**
+ * Name: DirWatcher.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that watches the directories served by WebSrv for
+ *              changes with a WatchService. Every directory below each root
+ *              is registered, including directories created later. Changes
+ *              are reported to listeners as the resource path relative to its
+ *              root, the same form a client requests, so anything cached by
+ *              resource can be dropped when the file under it changes.
+ *
+ * Implements: Runnable
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class definition
+ */
+public class DirWatcher implements Runnable {
+	WatchService watcher; // service reporting changes
+	HashMap<WatchKey, Path> keys; // directory of each registered key
+	HashMap<WatchKey, Path> roots; // root directory each key is below
+	List<Listener> listeners; // listeners told of changes
+
+	/**
+	 * Interface implemented by classes that need to know when a served
+	 * resource changes
+	 */
+	public interface Listener {
+		/**
+		 * Called when the file or directory at a resource path is created,
+		 * modified or deleted
+		 * @param resource - path of resource relative to its root, starts with /
+		 */
+		void changed(String resource);
+
+		/**
+		 * Called when events were lost and any resource may have changed
+		 */
+		void changedAll();
+	}
+
+	/**
+	 * Class constructor that registers every directory below the roots
+	 * Called by: WebSrv.start()
+	 *     Calls: FileSystems.getDefault().newWatchService(), register()
+	 * @param dirs - root directories to watch
+	 * @throws IOException - if the watch service fails to open or register
+	 */
+	public DirWatcher(List<File> dirs) throws IOException {
+		watcher = FileSystems.getDefault().newWatchService();
+		keys = new HashMap<WatchKey, Path>();
+		roots = new HashMap<WatchKey, Path>();
+		listeners = new CopyOnWriteArrayList<Listener>();
+		for (File dir : dirs) {
+			Path root = dir.toPath().toAbsolutePath().normalize();
+			register(root, root);
+		}
+	}
+
+	/**
+	 * Adds listener that is told of changes
+	 * Called by: WebSrv.start()
+	 *     Calls: List.add()
+	 * @param listener - listener to add
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Registers directory and every directory below it
+	 * Called by: DirWatcher(), run()
+	 *     Calls: Files.walkFileTree(), Path.register()
+	 * @param dir - directory to register
+	 * @param root - root directory dir is below
+	 * @throws IOException - if a directory fails to register
+	 */
+	private void register(Path dir, Path root) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = d.register(watcher,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(key, d);
+				roots.put(key, root);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Starts watching on a daemon thread
+	 * Called by: WebSrv.start()
+	 *     Calls: Thread.start()
+	 */
+	public void start() {
+		Thread t = new Thread(this, "dir-watcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Waits for changes and reports them to listeners until the watch
+	 * service is closed
+	 * Called by: start()
+	 *     Calls: WatchService.take(), WatchKey.pollEvents(), register(),
+	 *            Listener.changed(), Listener.changedAll()
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			}
+			catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path dir = keys.get(key);
+			Path root = roots.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+					for (Listener l : listeners) {
+						l.changedAll();
+					}
+					continue;
+				}
+
+				Path path = dir.resolve((Path)event.context());
+
+				// watch directories created after start
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+					try {
+						register(path, root);
+					}
+					catch (IOException e) {
+						Srv.errorLog.warning("failed to watch directory: " + path);
+					}
+				}
+
+				String resource = getResource(root, path);
+				for (Listener l : listeners) {
+					l.changed(resource);
+				}
+			}
+
+			// key is no longer valid once its directory is deleted
+			if (!key.reset()) {
+				keys.remove(key);
+				roots.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Gets resource path of a file relative to its root
+	 * Called by: run()
+	 *     Calls: Path.relativize()
+	 * @param root - root directory of file
+	 * @param path - path of file
+	 * @return - resource path starting with /
+	 */
+	static String getResource(Path root, Path path) {
+		return "/" + root.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Normalizes a requested resource path so that equal paths map to
+	 * the same resource, removing repeated separators and . and ..
+	 * segments
+	 * Called by: FileCache
+	 *     Calls: none
+	 * @param resource - requested resource
+	 * @return - normalized resource path starting with /, null if the path
+	 *           climbs above its root
+	 */
+	public static String normalize(String resource) {
+		String[] parts = resource.split("/");
+		String[] kept = new String[parts.length];
+		int n = 0;
+		for (String p : parts) {
+			if (p.isEmpty() || p.equals(".")) {
+				continue;
+			}
+			if (p.equals("..")) {
+				if (n == 0) {
+					return null;
+				}
+				n--;
+				continue;
+			}
+			kept[n++] = p;
+		}
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			path.append('/').append(kept[i]);
+		}
+		return path.length() == 0 ? "/" : path.toString();
+	}
+}
@@ -0,0 +1,216 @@
+package webapps;
+/**
+ * Name: DirectFileCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps cached files outside the heap. The encoded
+ *              entity lines and the body of each file are stored in pages of
+ *              direct memory handed out by a SlabAllocator, so a large cache
+ *              adds nothing for the garbage collector to trace or copy, and
+ *              responses are written to the socket straight from that memory.
+ *              Entries are reference counted so pages of an evicted or
+ *              changed file are only reused once every response sending them
+ *              has finished. Lookup, eviction and invalidation are inherited
+ *              from FileCache.
+ *
+ * Inherits: FileCache
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class definition
+ */
+public class DirectFileCache extends FileCache {
+	static final int PAGE_SIZE = 16 * 1024; // bytes in each page
+	static final int SLAB_SIZE = 4 * 1024 * 1024; // bytes of direct memory allocated at a time
+
+	SlabAllocator allocator; // pages entries are stored in
+
+	/**
+	 * Class that holds a cached file in pages of direct memory, the
+	 * entity lines are at the start of the first page followed by the body
+	 */
+	public static class DirectEntry extends FileCache.Entry {
+		SlabAllocator allocator; // allocator pages are returned to
+		int[] pages; // pages holding entity lines and body
+		int entityLength; // byte count of entity lines
+		long length; // byte count of body
+		AtomicInteger refs; // references held by cache and responses
+
+		/**
+		 * Class constructor that holds the reference of its creator
+		 * Called by: DirectFileCache.read()
+		 *     Calls: FileCache.Entry(), AtomicInteger()
+		 * @param resource - normalized resource path
+		 * @param type - content type of file
+		 * @param allocator - allocator pages are returned to
+		 * @param pages - pages holding entity lines and body
+		 * @param entityLength - byte count of entity lines
+		 * @param length - byte count of body
+		 */
+		public DirectEntry(String resource, String type, SlabAllocator allocator, int[] pages,
+				int entityLength, long length) {
+			super(resource, type);
+			this.allocator = allocator;
+			this.pages = pages;
+			this.entityLength = entityLength;
+			this.length = length;
+			refs = new AtomicInteger(1);
+		}
+
+		@Override
+		long size() {
+			return (long)pages.length * allocator.pageSize;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * Gets entity lines from the start of the first page
+		 * Called by: HttpRespSrv()
+		 *     Calls: SlabAllocator.page()
+		 * @return - entity lines
+		 */
+		@Override
+		public ByteBuffer getEntity() {
+			ByteBuffer buf = allocator.page(pages[0]);
+			buf.limit(entityLength);
+			return buf;
+		}
+
+		/**
+		 * Gets body as one buffer per page limited to the bytes used
+		 * Called by: HttpRespSrv(), DirectFileCache.read()
+		 *     Calls: SlabAllocator.page()
+		 * @return - buffers holding body in order
+		 */
+		@Override
+		public ByteBuffer[] getBody() {
+			ByteBuffer[] body = new ByteBuffer[pages.length];
+			long remaining = length;
+			for (int i = 0; i < pages.length; i++) {
+				ByteBuffer buf = allocator.page(pages[i]);
+				if (i == 0) {
+					buf.position(entityLength);
+				}
+				buf.limit(buf.position() + (int)Math.min(buf.remaining(), remaining));
+				remaining -= buf.remaining();
+				body[i] = buf;
+			}
+			return body;
+		}
+
+		@Override
+		public void acquire() {
+			refs.incrementAndGet();
+		}
+
+		/**
+		 * Releases a reference and returns the pages to the allocator when
+		 * it was the last
+		 * Called by: FileCache, WebSrvThread.sendCachedResponse()
+		 *     Calls: AtomicInteger.decrementAndGet(), SlabAllocator.free()
+		 */
+		@Override
+		public void release() {
+			if (refs.decrementAndGet() == 0) {
+				allocator.free(pages);
+			}
+		}
+	}
+
+	/**
+	 * Class constructor that creates an empty cache, direct memory is
+	 * allocated as files are cached
+	 * Called by: WebSrv.start()
+	 *     Calls: FileCache(), SlabAllocator()
+	 * @param maxBytes - maximum bytes of direct memory used
+	 * @param maxFileSize - largest file that is cached
+	 */
+	public DirectFileCache(long maxBytes, long maxFileSize) {
+		super(maxBytes, maxFileSize);
+		allocator = new SlabAllocator(maxBytes, PAGE_SIZE, (int)Math.min(SLAB_SIZE, Math.max(maxBytes, PAGE_SIZE)));
+		this.maxBytes = allocator.capacity();
+		this.maxFileSize = Math.min(maxFileSize, this.maxBytes - PAGE_SIZE);
+	}
+
+	/**
+	 * Reads file into pages of direct memory. Least recently used entries
+	 * are evicted if the pages are not free, if they are still being sent
+	 * the file is not cached
+	 * Called by: FileCache.load()
+	 *     Calls: HttpRespHeader.encode(), SlabAllocator.allocate(), FileCache.evict(),
+	 *            DirectEntry(), FileChannel.read()
+	 * @param key - normalized resource path
+	 * @param type - content type of file
+	 * @param file - file to read
+	 * @return - entry or null if file can not be held
+	 * @throws IOException - if file fails to be read
+	 */
+	@Override
+	protected Entry read(String key, String type, File file) throws IOException {
+		try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = chan.size();
+			byte[] entity = HttpRespHeader.encode("Content-type: " + type + "\r\n"
+					+ "Content-length: " + size + "\r\n");
+			if (entity.length > PAGE_SIZE || size > maxFileSize) {
+				return null;
+			}
+
+			int count = allocator.pagesFor(entity.length + size);
+			int[] pages = allocator.allocate(count);
+			if (pages == null) {
+				synchronized (this) {
+					evict(Math.max(0, bytes - (long)count * PAGE_SIZE));
+				}
+				pages = allocator.allocate(count);
+				if (pages == null) {
+					return null;
+				}
+			}
+
+			DirectEntry entry = new DirectEntry(key, type, allocator, pages, entity.length, size);
+			allocator.page(pages[0]).put(entity);
+
+			// scatter file into pages after entity lines
+			ByteBuffer[] body = entry.getBody();
+			long read = 0;
+			while (read < size) {
+				long n = chan.read(body);
+				if (n < 0) {
+					break;
+				}
+				read += n;
+			}
+			if (read != size) {
+				entry.release(); // file changed while read
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: FileCache.report()
+	 * @return - report string
+	 */
+	@Override
+	public String report() {
+		return "direct " + super.report();
+	}
+}
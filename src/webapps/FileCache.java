@@ -0,0 +1,354 @@
+package webapps;
+/**
+ * Name: FileCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps the content of small, frequently requested
+ *              files in memory so WebSrvThread can answer them without opening
+ *              or reading the file. Entries are keyed by the normalized
+ *              resource path and hold the body together with its encoded
+ *              Content-type and Content-length lines. The total size of the
+ *              bodies is bounded and the least recently used entries are
+ *              evicted first. Entries are dropped when DirWatcher reports the
+ *              file under them changed. Hits, misses and evictions are counted
+ *              so the size can be tuned. Subclasses may store entries
+ *              elsewhere by overriding read() and keeping entries alive with
+ *              acquire() and release() while they are sent.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class FileCache implements DirWatcher.Listener {
+	LinkedHashMap<String, Entry> entries; // cached files in least recently used order
+	long maxBytes; // maximum total size of cached files
+	long maxFileSize; // largest file that is cached
+	long bytes; // total size of cached files
+	long generation; // incremented on every change so stale loads are discarded
+	AtomicLong hits; // requests answered from cache
+	AtomicLong misses; // requests not found in cache
+	AtomicLong evictions; // entries removed to make space
+
+	/**
+	 * Class that holds a cached file in the heap
+	 */
+	public static class Entry {
+		String resource; // normalized resource path
+		String type; // content type of file
+		byte[] header; // encoded Content-type and Content-length lines
+		byte[] body; // content of file, null if held outside the heap
+
+		/**
+		 * Class constructor that encodes the entity lines of the file
+		 * Called by: FileCache.load()
+		 *     Calls: HttpRespHeader.encode()
+		 * @param resource - normalized resource path
+		 * @param type - content type of file
+		 * @param body - content of file
+		 */
+		public Entry(String resource, String type, byte[] body) {
+			this.resource = resource;
+			this.type = type;
+			this.body = body;
+			this.header = HttpRespHeader.encode("Content-type: " + type + "\r\n"
+					+ "Content-length: " + body.length + "\r\n");
+		}
+
+		/**
+		 * Class constructor used by subclasses that hold the file outside
+		 * the heap
+		 * Called by: DirectFileCache.DirectEntry()
+		 *     Calls: none
+		 * @param resource - normalized resource path
+		 * @param type - content type of file
+		 */
+		protected Entry(String resource, String type) {
+			this.resource = resource;
+			this.type = type;
+		}
+
+		/**
+		 * Gets memory used by entry
+		 * Called by: FileCache
+		 *     Calls: none
+		 * @return - byte count of body and header
+		 */
+		long size() {
+			return body.length + header.length;
+		}
+
+		/**
+		 * Gets length of content
+		 * Called by: FileCache.load(), HttpRespSrv()
+		 *     Calls: none
+		 * @return - byte count of file
+		 */
+		public long length() {
+			return body.length;
+		}
+
+		/**
+		 * Gets encoded Content-type and Content-length lines
+		 * Called by: HttpRespSrv()
+		 *     Calls: ByteBuffer.wrap()
+		 * @return - entity lines
+		 */
+		public ByteBuffer getEntity() {
+			return ByteBuffer.wrap(header);
+		}
+
+		/**
+		 * Gets content of file as buffers with their own positions
+		 * Called by: HttpRespSrv()
+		 *     Calls: ByteBuffer.wrap()
+		 * @return - buffers holding content in order
+		 */
+		public ByteBuffer[] getBody() {
+			return new ByteBuffer[] {ByteBuffer.wrap(body)};
+		}
+
+		/**
+		 * Takes a reference that keeps the entry's memory from being reused,
+		 * nothing to do for heap entries
+		 * Called by: FileCache.get(), FileCache.load()
+		 *     Calls: none
+		 */
+		public void acquire() {
+		}
+
+		/**
+		 * Releases a reference taken by acquire() or held since the entry
+		 * was read, nothing to do for heap entries
+		 * Called by: FileCache, WebSrvThread.sendCachedResponse()
+		 *     Calls: none
+		 */
+		public void release() {
+		}
+	}
+
+	/**
+	 * Class constructor that creates an empty cache
+	 * Called by: WebSrv.start()
+	 *     Calls: LinkedHashMap(), AtomicLong()
+	 * @param maxBytes - maximum total size of cached files
+	 * @param maxFileSize - largest file that is cached
+	 */
+	public FileCache(long maxBytes, long maxFileSize) {
+		this.maxBytes = maxBytes;
+		this.maxFileSize = Math.min(maxFileSize, maxBytes);
+		entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+	}
+
+	/**
+	 * Gets cached file of a resource and takes a reference to it that the
+	 * caller must release
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), LinkedHashMap.get(), Entry.acquire()
+	 * @param resource - requested resource
+	 * @return - cached file or null if it is not cached
+	 */
+	public Entry get(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return null;
+		}
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry != null) {
+				entry.acquire();
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Reads a file and caches it under its resource. Files that are not
+	 * regular, are too large or are outside their root are not cached. If
+	 * the cache changed while the file was read the file is returned but
+	 * not cached since it may be stale. The caller holds a reference to
+	 * the entry that it must release
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), read(), put()
+	 * @param resource - requested resource
+	 * @param file - file resource was found at
+	 * @return - cached file or null if the file is not cached
+	 */
+	public Entry load(String resource, File file) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null || !file.isFile() || file.length() > maxFileSize) {
+			return null;
+		}
+
+		long gen;
+		synchronized (this) {
+			gen = generation;
+		}
+
+		Entry entry;
+		try {
+			entry = read(key, HttpRespSrv.getContentType(file.getName()), file);
+		}
+		catch (IOException e) {
+			return null;
+		}
+		if (entry == null) {
+			return null;
+		}
+		if (entry.length() > maxFileSize) {
+			entry.release();
+			return null;
+		}
+
+		put(key, entry, gen);
+		return entry;
+	}
+
+	/**
+	 * Caches an entry unless the cache changed since it was read, the
+	 * entry it replaces is removed and the cache is reduced to its bound
+	 * Called by: load(), DirListing.write()
+	 *     Calls: Entry.acquire(), removed(), evict()
+	 * @param key - normalized resource path
+	 * @param entry - entry to cache
+	 * @param gen - generation of cache when entry was read
+	 */
+	protected synchronized void put(String key, Entry entry, long gen) {
+		if (gen != generation) {
+			return;
+		}
+		entry.acquire(); // reference held by cache
+		Entry old = entries.put(key, entry);
+		if (old != null) {
+			bytes -= old.size();
+			removed(old);
+		}
+		bytes += entry.size();
+		evict();
+	}
+
+	/**
+	 * Reads file into a new entry
+	 * Called by: load()
+	 *     Calls: Files.readAllBytes(), Entry()
+	 * @param key - normalized resource path
+	 * @param type - content type of file
+	 * @param file - file to read
+	 * @return - entry or null if file can not be held
+	 * @throws IOException - if file fails to be read
+	 */
+	protected Entry read(String key, String type, File file) throws IOException {
+		return new Entry(key, type, Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * Called when an entry is removed from the cache, releases the
+	 * reference held by the cache, must hold lock
+	 * Called by: put(), evict(), changed(), changedAll()
+	 *     Calls: Entry.release()
+	 * @param entry - removed entry
+	 */
+	protected void removed(Entry entry) {
+		entry.release();
+	}
+
+	/**
+	 * Removes least recently used entries until the cache fits its bound,
+	 * must hold lock
+	 * Called by: put()
+	 *     Calls: evict(long)
+	 */
+	private void evict() {
+		evict(maxBytes);
+	}
+
+	/**
+	 * Removes least recently used entries until the cache holds no more
+	 * than a byte count, must hold lock
+	 * Called by: evict(), DirectFileCache.read()
+	 *     Calls: Iterator.remove(), removed()
+	 * @param limit - byte count cache is reduced to
+	 */
+	protected void evict(long limit) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (bytes > limit && it.hasNext()) {
+			Entry e = it.next();
+			bytes -= e.size();
+			it.remove();
+			removed(e);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes entry of a changed resource and all entries below it in
+	 * case the resource is a directory
+	 * Called by: DirWatcher.run()
+	 *     Calls: Iterator.remove(), removed()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public synchronized void changed(String resource) {
+		generation++;
+		String prefix = resource.endsWith("/") ? resource : resource + "/";
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e.resource.equals(resource) || e.resource.startsWith(prefix)) {
+				bytes -= e.size();
+				it.remove();
+				removed(e);
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 * Called by: DirWatcher.run()
+	 *     Calls: removed(), LinkedHashMap.clear()
+	 */
+	@Override
+	public synchronized void changedAll() {
+		generation++;
+		for (Entry e : entries.values()) {
+			removed(e);
+		}
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public synchronized String report() {
+		return "cache: " + hits.get() + " hits, " + misses.get() + " misses, "
+				+ evictions.get() + " evictions, " + entries.size() + " files, "
+				+ bytes + "/" + maxBytes + " bytes";
+	}
+}
@@ -0,0 +1,90 @@
+package webapps;
+/**
+ * Name: GzipCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps gzip compressed copies of text files so each
+ *              is compressed once rather than on every request that accepts
+ *              gzip. Files are compressed at the best level since the cost is
+ *              paid once. The total size of the compressed copies is bounded
+ *              and the least recently used are evicted first. Lookup, eviction
+ *              and invalidation are inherited from FileCache, a change to a
+ *              precompressed .gz sibling also drops the copy of the file so
+ *              the sibling is served instead.
+ *
+ * Inherits: FileCache
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+
+/**
+ * Class definition
+ */
+public class GzipCache extends FileCache {
+
+	/**
+	 * Class constructor that creates an empty cache
+	 * Called by: WebSrv.start()
+	 *     Calls: FileCache()
+	 * @param maxBytes - maximum total size of compressed copies
+	 * @param maxFileSize - largest file that is compressed into the cache
+	 */
+	public GzipCache(long maxBytes, long maxFileSize) {
+		super(maxBytes, maxFileSize);
+	}
+
+	/**
+	 * Reads and compresses file into a new entry whose entity lines
+	 * describe the compressed body
+	 * Called by: FileCache.load()
+	 *     Calls: ContentEncoding.wrap(), Files.copy(), FileCache.Entry()
+	 * @param key - normalized resource path
+	 * @param type - content type of file
+	 * @param file - file to read
+	 * @return - entry holding compressed file
+	 * @throws IOException - if file fails to be read
+	 */
+	@Override
+	protected Entry read(String key, String type, File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)Math.min(file.length() / 3 + 64, maxFileSize));
+		try (OutputStream z = ContentEncoding.wrap(bytes, ContentEncoding.GZIP, Deflater.BEST_COMPRESSION)) {
+			Files.copy(file.toPath(), z);
+		}
+		return new Entry(key, type, bytes.toByteArray());
+	}
+
+	/**
+	 * Removes copy of a changed resource, a changed .gz file removes the
+	 * copy of the file it is a compressed sibling of
+	 * Called by: DirWatcher.run()
+	 *     Calls: FileCache.changed()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public synchronized void changed(String resource) {
+		super.changed(resource);
+		if (resource.endsWith(".gz")) {
+			super.changed(resource.substring(0, resource.length() - 3));
+		}
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: FileCache.report()
+	 * @return - report string
+	 */
+	@Override
+	public String report() {
+		return "gzip " + super.report();
+	}
+}
@@ -0,0 +1,440 @@
+package webapps;
+/**
+ * Name: HashIndex.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps a SHA-256 hash of the content of every
+ *              served file so its ETag only changes when its content does,
+ *              a deploy that touches files without changing them does not
+ *              make clients download them again. Files are hashed in the
+ *              background on a fork/join pool of low priority threads, until
+ *              a file is hashed its ETag is built from its size and
+ *              modification time as before. The hashes are saved to a file
+ *              with the size and modification time they were computed for
+ *              once the first scan ends, every minute while they change and
+ *              when the server shuts down. At the next start a file whose
+ *              size and modification time are unchanged is not read again.
+ *              A hash is only used while the file still has the size and
+ *              modification time it was computed for, DirWatcher has
+ *              changed files hashed again.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class HashIndex implements DirWatcher.Listener {
+	static final String MAGIC = "WEBHASH1"; // first field of a saved index
+	static final int TAG_BYTES = 16; // bytes of the hash kept in the ETag
+	static final int BATCH = 64; // files hashed by one task before it is split
+	static final int SAVE_INTERVAL = 60; // seconds between saves of a changed index
+
+	List<File> dirs; // directories in order of precedence
+	File store; // file the index is saved to
+	ConcurrentHashMap<String, Hash> hashes; // hash of each resource
+	ForkJoinPool pool; // threads files are hashed on
+	volatile boolean dirty; // hashes changed since index was saved
+	AtomicLong hashed; // files read and hashed
+	AtomicLong reused; // files whose saved hash was still current
+	AtomicLong hits; // responses sent with a content hash ETag
+
+	// digest and read buffer of each hashing thread
+	static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+	});
+	static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+	/**
+	 * Class that holds the hash of a file and the size and modification
+	 * time it was computed for
+	 */
+	static class Hash {
+		long size; // byte count of file
+		long modified; // modification time in milliseconds
+		byte[] digest; // first TAG_BYTES of SHA-256 of file
+		volatile MetaCache.Meta meta; // validators built on first use
+
+		/**
+		 * Class constructor
+		 * Called by: HashIndex.hash(), HashIndex.load()
+		 * @param size - byte count of file
+		 * @param modified - modification time in milliseconds
+		 * @param digest - first TAG_BYTES of SHA-256 of file
+		 */
+		Hash(long size, long modified, byte[] digest) {
+			this.size = size;
+			this.modified = modified;
+			this.digest = digest;
+		}
+
+		/**
+		 * Gets the validators of the file with the hash as its ETag
+		 * Called by: HashIndex.apply()
+		 *     Calls: MetaCache.Meta(), Base64.getUrlEncoder()
+		 * @param resource - normalized resource path
+		 * @return - validators
+		 */
+		MetaCache.Meta getMeta(String resource) {
+			MetaCache.Meta m = meta;
+			if (m == null) {
+				String tag = "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+				m = new MetaCache.Meta(resource, size, modified, tag);
+				meta = m;
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Class that hashes a range of resources, splitting it in halves
+	 * until a range is small enough to hash on one thread
+	 */
+	class Hasher extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		String[] keys; // resources to hash
+		int lo; // index of first resource
+		int hi; // index after last resource
+
+		/**
+		 * Class constructor
+		 * Called by: HashIndex.submit(), compute()
+		 * @param keys - resources to hash
+		 * @param lo - index of first resource
+		 * @param hi - index after last resource
+		 */
+		Hasher(String[] keys, int lo, int hi) {
+			this.keys = keys;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > BATCH) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new Hasher(keys, lo, mid), new Hasher(keys, mid, hi));
+				return;
+			}
+			for (int i = lo; i < hi; i++) {
+				hash(keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Class constructor that reads the saved index, hashing starts once
+	 * start() is called
+	 * Called by: WebSrv.start(), Test
+	 *     Calls: ConcurrentHashMap(), AtomicLong(), load()
+	 * @param dirs - directories in order of precedence
+	 * @param store - file the index is saved to
+	 */
+	public HashIndex(List<File> dirs, File store) {
+		this.dirs = dirs;
+		this.store = store;
+		hashes = new ConcurrentHashMap<String, Hash>();
+		hashed = new AtomicLong();
+		reused = new AtomicLong();
+		hits = new AtomicLong();
+		load();
+	}
+
+	/**
+	 * Starts hashing every served file in the background and saving the
+	 * index while it changes
+	 * Called by: WebSrv.start()
+	 *     Calls: ForkJoinPool(), Executors.newSingleThreadScheduledExecutor(), submit()
+	 */
+	public void start() {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		pool = new ForkJoinPool(threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("hash-" + t.getPoolIndex());
+			t.setPriority(Thread.MIN_PRIORITY); // requests come first
+			return t;
+		}, null, false);
+		ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "hash-save");
+			t.setDaemon(true);
+			return t;
+		});
+		saver.scheduleWithFixedDelay(this::saveIfDirty, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.SECONDS);
+		submit("/", true);
+	}
+
+	/**
+	 * Hashes the files below a resource in the background
+	 * Called by: start(), changed(), changedAll()
+	 *     Calls: resolve(), ResourceIndex.walk(), Hasher(), ForkJoinPool.execute(), saveIfDirty()
+	 * @param resource - resource path of file or directory
+	 * @param save - save the index once they are hashed
+	 */
+	private void submit(String resource, boolean save) {
+		if (pool == null) {
+			return;
+		}
+		pool.execute(() -> {
+			Set<String> keys = new LinkedHashSet<String>();
+			keys.add(resource);
+
+			// hashes of removed files are dropped when their key is hashed
+			if (resolve(resource) == null) {
+				String prefix = resource.endsWith("/") ? resource : resource + "/";
+				for (String key : hashes.keySet()) {
+					if (key.startsWith(prefix)) {
+						keys.add(key);
+					}
+				}
+			}
+			for (File dir : dirs) {
+				Path root = dir.toPath().toAbsolutePath().normalize();
+				keys.addAll(ResourceIndex.walk(root, root.resolve(resource.substring(1))));
+			}
+			String[] all = keys.toArray(new String[0]);
+			new Hasher(all, 0, all.length).invoke();
+			if (save) {
+				saveIfDirty();
+			}
+		});
+	}
+
+	/**
+	 * Finds the file of a resource by searching the directories in order
+	 * Called by: hash()
+	 *     Calls: File(), File.isFile()
+	 * @param key - normalized resource path
+	 * @return - file of resource or null if no directory has it
+	 */
+	private File resolve(String key) {
+		for (File dir : dirs) {
+			File file = new File(dir, key);
+			if (file.isFile()) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Hashes the file of a resource unless its saved hash is current. A
+	 * file that changes while it is read is left to be hashed when its
+	 * change is reported
+	 * Called by: Hasher.compute()
+	 *     Calls: resolve(), Files.readAttributes(), digest(), ConcurrentHashMap.put(),
+	 *            ConcurrentHashMap.remove()
+	 * @param key - normalized resource path
+	 */
+	void hash(String key) {
+		File file = resolve(key);
+		if (file == null) {
+			if (hashes.remove(key) != null) {
+				dirty = true; // file was removed
+			}
+			return;
+		}
+		try {
+			BasicFileAttributes before = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			long size = before.size();
+			long modified = before.lastModifiedTime().toMillis();
+			Hash h = hashes.get(key);
+			if (h != null && h.size == size && h.modified == modified) {
+				reused.incrementAndGet();
+				return;
+			}
+			byte[] digest = digest(file.toPath());
+			BasicFileAttributes after = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			if (after.size() != size || after.lastModifiedTime().toMillis() != modified) {
+				return;
+			}
+			hashes.put(key, new Hash(size, modified, digest));
+			hashed.incrementAndGet();
+			dirty = true;
+		}
+		catch (IOException e) {
+			// unreadable file keeps its time based ETag
+		}
+	}
+
+	/**
+	 * Computes the SHA-256 of a file, reading it with the buffer of the
+	 * current thread
+	 * Called by: hash()
+	 *     Calls: FileChannel.open(), MessageDigest.update(), MessageDigest.digest()
+	 * @param path - file to hash
+	 * @return - first TAG_BYTES of the hash
+	 * @throws IOException - if file fails to be read
+	 */
+	static byte[] digest(Path path) throws IOException {
+		MessageDigest md = digests.get();
+		ByteBuffer buf = buffers.get();
+		md.reset();
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			buf.clear();
+			while (in.read(buf) >= 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		}
+		return Arrays.copyOf(md.digest(), TAG_BYTES);
+	}
+
+	/**
+	 * Replaces the validators of a file with ones whose ETag is its
+	 * content hash, when the file has been hashed at the size and
+	 * modification time it has now
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: ConcurrentHashMap.get(), Hash.getMeta()
+	 * @param meta - validators of file built from its size and modification time
+	 * @return - validators with the content hash or meta if file is not hashed
+	 */
+	public MetaCache.Meta apply(MetaCache.Meta meta) {
+		Hash h = hashes.get(meta.resource);
+		if (h == null || h.size != meta.length
+				|| h.modified - Math.floorMod(h.modified, 1000L) != meta.modified) {
+			return meta;
+		}
+		hits.incrementAndGet();
+		return h.getMeta(meta.resource);
+	}
+
+	/**
+	 * Reads the saved index, an index that can not be read is ignored
+	 * and every file is hashed again
+	 * Called by: HashIndex()
+	 *     Calls: DataInputStream.readUTF(), DataInputStream.readLong(), Hash()
+	 */
+	private void load() {
+		if (!store.isFile()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(store.toPath())))) {
+			if (!in.readUTF().equals(MAGIC)) {
+				throw new IOException("not a hash index");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				long size = in.readLong();
+				long modified = in.readLong();
+				byte[] digest = new byte[TAG_BYTES];
+				in.readFully(digest);
+				hashes.put(key, new Hash(size, modified, digest));
+			}
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to read hash index, files are hashed again: " + store);
+			hashes.clear();
+		}
+	}
+
+	/**
+	 * Saves the index if it changed since it was last saved. It is
+	 * written beside the store and moved over it once complete
+	 * Called by: submit(), start() timer, WebSrv shutdown hook, Test
+	 *     Calls: DataOutputStream.writeUTF(), DataOutputStream.writeLong(), Files.move()
+	 */
+	synchronized void saveIfDirty() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		Path tmp = new File(store.getPath() + ".tmp").toPath();
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(tmp)))) {
+				ArrayList<Map.Entry<String, Hash>> all = new ArrayList<Map.Entry<String, Hash>>(hashes.entrySet());
+				out.writeUTF(MAGIC);
+				out.writeInt(all.size());
+				for (Map.Entry<String, Hash> e : all) {
+					Hash h = e.getValue();
+					out.writeUTF(e.getKey());
+					out.writeLong(h.size);
+					out.writeLong(h.modified);
+					out.write(h.digest);
+				}
+			}
+			Files.move(tmp, store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			dirty = true;
+			Srv.errorLog.warning("failed to save hash index: " + store);
+		}
+	}
+
+	/**
+	 * Hashes a changed resource and all below it again. The old hashes
+	 * are kept until then since they are not used once the size or
+	 * modification time of a file differs
+	 * Called by: DirWatcher.run()
+	 *     Calls: submit()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public void changed(String resource) {
+		submit(resource, false);
+	}
+
+	/**
+	 * Hashes every file again whose size or modification time changed
+	 * Called by: DirWatcher.run()
+	 *     Calls: submit()
+	 */
+	@Override
+	public void changedAll() {
+		submit("/", false);
+	}
+
+	/**
+	 * Builds report of hashing counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public String report() {
+		return "hashes: " + hits.get() + " hits, " + hashed.get() + " hashed, " + reused.get() + " reused, "
+				+ hashes.size() + " files";
+	}
+}
@@ -0,0 +1,176 @@
+package webapps;
+/**
+ * Name: HotSet.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that remembers the most requested files of a run so
+ *              the next run starts with them cached. Every file sent is
+ *              counted as it is logged, when the server shuts down the
+ *              paths of the most requested files are saved to a file, one
+ *              per line with the most requested first. At the next start
+ *              they are loaded into the caches in parallel while the server
+ *              already accepts connections. Paths warmed from the last run
+ *              are kept in the next snapshot behind those requested in this
+ *              run so a short run does not forget them. Only the first
+ *              MAX_TRACKED paths seen are counted so the counts stay bounded
+ *              however many files are served.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Class definition
+ */
+public class HotSet {
+	static final int MAX_TRACKED = 100000; // most paths counted
+
+	File store; // file the snapshot is saved to
+	int size; // number of paths saved
+	ConcurrentHashMap<String, LongAdder> counts; // requests of each path
+	AtomicLong warmed; // paths loaded at start
+
+	/**
+	 * Class constructor
+	 * Called by: WebSrv.start(), Test
+	 *     Calls: ConcurrentHashMap(), AtomicLong()
+	 * @param store - file the snapshot is saved to
+	 * @param size - number of paths saved
+	 */
+	public HotSet(File store, int size) {
+		this.store = store;
+		this.size = size;
+		counts = new ConcurrentHashMap<String, LongAdder>();
+		warmed = new AtomicLong();
+	}
+
+	/**
+	 * Counts a request for a file
+	 * Called by: WebSrvThread.createAccessLog()
+	 *     Calls: DirWatcher.normalize(), ConcurrentHashMap.computeIfAbsent(), LongAdder.increment()
+	 * @param resource - requested resource
+	 */
+	public void record(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return;
+		}
+		LongAdder count = counts.get(key);
+		if (count == null) {
+			if (counts.size() >= MAX_TRACKED) {
+				return;
+			}
+			count = counts.computeIfAbsent(key, k -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	/**
+	 * Reads the paths of the last snapshot, none if there is no snapshot
+	 * Called by: warm()
+	 *     Calls: Files.readAllLines()
+	 * @return - paths with the most requested first
+	 */
+	List<String> read() {
+		List<String> paths = new ArrayList<String>();
+		if (!store.isFile()) {
+			return paths;
+		}
+		try {
+			for (String line : Files.readAllLines(store.toPath(), StandardCharsets.UTF_8)) {
+				String key = line.isEmpty() ? null : DirWatcher.normalize(line);
+				if (key != null && paths.size() < size) {
+					paths.add(key);
+				}
+			}
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to read hot set: " + store);
+		}
+		return paths;
+	}
+
+	/**
+	 * Loads the paths of the last snapshot in parallel, the most
+	 * requested first. Returns once they are submitted, the threads end
+	 * when all are loaded
+	 * Called by: WebSrv.start()
+	 *     Calls: read(), Executors.newFixedThreadPool(), ExecutorService.execute(),
+	 *            ExecutorService.shutdown()
+	 * @param loader - loads a path into the caches
+	 * @return - number of paths submitted
+	 */
+	public int warm(Consumer<String> loader) {
+		List<String> paths = read();
+		if (paths.isEmpty()) {
+			return 0;
+		}
+		ExecutorService threads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			Thread t = new Thread(r, "warm");
+			t.setDaemon(true);
+			return t;
+		});
+		for (String path : paths) {
+			counts.putIfAbsent(path, new LongAdder()); // kept behind paths requested this run
+			threads.execute(() -> {
+				loader.accept(path);
+				warmed.incrementAndGet();
+			});
+		}
+		threads.shutdown();
+		return paths.size();
+	}
+
+	/**
+	 * Saves the most requested paths, written beside the store and moved
+	 * over it once complete
+	 * Called by: WebSrv shutdown hook, Test
+	 *     Calls: List.sort(), Files.write(), Files.move()
+	 */
+	public void save() {
+		List<Map.Entry<String, Long>> all = new ArrayList<Map.Entry<String, Long>>();
+		for (Map.Entry<String, LongAdder> e : counts.entrySet()) {
+			all.add(Map.entry(e.getKey(), e.getValue().sum()));
+		}
+		all.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < all.size() && i < size; i++) {
+			lines.add(all.get(i).getKey());
+		}
+		Path tmp = new File(store.getPath() + ".tmp").toPath();
+		try {
+			Files.write(tmp, lines, StandardCharsets.UTF_8);
+			Files.move(tmp, store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to save hot set: " + store);
+		}
+	}
+
+	/**
+	 * Builds report of hot set counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public String report() {
+		return "hot set: " + warmed.get() + " warmed, " + counts.size() + " paths counted";
+	}
+}
@@ -9,100 +9,371 @@ package webapps;
  * Description: Class used to read and parse an HTTP header from an InputStream.
  *              HTTP header values are stored in a HashMap with the keys being
  *              the field name in lower case. The first line of the header is stored
- *              as head1 head2 and head3.
+ *              as head1 head2 and head3. The stream is read in bulk into a buffer
+ *              that is reused for every request on a connection. Only the offsets
+ *              of field lines are recorded while scanning, values are decoded when
+ *              first asked for. Scanning resumes where it stopped so partial reads
+ *              from a non-blocking channel can be fed in as they arrive.
  */
 
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class HttpHeader {
+	static final int INITIAL_SIZE = 4096; // starting size of read buffer
+	static final int MAX_SIZE = 16384; // largest header accepted
 	
 	InputStream in; // input stream header is read from
 	
-	HashMap<String, String> fields; // stores fields
+	HashMap<String, String> fields; // stores fields that have been decoded
+	
+	byte[] buf; // bytes read from stream, header starts at index 0
+	int len; // count of bytes in buf
+	int scan; // index scanning for line ends resumes from
+	int end; // index after the blank line ending header, -1 until found
+	int[] lines; // start and end index of each field line
+	int lineCount; // count of field lines found
 
 	/**
 	 * Initializes members
-	 * Called by: HttpReq.parse(),
+	 * Called by: HttpReq(), WebSrvThread.run()
 	 *     Calls: HashMap<String, String>()
 	 * @param in - input stream to read header from
 	 */
 	public HttpHeader(InputStream in) {
 		this.in = in;
 		fields = new HashMap<String, String>(); // initialize map
+		buf = new byte[INITIAL_SIZE];
+		lines = new int[32];
+		end = -1;
 	}
 	
 	/**
-	 * Reads and parses header and stores values into fields map. If
-	 * header is malformed or an error occurs reading from stream
-	 * an exception will be thrown
+	 * Reads and parses header and stores the first line into fields map.
+	 * Bytes already buffered are scanned before more are read from the
+	 * stream, and the stream is read in bulk so bytes after the header
+	 * are kept for the next call. A header that was previously parsed is
+	 * discarded first. If header is malformed or an error occurs reading
+	 * from stream an exception will be thrown
 	 * Called by: HttpReq.parse()
-	 *     Calls: StringBuilder(), setFirstLine(), setField()
+	 *     Calls: scan(), fill()
 	 * @throws IOException - if error occurs reading from stream
 	 * @throws HttpHeaderException - if header is malformed
 	 */
 	public void parse()  throws IOException, HttpHeaderException {
-		int c;
-		StringBuilder line = new StringBuilder();
+		if (end >= 0) {
+			reset(); // drop previous header keeping any pipelined bytes
+		}
 		
-		// read first line of request
-		while ((c = in.read()) != -1 && (char)c != '\r' && (char)c != '\n') {
-			line.append((char)c);
+		// scan bytes read until entire header is found
+		while (!scan()) {
+			ensureSpace();
+			if (read() == -1) {
+				throw new HttpHeaderException("failed to read entire header");
+			}
+		}
+	}
+
+	/**
+	 * Adds bytes received by a non-blocking channel and scans them. Can be
+	 * called with each partial read until it returns true, after which the
+	 * fields can be read
+	 * Called by: none
+	 *     Calls: reset(), ensureSpace(), ByteBuffer.get(), scan()
+	 * @param src - buffer holding bytes read from channel
+	 * @return - true if the entire header has been received
+	 * @throws HttpHeaderException - if header is malformed or too large
+	 */
+	public boolean feed(ByteBuffer src) throws HttpHeaderException {
+		if (end >= 0) {
+			reset(); // drop previous header keeping any pipelined bytes
 		}
 		
-		c = in.read(); // read next byte
-		if ((char)c != '\n') { // make sure byte is a line feed character
-			throw new HttpHeaderException("header malformed incorrect line"
-											+ " terminating character: " + (char)c);
+		while (src.hasRemaining()) {
+			ensureSpace();
+			int n = Math.min(src.remaining(), buf.length - len);
+			src.get(buf, len, n);
+			len += n;
+			
+			if (scan()) {
+				return true; // remaining bytes are left for the next header
+			}
+		}
+		return scan();
+	}
+
+	/**
+	 * Reads the bytes available from the stream into the buffer without
+	 * scanning them, blocks until at least one byte is read. A header that
+	 * was previously parsed is discarded first.
+	 * Called by: WebSrvThread.waitForRequest()
+	 *     Calls: reset(), read()
+	 * @return - count of bytes read or -1 if end of stream was reached
+	 * @throws IOException - if error occurs reading from stream
+	 */
+	public int fill() throws IOException {
+		if (end >= 0) {
+			reset();
+		}
+		if (len == buf.length) {
+			return 0; // buffer full, parse() rejects or grows it
+		}
+		return read();
+	}
+
+	/**
+	 * Reads from the stream into the free space of the buffer
+	 * Called by: parse(), fill()
+	 *     Calls: InputStream.read()
+	 * @return - count of bytes read or -1 if end of stream was reached
+	 * @throws IOException - if error occurs reading from stream
+	 */
+	private int read() throws IOException {
+		int n = in.read(buf, len, buf.length - len);
+		if (n > 0) {
+			len += n;
 		}
+		return n;
+	}
 
-		// split first line into array
-		String[] params = line.toString().split(" ", 3);
+	/**
+	 * Gets the count of bytes read past the end of the current header,
+	 * which belong to a request body or to pipelined requests
+	 * Called by: WebSrvThread.run(), WebSrvThread.waitForRequest()
+	 *     Calls: none
+	 * @return - count of buffered bytes
+	 */
+	public int buffered() {
+		return (end >= 0) ? len - end : len;
+	}
+
+	/**
+	 * Discards bytes following the header, taking them from the buffer
+	 * before reading from the stream. Used to skip a request body.
+	 * Called by: HttpReq.skipContent()
+	 *     Calls: InputStream.skip(), InputStream.read()
+	 * @param n - count of bytes to discard
+	 * @throws IOException - if stream ends before bytes are discarded
+	 */
+	public void skip(long n) throws IOException {
+		// take bytes already buffered after the header
+		int take = (int)Math.min(n, buffered());
+		if (end >= 0) {
+			end += take;
+		}
+		else {
+			System.arraycopy(buf, take, buf, 0, len - take);
+			len -= take;
+		}
+		n -= take;
 		
-		// set parameters from first line
-		setFirstLine(params);
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) { // skip may not block, read to detect end of stream
+				if (in.read() == -1) {
+					throw new IOException("connection closed before end of content");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
 
-		// read rest of the request
-		while (true) {
-			line = new StringBuilder();
+	/**
+	 * Drops the parsed header and moves any bytes after it to the start
+	 * of the buffer so the next header can be parsed
+	 * Called by: parse(), feed(), fill()
+	 *     Calls: System.arraycopy(), HashMap.clear()
+	 */
+	public void reset() {
+		int rest = buffered();
+		System.arraycopy(buf, len - rest, buf, 0, rest);
+		len = rest;
+		scan = 0;
+		end = -1;
+		lineCount = 0;
+		fields.clear();
+	}
+
+	/**
+	 * Makes room in the buffer for more bytes by growing it, a header
+	 * that does not fit in MAX_SIZE is rejected
+	 * Called by: parse(), feed()
+	 *     Calls: Arrays.copyOf()
+	 * @throws HttpHeaderException - if header is too large
+	 */
+	private void ensureSpace() throws HttpHeaderException {
+		if (len < buf.length) {
+			return;
+		}
+		if (buf.length >= MAX_SIZE) {
+			throw new HttpHeaderException("header too large");
+		}
+		buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_SIZE));
+	}
+
+	/**
+	 * Scans bytes not yet scanned for line ends, recording where each field
+	 * line starts and ends. No strings are created for fields here, they
+	 * are decoded when asked for by getField(). The first line is set once
+	 * the header is complete.
+	 * Called by: parse(), feed()
+	 *     Calls: setFirstLine(), decode()
+	 * @return - true if the blank line ending the header was found
+	 * @throws HttpHeaderException - if header is malformed
+	 */
+	private boolean scan() throws HttpHeaderException {
+		if (end >= 0) {
+			return true;
+		}
+		
+		int lineStart = (lineCount == 0) ? 0 : lines[lineCount * 2 - 1] + 1;
+		for (int i = scan; i < len; i++) {
+			if (buf[i] != '\n') {
+				continue;
+			}
+			
+			// line ends with CRLF, a bare LF is tolerated
+			int lineEnd = (i > lineStart && buf[i - 1] == '\r') ? i - 1 : i;
 			
-			// read line
-			while ((c = in.read()) != -1 && (char)c != '\r' && (char)c != '\n') {
-				line.append((char)c);
+			if (lineEnd == lineStart && lineCount > 0) { // end of header is found
+				end = i + 1;
+				scan = end;
+				setFirstLine(splitFirstLine());
+				return true;
+			}
+			if (lineEnd == lineStart) { // request line can not be empty
+				throw new HttpHeaderException("header malformed empty first line");
 			}
 			
-			// check if communication before terminating characters were read
-			if (c == -1) {
-				throw new HttpHeaderException("failed to read entire header");
+			// record line, index after LF marks start of next line
+			if (lineCount * 2 + 2 > lines.length) {
+				lines = Arrays.copyOf(lines, lines.length * 2);
 			}
+			lines[lineCount * 2] = lineStart;
+			lines[lineCount * 2 + 1] = i;
+			lineCount++;
 			
-			c = in.read(); // read next byte
+			// field lines must have a name and colon
+			if (lineCount > 1 && indexOf(':', lineStart, lineEnd) <= lineStart) {
+				throw new HttpHeaderException("invalid header field format");
+			}
+			lineStart = i + 1;
+		}
+		scan = len;
+		return false;
+	}
+
+	/**
+	 * Splits the first line of the header on spaces into at most 3 strings
+	 * Called by: scan()
+	 *     Calls: lineEnd(), indexOf(), decode()
+	 * @return - array of strings from first line
+	 */
+	private String[] splitFirstLine() {
+		int start = lines[0];
+		int stop = lineEnd(0);
+		int sp1 = indexOf(' ', start, stop);
+		if (sp1 < 0) {
+			return new String[] {decode(start, stop)};
+		}
+		int sp2 = indexOf(' ', sp1 + 1, stop);
+		if (sp2 < 0) {
+			return new String[] {decode(start, sp1), decode(sp1 + 1, stop)};
+		}
+		return new String[] {decode(start, sp1), decode(sp1 + 1, sp2), decode(sp2 + 1, stop)};
+	}
+
+	/**
+	 * Finds the index a recorded line ends at, excluding the CR if present
+	 * @param line - index of line
+	 * @return - index after the last character of the line
+	 */
+	private int lineEnd(int line) {
+		int lf = lines[line * 2 + 1];
+		return (lf > lines[line * 2] && buf[lf - 1] == '\r') ? lf - 1 : lf;
+	}
+
+	/**
+	 * Finds first index of byte within range of the buffer
+	 * @param b - byte to find
+	 * @param from - first index searched
+	 * @param to - index search stops before
+	 * @return - index of byte or -1 if not found
+	 */
+	private int indexOf(char b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buf[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates a string from a range of the buffer
+	 * @param from - first index of string
+	 * @param to - index string ends before
+	 * @return - decoded string
+	 */
+	private String decode(int from, int to) {
+		return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Finds a field line by comparing name bytes with the lower case name
+	 * without creating strings, the last matching line is used. The value
+	 * is decoded with surrounding white space removed.
+	 * Called by: getField()
+	 *     Calls: lineEnd(), indexOf(), decode()
+	 * @param name - lower case name of field
+	 * @return - value of field or null if not found
+	 */
+	private String findField(String name) {
+		for (int l = lineCount - 1; l > 0; l--) {
+			int start = lines[l * 2];
+			int stop = lineEnd(l);
+			int colon = indexOf(':', start, stop);
+			if (colon - start != name.length()) {
+				continue;
+			}
 			
-			if ((char)c != '\n') { // make sure byte is a line feed character
-				throw new HttpHeaderException("header malformed incorrect line "
-												+ "terminating character: " + (char)c);
-				
+			// compare name ignoring case of ASCII letters
+			boolean match = true;
+			for (int i = 0; i < name.length() && match; i++) {
+				int c = buf[start + i];
+				if (c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+				match = c == name.charAt(i);
+			}
+			if (!match) {
+				continue;
 			}
 			
-			// parse line
-			String lineStr = line.toString();
-			if (lineStr.length() == 0) { // end of header is found
-				break; // break loop since entire header was found
+			// trim white space around value
+			int from = colon + 1;
+			while (from < stop && (buf[from] == ' ' || buf[from] == '\t')) {
+				from++;
 			}
-			else {
-				String[] pair = lineStr.split(": ", 2); // split line into field name an value
-				setField(pair); // set field
+			while (stop > from && (buf[stop - 1] == ' ' || buf[stop - 1] == '\t')) {
+				stop--;
 			}
+			return decode(from, stop);
 		}
+		return null;
 	}
 		
 	/**
 	 * Sets the parameters for the first line. Checks to make sure line only has 
 	 * 3 elements or throws an exception. Adds parameters to map with keys head1, 
 	 * head2, head3.
-	 * Called by: parse()
+	 * Called by: scan()
 	 *     Calls: none
 	 * @param params - 3 element string array
 	 * @throws HttpHeaderException - if array isn't 3 elements long
@@ -149,12 +420,20 @@ public class HttpHeader {
 	
 	/**
 	 * Gets the value of the field from the field name provided to it. All keys
-	 * are stored as lower case.
+	 * are stored as lower case. Fields are decoded from the buffer the first
+	 * time they are asked for and kept in the fields map after that.
+	 * Called by: HttpReq
+	 *     Calls: findField()
 	 * @param name - name of field
 	 * @return - value of field as string
 	 */
 	public String getField(String name) {
-		return fields.get(name);
+		String value = fields.get(name);
+		if (value == null && end >= 0 && !fields.containsKey(name)) {
+			value = findField(name);
+			fields.put(name, value);
+		}
+		return value;
 	}
 	
 	/**
@@ -0,0 +1,201 @@
+package webapps;
+/**
+ * Name: HttpRange.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that parses the Range field of a request into the
+ *              byte ranges of a file that are sent in a 206 response, and
+ *              checks the If-Range field against the validators of the file.
+ *              Ranges are sorted and overlapping or adjacent ranges are
+ *              merged so no byte is sent twice. A field that can not be
+ *              parsed or asks for too many ranges is ignored and the whole
+ *              file is sent, as RFC 7233 allows.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class definition
+ */
+public class HttpRange {
+	static final int MAX_RANGES = 32; // ranges accepted in one request
+
+	long start; // first byte of range
+	long end; // last byte of range, inclusive
+
+	/**
+	 * Class constructor
+	 * Called by: parse()
+	 *     Calls: none
+	 * @param start - first byte of range
+	 * @param end - last byte of range, inclusive
+	 */
+	public HttpRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Gets byte count of range
+	 * Called by: HttpRespSrv
+	 *     Calls: none
+	 * @return - byte count
+	 */
+	public long length() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Builds value of the Content-Range field of the range
+	 * Called by: HttpRespSrv.setRanges()
+	 *     Calls: none
+	 * @param total - byte count of file
+	 * @return - field value
+	 */
+	public String toContentRange(long total) {
+		return "bytes " + start + "-" + end + "/" + total;
+	}
+
+	/**
+	 * Parses a Range field against the length of a file
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: parseSpec(), merge()
+	 * @param field - value of Range field
+	 * @param total - byte count of file
+	 * @return - ranges to send, an empty list if none can be satisfied or
+	 *           null if the field is ignored
+	 */
+	public static List<HttpRange> parse(String field, long total) {
+		field = field.trim();
+		if (!field.startsWith("bytes=")) {
+			return null; // unknown unit
+		}
+		String[] specs = field.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+
+		ArrayList<HttpRange> ranges = new ArrayList<HttpRange>();
+		for (String spec : specs) {
+			spec = spec.trim();
+			if (spec.isEmpty()) {
+				continue;
+			}
+			HttpRange r;
+			try {
+				r = parseSpec(spec, total);
+			}
+			catch (NumberFormatException e) {
+				return null; // invalid syntax
+			}
+			if (r != null) {
+				ranges.add(r);
+			}
+		}
+		return merge(ranges);
+	}
+
+	/**
+	 * Parses one range of a Range field, either first-last, first- or
+	 * -suffix length
+	 * Called by: parse()
+	 *     Calls: Long.parseLong()
+	 * @param spec - range
+	 * @param total - byte count of file
+	 * @return - range clipped to file or null if it is past the end
+	 * @throws NumberFormatException - if range is invalid
+	 */
+	static HttpRange parseSpec(String spec, long total) {
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			throw new NumberFormatException("missing dash: " + spec);
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+
+		// suffix range of the last bytes
+		if (first.isEmpty()) {
+			long suffix = parseNumber(last);
+			if (suffix == 0 || total == 0) {
+				return null;
+			}
+			return new HttpRange(Math.max(0, total - suffix), total - 1);
+		}
+
+		long start = parseNumber(first);
+		long end = last.isEmpty() ? Long.MAX_VALUE : parseNumber(last);
+		if (end < start) {
+			throw new NumberFormatException("last before first: " + spec);
+		}
+		if (start >= total) {
+			return null;
+		}
+		return new HttpRange(start, Math.min(end, total - 1));
+	}
+
+	/**
+	 * Parses a non-negative decimal number
+	 * Called by: parseSpec()
+	 *     Calls: Long.parseLong()
+	 * @param text - digits
+	 * @return - number
+	 * @throws NumberFormatException - if text is not digits
+	 */
+	private static long parseNumber(String text) {
+		if (text.isEmpty() || text.charAt(0) == '+' || text.charAt(0) == '-') {
+			throw new NumberFormatException("not a number: " + text);
+		}
+		return Long.parseLong(text);
+	}
+
+	/**
+	 * Sorts ranges and merges those that overlap or touch
+	 * Called by: parse()
+	 *     Calls: Collections.sort()
+	 * @param ranges - ranges to merge
+	 * @return - merged ranges in order
+	 */
+	static List<HttpRange> merge(ArrayList<HttpRange> ranges) {
+		Collections.sort(ranges, (a, b) -> Long.compare(a.start, b.start));
+		ArrayList<HttpRange> merged = new ArrayList<HttpRange>();
+		for (HttpRange r : ranges) {
+			HttpRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && r.start <= last.end + 1) {
+				last.end = Math.max(last.end, r.end);
+			}
+			else {
+				merged.add(new HttpRange(r.start, r.end));
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Checks if the If-Range field allows a partial response. An entity
+	 * tag must match strongly, a date must equal the modification time
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: MetaCache.parseDate()
+	 * @param field - value of If-Range field or null
+	 * @param meta - validators of file or null if unknown
+	 * @return - true if ranges may be sent, false if the whole file is sent
+	 */
+	public static boolean ifRangeMatches(String field, MetaCache.Meta meta) {
+		if (field == null) {
+			return true;
+		}
+		if (meta == null) {
+			return false;
+		}
+		field = field.trim();
+		if (field.startsWith("\"") || field.startsWith("W/")) {
+			return field.equals(meta.etag);
+		}
+		return MetaCache.parseDate(field) == meta.modified;
+	}
+}
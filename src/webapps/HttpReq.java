@@ -27,6 +27,7 @@ public class HttpReq {
 	String method; // HTTP method name
 	String version; // HTTP version
 	Socket sock; // socket where request is read from
+	HttpHeader header; // parsed header of request
 
 	/**
 	 * Class constructor that takes a socket object and opens the 
@@ -39,18 +40,35 @@ public class HttpReq {
 	public HttpReq(Socket sock) throws IOException {
 		this.sock = sock; 
 		req = sock.getInputStream();
+		header = new HttpHeader(req);
+	}
+
+	/**
+	 * Class constructor that reads the request with the header parser of
+	 * the connection, used when several requests are read from one
+	 * connection so bytes buffered after one request are kept for the next
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: none
+	 * @param sock - socket HTTP request is read from
+	 * @param header - header parser reading from socket
+	 */
+	public HttpReq(Socket sock, HttpHeader header) {
+		this.sock = sock;
+		this.req = header.in;
+		this.header = header;
 	}
 
 	/**
 	 * Reads HTTP request from req member and parses the header.
-	 * Checks to make sure the request is not malformed.
-	 * Called by: WebSrvThread.run()
-	 *     Calls; HttpHeader(), HttpHeader.parse(), HttpHeader.getField()
-	 * @throws HttpException - if request is malformed
+	 * Checks to make sure the request is not malformed. A request with
+	 * both Content-Length and Transfer-Encoding is rejected since the two
+	 * could frame its body differently.
+	 * Called by: WebSrvThread.serve()
+	 *     Calls; HttpHeader.parse(), HttpHeader.getField()
+	 * @throws HttpException - if request is malformed or its body framing is ambiguous
 	 * @throws IOException - if failed to read request
 	 */
 	public void parse() throws HttpException, IOException {
-		HttpHeader header = new HttpHeader(req);
 		try {
 			header.parse();
 		}
@@ -61,8 +79,71 @@ public class HttpReq {
 		method = header.getField("head1");
 		resource = header.getField("head2");
 		version = header.getField("head3");
+		
+		if (header.getField("transfer-encoding") != null && header.getField("content-length") != null) {
+			throw new HttpException("request has both Content-Length and Transfer-Encoding");
+		}
 	}
 	
+	/**
+	 * Checks if the client allows the connection to be kept open after the
+	 * response. HTTP/1.1 connections persist unless the client asks to close,
+	 * older versions only persist when the client asks to keep alive. A
+	 * request sent with Transfer-Encoding never persists, its body is not
+	 * decoded so the end of it is unknown and any bytes after the header
+	 * must not be read as the next request
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: HttpHeader.getField()
+	 * @return - true if connection may be kept alive
+	 */
+	public boolean isPersistent() {
+		if (header.getField("transfer-encoding") != null) {
+			return false;
+		}
+		String conn = header.getField("connection");
+		conn = (conn == null) ? "" : conn.toLowerCase();
+		if (version.contentEquals("HTTP/1.1")) {
+			return !conn.contains("close");
+		}
+		return conn.contains("keep-alive");
+	}
+
+	/**
+	 * Reads and discards the body of the request if one was sent with a
+	 * Content-Length so the next request on the connection can be read
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: HttpHeader.getField(), HttpHeader.skip()
+	 * @throws IOException - if body can not be read or length is invalid
+	 */
+	public void skipContent() throws IOException {
+		String length = header.getField("content-length");
+		if (length == null) {
+			return;
+		}
+		
+		long remaining;
+		try {
+			remaining = Long.parseLong(length.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("invalid content length: " + length);
+		}
+		
+		if (remaining < 0) {
+			throw new IOException("invalid content length: " + length);
+		}
+		header.skip(remaining);
+	}
+
+	/**
+	 * Gets value of a header field of the request
+	 * @param name - lower case name of field
+	 * @return - value of field or null if not sent
+	 */
+	public String getField(String name) {
+		return header.getField(name);
+	}
+
 	/**
 	 * Class used to raise exceptions when there are errors with the request
 	 */
@@ -102,4 +183,12 @@ public class HttpReq {
 	public String getMethod() {
 		return method;
 	}
+
+	/**
+	 * Gets HTTP version of request
+	 * @return - version string
+	 */
+	public String getVersion() {
+		return version;
+	}
 }
@@ -0,0 +1,276 @@
+package webapps;
+/**
+ * Name: HttpRespHeader.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class used by HttpRespSrv to build the header block of a
+ *              response. Lines that never change for a server, the status
+ *              lines, Server and Connection fields, are encoded to bytes once
+ *              and reused. The Date field is kept in RFC 1123 format by a
+ *              background ticker that refreshes it once a second, so building
+ *              a header does not format a date. The lines of a header are held
+ *              as buffers and written together with one gathered write.
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class definition
+ */
+public class HttpRespHeader {
+	ByteBuffer[] lines; // encoded lines of header
+	int count; // number of lines added
+	long length; // byte count of lines added
+
+	// carriage return and new line pair that ends each line
+	final static byte[] CRN_PAIR = {'\r', '\n'};
+
+	// pre-encoded Connection fields
+	final static byte[] CONNECTION_CLOSE = encode("Connection: close\r\n");
+	final static byte[] CONNECTION_KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+
+	// pre-encoded Accept-Ranges field sent with files
+	final static byte[] ACCEPT_RANGES = encode("Accept-Ranges: bytes\r\n");
+
+	// pre-encoded fields of compressed responses
+	final static byte[] TRANSFER_CHUNKED = encode("Transfer-Encoding: chunked\r\n");
+	final static byte[] VARY_ACCEPT_ENCODING = encode("Vary: Accept-Encoding\r\n");
+
+	// pre-encoded names of fields with values that change per response
+	final static byte[] CONTENT_TYPE = encode("Content-type: ");
+	final static byte[] CONTENT_LENGTH = encode("Content-length: ");
+	final static byte[] CONTENT_ENCODING = encode("Content-Encoding: ");
+
+	// IMF-fixdate format from RFC 7231, fixed width in GMT
+	final static DateTimeFormatter DATE_FORMAT =
+			DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+	// status and Server lines encoded on first use
+	final static ConcurrentHashMap<Integer, byte[]> statusLines = new ConcurrentHashMap<Integer, byte[]>();
+	final static ConcurrentHashMap<String, byte[]> serverLines = new ConcurrentHashMap<String, byte[]>();
+
+	// current Date line, replaced by ticker each second
+	static volatile byte[] dateLine = buildDateLine();
+
+	// daemon thread that refreshes Date line
+	final static ScheduledExecutorService ticker = startTicker();
+
+	/**
+	 * Class constructor that creates an empty header
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: none
+	 */
+	public HttpRespHeader() {
+		lines = new ByteBuffer[12];
+	}
+
+	/**
+	 * Adds encoded line to header, the array is wrapped not copied so
+	 * must not be changed after it is added
+	 * Called by: HttpRespSrv.buildHeader(), add(String), addField()
+	 *     Calls: ByteBuffer.wrap(), Arrays.copyOf()
+	 * @param line - bytes of line
+	 * @return - this header
+	 */
+	public HttpRespHeader add(byte[] line) {
+		if (count == lines.length) {
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		lines[count++] = ByteBuffer.wrap(line);
+		length += line.length;
+		return this;
+	}
+
+	/**
+	 * Adds encoded line held in a buffer, the bytes between its position
+	 * and limit are sent. The buffer is not copied, so a line stored
+	 * outside the heap is written from there
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: ByteBuffer.duplicate(), Arrays.copyOf()
+	 * @param line - buffer holding line
+	 * @return - this header
+	 */
+	public HttpRespHeader add(ByteBuffer line) {
+		if (count == lines.length) {
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		lines[count++] = line.duplicate();
+		length += line.remaining();
+		return this;
+	}
+
+	/**
+	 * Encodes text and adds it to header
+	 * Called by: HttpRespSrv.buildHeader(), addField()
+	 *     Calls: encode(), add(byte[])
+	 * @param text - text to add
+	 * @return - this header
+	 */
+	public HttpRespHeader add(String text) {
+		return add(encode(text));
+	}
+
+	/**
+	 * Adds field line whose name has been pre-encoded
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: add()
+	 * @param name - encoded name of field including colon and space
+	 * @param value - value of field
+	 * @return - this header
+	 */
+	public HttpRespHeader addField(byte[] name, String value) {
+		add(name);
+		add(value);
+		return add(CRN_PAIR);
+	}
+
+	/**
+	 * Gets byte count of header
+	 * Called by: HttpRespSrv.sendHeader()
+	 *     Calls: none
+	 * @return - byte count
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Writes header to channel with gathered writes until all lines are
+	 * sent, normally a single write
+	 * Called by: HttpRespSrv
+	 *     Calls: GatheringByteChannel.write()
+	 * @param chan - channel to write to
+	 * @return - byte count written
+	 * @throws IOException - if error occurs writing to channel
+	 */
+	public long write(GatheringByteChannel chan) throws IOException {
+		long written = 0;
+		while (written < length) {
+			written += chan.write(lines, 0, count);
+		}
+		return written;
+	}
+
+	/**
+	 * Writes header to stream as one block. Lines are copied into a single
+	 * array so the stream receives one write
+	 * Called by: HttpRespSrv.sendHeader()
+	 *     Calls: ByteBuffer.get(), OutputStream.write()
+	 * @param out - stream to write to
+	 * @return - byte count written
+	 * @throws IOException - if error occurs writing to stream
+	 */
+	public long write(OutputStream out) throws IOException {
+		byte[] block = new byte[(int)length];
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			ByteBuffer line = lines[i].duplicate();
+			int n = line.remaining();
+			line.get(block, pos, n);
+			pos += n;
+		}
+		out.write(block);
+		return length;
+	}
+
+	/**
+	 * Gets encoded status line of a response code
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: HttpRespSrv.getCodeMessage(), encode()
+	 * @param code - HTTP response code
+	 * @return - bytes of status line
+	 */
+	public static byte[] getStatusLine(int code) {
+		return statusLines.computeIfAbsent(code,
+				c -> encode("HTTP/1.1 " + c + " " + HttpRespSrv.getCodeMessage(c) + "\r\n"));
+	}
+
+	/**
+	 * Gets encoded Server line of a server name
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: encode()
+	 * @param server - name of server
+	 * @return - bytes of Server line
+	 */
+	public static byte[] getServerLine(String server) {
+		return serverLines.computeIfAbsent(server, s -> encode("Server: " + s + "\r\n"));
+	}
+
+	/**
+	 * Gets encoded Date line for the current second
+	 * Called by: HttpRespSrv.buildHeader()
+	 *     Calls: none
+	 * @return - bytes of Date line
+	 */
+	public static byte[] getDateLine() {
+		return dateLine;
+	}
+
+	/**
+	 * Formats a time as an RFC 1123 date in GMT
+	 * Called by: buildDateLine()
+	 *     Calls: DateTimeFormatter.format()
+	 * @param time - time to format
+	 * @return - formatted date
+	 */
+	public static String formatDate(ZonedDateTime time) {
+		return DATE_FORMAT.format(time.withZoneSameInstant(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Builds Date line for the current time
+	 * Called by: startTicker()
+	 *     Calls: formatDate(), encode()
+	 * @return - bytes of Date line
+	 */
+	private static byte[] buildDateLine() {
+		return encode("Date: " + formatDate(ZonedDateTime.now(ZoneOffset.UTC)) + "\r\n");
+	}
+
+	/**
+	 * Starts daemon thread that refreshes Date line once a second
+	 * Called by: static initializer
+	 *     Calls: Executors.newSingleThreadScheduledExecutor(),
+	 *            ScheduledExecutorService.scheduleAtFixedRate()
+	 * @return - ticker
+	 */
+	private static ScheduledExecutorService startTicker() {
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "date-ticker");
+			t.setDaemon(true);
+			return t;
+		});
+		// align refreshes with the start of each second
+		long delay = 1000 - System.currentTimeMillis() % 1000;
+		ticker.scheduleAtFixedRate(() -> dateLine = buildDateLine(), delay, 1000, TimeUnit.MILLISECONDS);
+		return ticker;
+	}
+
+	/**
+	 * Encodes text as header bytes
+	 * Called by: add(), getStatusLine(), getServerLine(), buildDateLine()
+	 *     Calls: String.getBytes()
+	 * @param text - text to encode
+	 * @return - encoded bytes
+	 */
+	static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
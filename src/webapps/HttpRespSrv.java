@@ -8,22 +8,35 @@ package webapps;
  * Date: Dec. 29, 2021
  * Description: Class that is used by WebSrvThread to create and 
  *  			send a HTTP response. Allows data to be sent from a
- *              File object or a String
+ *              File object, byte ranges of a File object, a cached or
+ *              mapped file, a String or a body of unknown length that is
+ *              streamed with the chunked transfer coding
  */
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.Socket;
-import java.net.URLConnection;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 /**
  * Class definition
@@ -33,12 +46,49 @@ public class HttpRespSrv {
 	String codeMessage; // HTTP response message
 	long contentLength; // length of content
 	String contentType; // type of content
+	byte[] typeLine; // encoded Content-type line, null if it is encoded from contentType
 	String server; // name of server that is responding
+	String connection; // value of Connection field
 	InputStream content; // stream to read content from
+	FileChannel file; // channel of file content, null if content is not a file
+	ByteBuffer entity; // encoded Content-type and Content-length lines of cached file
+	ByteBuffer[] buffers; // content held outside the heap, null if content is not
+	byte[] validators; // encoded ETag and Last-Modified lines, null if not sent
+	byte[] cacheLine; // encoded Cache-Control line, null if not sent
+	boolean headOnly; // only the header is sent, for HEAD requests
+	String encoding; // content coding of body, null if sent as it is
+	boolean compress; // body is compressed while sent with chunked coding
+	boolean chunked; // body of unknown length is sent with chunked coding
+	Body body; // writes a generated body, null if content is read from a stream
+	LinkedHashMap<String, String> trailers; // fields sent after a chunked body, null if none
+	boolean vary; // indicates Vary field is sent since body depends on Accept-Encoding
+	List<HttpRange> ranges; // byte ranges of file sent, null if whole file is sent
+	byte[][] parts; // encoded headers of each part and closing boundary, null if one range
+	MappedFileCache.Mapping mapped; // mapping of file content, null if content is not mapped
 	Socket sock; // socket to write content to
+	LinkedHashMap<String, String> fields; // extra header fields sent in response
+	boolean dated; // indicates Date field is sent, off for pre-built responses
+	boolean rangeable; // indicates Accept-Ranges field is sent with validators
 	
-	// carriage return and new line pair used to build response 
-	final static byte[] CRN_PAIR = {'\r', '\n'};
+	// separates parts of multipart/byteranges responses
+	final static String BOUNDARY = "webapps-" + Long.toHexString(new SecureRandom().nextLong());
+
+	// error pages rendered on first use
+	final static ConcurrentHashMap<Integer, FileCache.Entry> errorPages =
+			new ConcurrentHashMap<Integer, FileCache.Entry>();
+
+	/**
+	 * Interface of a body that is generated while it is sent, such as a
+	 * directory listing, so it is never held in memory as a whole
+	 */
+	public interface Body {
+		/**
+		 * Writes the body, the stream sends it in chunks
+		 * @param out - stream to write body to
+		 * @throws IOException - if error occurs writing
+		 */
+		void write(OutputStream out) throws IOException;
+	}
 
 	/**
 	 * Class constructor to that initiates members in class
@@ -53,14 +103,38 @@ public class HttpRespSrv {
 		this.code = code;
 		this.codeMessage = getCodeMessage(code);
 		this.sock = sock;
+		this.fields = new LinkedHashMap<String, String>();
+		this.dated = true;
+		this.rangeable = true;
+		this.connection = "close";
+	}
+
+	/**
+	 * Class constructor used for a response about a file that is sent
+	 * without a body, 304 Not Modified or the answer to a HEAD request.
+	 * The header is built from the validators and length of the file so
+	 * the file is not opened
+	 * Called by: WebSrvThread.sendMetaResponse()
+	 *     Calls: this(), MimeTypes.get(), setType()
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param meta - validators of requested file
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, MetaCache.Meta meta) {
+		this(sock, server, code); // initiate members
+		
+		validators = meta.lines;
+		contentLength = meta.length;
+		setType(MimeTypes.get(meta.resource));
 	}
 
 	/**
 	 * Class constructor used when data sent in response is from
-	 * a file.
+	 * a file. The channel of the file is kept so the file can be
+	 * transferred to the socket without being copied through the heap.
 	 * Called by: WebSrvThread.sendResponse()
-	 *     Calls: BufferInputStream(), FileInputSteam(), 
-	 *            URLConnection.getFileNameMap(),getContentTypeFor()
+	 *     Calls: FileInputSteam(), FileInputStream.getChannel(), MimeTypes.get(), setType()
  	 * @param sock - socket to write response to
 	 * @param server - name of server sending response
 	 * @param code - HTTP response code
@@ -70,22 +144,111 @@ public class HttpRespSrv {
 	public HttpRespSrv(Socket sock, String server, int code, File content) throws FileNotFoundException {
 		this(sock, server, code); // initiate members
 	
-		// get input stream from File
-		this.content = new BufferedInputStream(new FileInputStream(content));
+		// get input stream and channel from File, closing the stream
+		// closes the channel
+		FileInputStream in = new FileInputStream(content);
+		this.content = in;
+		this.file = in.getChannel();
 		
 		// set content length
 		contentLength = content.length();
 		
 		// gets content type
-		// adapted from Java Network Programming 4th Edition Elliotte Rusty Harold pg 326
-		contentType = URLConnection.getFileNameMap().getContentTypeFor(content.getName());
+		setType(MimeTypes.get(content.getName()));
+	}
+	
+	/**
+	 * Class constructor used when data sent in response is a file held
+	 * in the FileCache. The entity lines of the header were encoded when
+	 * the file was cached. A file held outside the heap is sent from its
+	 * buffers, the caller holds a reference to it until the response is
+	 * sent.
+	 * Called by: WebSrvThread.sendCachedResponse(), WebSrvThread.sendErrorResponse()
+	 *     Calls: ByteArrayInputStream(), FileCache.Entry.getEntity(),
+	 *            FileCache.Entry.getBody()
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param content - cached file that is sent to client
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, FileCache.Entry content) {
+		this(sock, server, code); // initiate members
 		
-		// check if type was found
-		if (contentType == null) {
-			contentType = "";
+		if (content.body != null) {
+			this.content = new ByteArrayInputStream(content.body);
 		}
+		else {
+			buffers = content.getBody();
+		}
+		contentLength = content.length();
+		contentType = content.type;
+		entity = content.getEntity();
 	}
 	
+	/**
+	 * Class constructor used when data sent in response is a file mapped
+	 * by the MappedFileCache. The caller holds a reference to the mapping
+	 * until the response is sent.
+	 * Called by: WebSrvThread.sendMappedResponse()
+	 *     Calls: none
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param content - mapped file that is sent to client
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, MappedFileCache.Mapping content) {
+		this(sock, server, code); // initiate members
+		
+		mapped = content;
+		contentLength = content.size();
+		contentType = content.type;
+		entity = ByteBuffer.wrap(content.header);
+	}
+	
+	/**
+	 * Class constructor used when data sent in response is held in
+	 * buffers, such as a file of a memory mapped pack. The buffers are
+	 * sent as they are with gathered writes when the socket has a channel.
+	 * Called by: WebSrvThread.sendPackResponse()
+	 *     Calls: this(), setType()
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param type - content type of body
+	 * @param content - buffers that are sent to client
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, MimeTypes.Type type, ByteBuffer[] content) {
+		this(sock, server, code); // initiate members
+
+		buffers = content;
+		for (ByteBuffer b : content) {
+			contentLength += b.remaining();
+		}
+		setType(type);
+	}
+
+	/**
+	 * Class constructor used when data sent in response is read from a
+	 * stream of known length, such as an archive entry inflated while it
+	 * is sent. The stream is closed once it is sent.
+	 * Called by: WebSrvThread.sendPackResponse()
+	 *     Calls: this(), setType()
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param type - content type of body
+	 * @param content - stream that is sent to client
+	 * @param length - byte count of stream
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, MimeTypes.Type type, InputStream content,
+			long length) {
+		this(sock, server, code); // initiate members
+
+		this.content = content;
+		contentLength = length;
+		setType(type);
+	}
+
 	/**
 	 * Class constructor used when data sent if response is from string
 	 * Called by: WebSrvThread.sendErrorResponse()
@@ -109,22 +272,82 @@ public class HttpRespSrv {
 	}
 
 	/**
-	 * Builds and sends a HTTP response to client. If error occurs
-	 * while writing to client throws an IOException.
-	 * Called by: WebSrvThread.sendErrorResponse(), WebSrvThread.sendResponse()
-	 *     Calls: sendHeader(), InputStream.transferTo(), OutputStream.flush()
+	 * Class constructor used when the body is generated while it is sent,
+	 * its length is not known so it is sent with the chunked transfer
+	 * coding which only HTTP/1.1 clients accept
+	 * Called by: WebSrvThread.sendListing()
+	 *     Calls: this()
+	 * @param sock - socket to write response to
+	 * @param server - name of server sending response
+	 * @param code - HTTP response code
+	 * @param type - content type of body
+	 * @param body - writes body to client
+	 */
+	public HttpRespSrv(Socket sock, String server, int code, String type, Body body) {
+		this(sock, server, code); // initiate members
+
+		this.body = body;
+		contentType = type;
+		chunked = true;
+	}
+
+	/**
+	 * Builds and sends a HTTP response to client. When the socket has a
+	 * channel the header is sent with a single gathered write and a file
+	 * is transferred directly to the channel. If error occurs while
+	 * writing to client throws an IOException.
+	 * Called by: none
+	 *     Calls: send(OutputStream), buildHeader(), HttpRespHeader.write(),
+	 *            sendChunked(), sendDelimited(), writeMapped(), writeBuffers(), transferRanges(),
+	 *            transferFile(), Socket.getOutputStream(), OutputStream.flush()
 	 * @return - byte count written to client
 	 * @throws IOException - if error occurs writing to client
 	 */
 	public long send() throws IOException {
+		SocketChannel chan = sock.getChannel();
+		if (chan != null) {
+			try {
+				buildHeader().write(chan);
+				if (headOnly) {
+					return 0;
+				}
+				if (chunked || body != null) {
+					OutputStream out = sock.getOutputStream();
+					long byteCount = chunked ? sendChunked(out) : sendDelimited(out);
+					out.flush();
+					return byteCount;
+				}
+				if (mapped != null) {
+					return writeMapped(chan);
+				}
+				if (buffers != null) {
+					return writeBuffers(chan);
+				}
+				if (ranges != null) {
+					return transferRanges(chan);
+				}
+				if (file != null) {
+					return transferFile(chan, 0, contentLength);
+				}
+				if (content == null) {
+					return 0; // response has no body
+				}
+				OutputStream out = sock.getOutputStream();
+				long byteCount = content.transferTo(out);
+				out.flush();
+				return byteCount;
+			}
+			finally {
+				if (content != null) {
+					content.close(); // release file once sent
+				}
+			}
+		}
+		
 		// get output stream from socket
 		BufferedOutputStream out = new BufferedOutputStream(sock.getOutputStream());
-
-		//send header
-		sendHeader(out);
 		
-		//send content
-		long byteCount =  content.transferTo(out);
+		long byteCount = send(out);
 		
 		// flush output to ensure all bytes are transmitted
 		out.flush();
@@ -133,73 +356,698 @@ public class HttpRespSrv {
 	}
 
 	/**
-	 * Sends header to client using provided OutputStream. Throws an IOException
-	 * if error occurs while writing to client
+	 * Builds and writes a HTTP response to the provided OutputStream. The
+	 * stream is not flushed so responses to pipelined requests can be
+	 * written together, the caller flushes once it has no more to write.
+	 * Files are the exception, when the socket has a channel the stream
+	 * is flushed after the header and a file, mapping or buffers held
+	 * outside the heap are written directly to the channel. If error
+	 * occurs while writing throws an IOException.
+	 * Called by: send(), buildUnavailable(), WebSrvThread.sendResponse(),
+	 *            WebSrvThread.sendPrecompressedResponse(), WebSrvThread.sendCompressedResponse(),
+	 *            WebSrvThread.sendPackResponse(), WebSrvThread.sendListing(),
+	 *            WebSrvThread.sendCachedResponse(), WebSrvThread.sendMappedResponse(),
+	 *            WebSrvThread.sendErrorResponse(), WebSrvThread.sendMetaResponse(),
+	 *            WebSrvThread.sendOptions()
+	 *     Calls: sendHeader(), sendChunked(), sendDelimited(), sendMapped(), sendBuffers(), transferRanges(),
+	 *            transferFile(),
+	 *            Channels.newChannel(), OutputStream.flush(),
+	 *            InputStream.transferTo(), InputStream.close()
+	 * @param out - output stream to write response to
+	 * @return - byte count of content written
+	 * @throws IOException - if error occurs writing response
+	 */
+	public long send(OutputStream out) throws IOException {
+		try {
+			//send header
+			sendHeader(out);
+			if (headOnly) {
+				return 0;
+			}
+
+			//send body of unknown length in chunks or until the connection closes
+			if (chunked) {
+				return sendChunked(out);
+			}
+			if (body != null) {
+				return sendDelimited(out);
+			}
+
+			//send mapped file straight from the page cache
+			if (mapped != null) {
+				return sendMapped(out);
+			}
+
+			//send cached file straight from direct memory
+			if (buffers != null) {
+				return sendBuffers(out);
+			}
+
+			//send byte ranges of file from their positions
+			if (ranges != null) {
+				if (sock != null && sock.getChannel() != null) {
+					out.flush();
+					return transferRanges(sock.getChannel());
+				}
+				return transferRanges(Channels.newChannel(out));
+			}
+
+			//send file without copying it through the heap
+			if (file != null && sock != null && sock.getChannel() != null) {
+				out.flush();
+				return transferFile(sock.getChannel(), 0, contentLength);
+			}
+
+			//send content
+			if (content == null) {
+				return 0; // response has no body
+			}
+			return content.transferTo(out);
+		}
+		finally {
+			if (content != null) {
+				content.close(); // release file once sent
+			}
+		}
+	}
+
+	/**
+	 * Writes a body of unknown length with the chunked transfer coding
+	 * followed by the trailer fields. The body is written by its Body or
+	 * read from the content stream and compressed with the content coding
+	 * of the response when it is compressed while sent, the memory used
+	 * does not depend on the size of the body
+	 * Called by: send(), send(OutputStream)
+	 *     Calls: ChunkedOutputStream(), ChunkedOutputStream.setTrailers(), ContentEncoding.wrap(),
+	 *            Body.write(), InputStream.transferTo(), ChunkedOutputStream.length()
+	 * @param out - output stream header was written to
+	 * @return byte count of body, compressed if it was compressed
+	 * @throws IOException - if error occurs reading or writing
+	 */
+	private long sendChunked(OutputStream out) throws IOException {
+		ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+		chunks.setTrailers(trailers);
+		try (OutputStream target = compress
+				? ContentEncoding.wrap(chunks, encoding, Deflater.DEFAULT_COMPRESSION) : chunks) {
+			if (body != null) {
+				body.write(target);
+			}
+			else if (content != null) {
+				content.transferTo(target);
+			}
+		}
+		return chunks.length();
+	}
+
+	/**
+	 * Writes a generated body without framing, the client reads it until
+	 * the connection is closed
+	 * Called by: send(), send(OutputStream)
+	 *     Calls: FilterOutputStream(), Body.write()
+	 * @param out - output stream header was written to
+	 * @return byte count of body
+	 * @throws IOException - if error occurs writing
+	 */
+	private long sendDelimited(OutputStream out) throws IOException {
+		long[] byteCount = new long[1];
+		body.write(new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				byteCount[0]++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				byteCount[0] += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush(); // connection is closed by the caller
+			}
+		});
+		return byteCount[0];
+	}
+
+	/**
+	 * Writes mapped file to client. When the socket has a channel the
+	 * stream is flushed and the mapping is written to the channel,
+	 * otherwise it is copied to the stream
+	 * Called by: send(OutputStream)
+	 *     Calls: OutputStream.flush(), writeMapped(), MappedFileCache.Mapping.slice(),
+	 *            OutputStream.write()
+	 * @param out - output stream header was written to
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing
+	 */
+	private long sendMapped(OutputStream out) throws IOException {
+		if (sock != null && sock.getChannel() != null) {
+			out.flush();
+			return writeMapped(sock.getChannel());
+		}
+		ByteBuffer buf = mapped.slice();
+		byte[] chunk = new byte[8192];
+		try {
+			while (buf.hasRemaining()) {
+				int n = Math.min(chunk.length, buf.remaining());
+				buf.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		}
+		catch (InternalError e) {
+			throw new IOException("mapped file was truncated while sending");
+		}
+		return contentLength;
+	}
+
+	/**
+	 * Writes mapped file to channel. Reading a mapping of a file that was
+	 * truncated faults, the JVM reports it as an InternalError which is
+	 * turned into an IOException so the connection is closed
+	 * Called by: send(), sendMapped()
+	 *     Calls: MappedFileCache.Mapping.slice(), WritableByteChannel.write()
+	 * @param chan - channel to write file to
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing or file was truncated
+	 */
+	private long writeMapped(WritableByteChannel chan) throws IOException {
+		ByteBuffer buf = mapped.slice();
+		try {
+			while (buf.hasRemaining()) {
+				chan.write(buf);
+			}
+		}
+		catch (InternalError e) {
+			throw new IOException("mapped file was truncated while sending");
+		}
+		return contentLength;
+	}
+
+	/**
+	 * Writes buffers held outside the heap to client. When the socket has
+	 * a channel the stream is flushed and the buffers are written to the
+	 * channel, otherwise they are copied to the stream
+	 * Called by: send(OutputStream)
+	 *     Calls: OutputStream.flush(), writeBuffers(), OutputStream.write()
+	 * @param out - output stream header was written to
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing
+	 */
+	private long sendBuffers(OutputStream out) throws IOException {
+		if (sock != null && sock.getChannel() != null) {
+			out.flush();
+			return writeBuffers(sock.getChannel());
+		}
+		byte[] chunk = new byte[8192];
+		for (ByteBuffer b : buffers) {
+			ByteBuffer buf = b.duplicate();
+			while (buf.hasRemaining()) {
+				int n = Math.min(chunk.length, buf.remaining());
+				buf.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		}
+		return contentLength;
+	}
+
+	/**
+	 * Writes buffers held outside the heap to channel with gathered
+	 * writes, the kernel copies straight from direct memory
+	 * Called by: send(), sendBuffers()
+	 *     Calls: GatheringByteChannel.write()
+	 * @param chan - channel to write buffers to
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing
+	 */
+	private long writeBuffers(GatheringByteChannel chan) throws IOException {
+		ByteBuffer[] bufs = new ByteBuffer[buffers.length];
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = buffers[i].duplicate();
+		}
+		long written = 0;
+		while (written < contentLength) {
+			written += chan.write(bufs);
+		}
+		return written;
+	}
+
+	/**
+	 * Transfers byte ranges of file to channel, each preceded by its part
+	 * header when more than one range is sent
+	 * Called by: send(), send(OutputStream)
+	 *     Calls: transferFile(), WritableByteChannel.write()
+	 * @param chan - channel to write ranges to
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing or file was truncated
+	 */
+	private long transferRanges(WritableByteChannel chan) throws IOException {
+		long written = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			if (parts != null) {
+				written += writeFully(chan, parts[i]);
+			}
+			HttpRange r = ranges.get(i);
+			written += transferFile(chan, r.start, r.length());
+		}
+		if (parts != null) {
+			written += writeFully(chan, parts[ranges.size()]);
+		}
+		return written;
+	}
+
+	/**
+	 * Writes all bytes of an array to a channel
+	 * Called by: transferRanges()
+	 *     Calls: ByteBuffer.wrap(), WritableByteChannel.write()
+	 * @param chan - channel to write to
+	 * @param bytes - bytes to write
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing
+	 */
+	private static long writeFully(WritableByteChannel chan, byte[] bytes) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		while (buf.hasRemaining()) {
+			chan.write(buf);
+		}
+		return bytes.length;
+	}
+
+	/**
+	 * Transfers part of file content to channel with FileChannel.transferTo(),
+	 * which uses sendfile on Linux so the bytes do not enter user space.
+	 * The transfer starts at a position of the file so no bytes are read
+	 * to skip to it. Throws an IOException if the file is shorter than
+	 * when the header was sent, since the response can then not be
+	 * completed
+	 * Called by: send(), send(OutputStream), transferRanges()
+	 *     Calls: FileChannel.transferTo()
+	 * @param chan - channel to write file to
+	 * @param position - position in file of first byte
+	 * @param count - byte count to transfer
+	 * @return byte count written
+	 * @throws IOException - if error occurs writing or file was truncated
+	 */
+	private long transferFile(WritableByteChannel chan, long position, long count) throws IOException {
+		long sent = 0;
+		while (sent < count) {
+			long n = file.transferTo(position + sent, count - sent, chan);
+			if (n <= 0) {
+				throw new IOException("file was truncated while sending");
+			}
+			sent += n;
+		}
+		return sent;
+	}
+
+	/**
+	 * Sends header to client using provided OutputStream. The header is
+	 * written as one block. Throws an IOException if error occurs while
+	 * writing to client
 	 * Called by: HttpRespSrv.send()
-	 *     Calls: OutputStream.write(), OutputStream.flush()
+	 *     Calls: buildHeader(), HttpRespHeader.write()
 	 * @param out - output stream to write header to
 	 * @return byte count written
 	 * @throws IOException - if error occurred writing to client
 	 */
 	private long sendHeader(OutputStream out) throws IOException {
-		long byteCount = 0;
+		return buildHeader().write(out);
+	}
+
+	/**
+	 * Builds header of response from pre-encoded lines, only the values
+	 * that change per response are encoded
+	 * Called by: send(), sendHeader()
+	 *     Calls: HttpRespHeader.add(), HttpRespHeader.addField(),
+	 *            HttpRespHeader.getStatusLine(), HttpRespHeader.getDateLine(),
+	 *            HttpRespHeader.getServerLine()
+	 * @return - header of response
+	 */
+	HttpRespHeader buildHeader() {
+		HttpRespHeader header = new HttpRespHeader();
 		
 		// add header line
-		String field = "HTTP/1.1 ";
-		out.write(field.getBytes());
-		String codeStr = String.valueOf(code); 
-		out.write(codeStr.getBytes());
-		out.write(" ".getBytes());
-		out.write(codeMessage.getBytes());
-		out.write(CRN_PAIR);
-		byteCount += field.length() + codeStr.length() + 1 + codeMessage.length() + CRN_PAIR.length;
+		header.add(HttpRespHeader.getStatusLine(code));
 		
 		// add date line
-		field = "Date: ";
-		out.write(field.getBytes());
-		Date cur = new Date();
-		byte[] curByte = cur.toString().getBytes();
-		out.write(curByte);
-		out.write(CRN_PAIR);
-		byteCount += field.length() + curByte.length + CRN_PAIR.length;
+		if (dated) {
+			header.add(HttpRespHeader.getDateLine());
+		}
 		
 		//add server line
-		field = "Server: ";
-		out.write(field.getBytes());
-		out.write(server.getBytes());
-		out.write(CRN_PAIR);
-		byteCount += field.length() + server.length() + CRN_PAIR.length;
+		header.add(HttpRespHeader.getServerLine(server));
 		
 		//add connection line
-		field = "Connection: close";
-		out.write(field.getBytes());
-		out.write(CRN_PAIR);
-		byteCount += field.length() + CRN_PAIR.length;
-		
-		//add content-type line
-		field = "Content-type: ";
-		out.write(field.getBytes());
-		out.write(contentType.getBytes());
-		out.write(CRN_PAIR);
-		byteCount += field.length() + contentType.length() + CRN_PAIR.length;
-				
-		//add content-length line
-		field = "Content-length: ";
-		out.write(field.getBytes());
-		String contentLengthStr = String.valueOf(contentLength);
-		out.write(contentLengthStr.getBytes());
-		out.write(CRN_PAIR);
-		byteCount += field.length() + contentLengthStr.length() + CRN_PAIR.length;
+		if (connection.equals("keep-alive")) {
+			header.add(HttpRespHeader.CONNECTION_KEEP_ALIVE);
+		}
+		else if (connection.equals("close")) {
+			header.add(HttpRespHeader.CONNECTION_CLOSE);
+		}
+		else {
+			header.add("Connection: " + connection + "\r\n");
+		}
+		
+		//add content-type and content-length lines
+		if (entity != null) {
+			header.add(entity);
+		}
+		else if (code != 304) {
+			if (typeLine != null) {
+				header.add(typeLine);
+			}
+			else if (contentType != null) {
+				header.addField(HttpRespHeader.CONTENT_TYPE, contentType);
+			}
+			if (chunked) {
+				header.add(HttpRespHeader.TRANSFER_CHUNKED);
+			}
+			else if (body == null) {
+				header.addField(HttpRespHeader.CONTENT_LENGTH, String.valueOf(contentLength));
+			}
+		}
+		
+		//add content-encoding and vary lines
+		if (encoding != null) {
+			header.addField(HttpRespHeader.CONTENT_ENCODING, encoding);
+		}
+		if (vary) {
+			header.add(HttpRespHeader.VARY_ACCEPT_ENCODING);
+		}
+		
+		//add etag and last-modified lines, files can be requested in ranges
+		if (validators != null) {
+			if (code != 304 && rangeable) {
+				header.add(HttpRespHeader.ACCEPT_RANGES);
+			}
+			header.add(validators);
+		}
+		
+		//add cache-control line, also sent with 304 so it is renewed
+		if (cacheLine != null) {
+			header.add(cacheLine);
+		}
+		
+		//add extra fields
+		for (Map.Entry<String, String> f : fields.entrySet()) {
+			header.add(f.getKey() + ": " + f.getValue() + "\r\n");
+		}
+
+		//announce fields sent after a chunked body
+		if (chunked && trailers != null && !headOnly) {
+			header.add("Trailer: " + String.join(", ", trailers.keySet()) + "\r\n");
+		}
 		
 		//add extra CRN pair to indicate end of header
-		out.write(CRN_PAIR);
-		byteCount += CRN_PAIR.length;
+		header.add(HttpRespHeader.CRN_PAIR);
 		
-		out.flush(); // flush bytes
-				
-		return byteCount;
+		return header;
 	}
 	
+	/**
+	 * Sends only the header of the response, the answer to a HEAD
+	 * request has the fields the body would have but not the body
+	 * Called by: WebSrvThread.sendErrorResponse(), WebSrvThread.sendListing(),
+	 *            WebSrvThread.setValidators()
+	 *     Calls: none
+	 */
+	public void setHeadOnly() {
+		headOnly = true;
+	}
+
+	/**
+	 * Sets the Cache-Control field sent with the file
+	 * Called by: WebSrvThread.setValidators()
+	 *     Calls: none
+	 * @param line - encoded Cache-Control line, null sends none
+	 */
+	public void setCacheControl(byte[] line) {
+		cacheLine = line;
+	}
+
+	/**
+	 * Stops the Accept-Ranges field being sent, for files that are not
+	 * sent in ranges such as those of a pack
+	 * Called by: WebSrvThread.setValidators()
+	 *     Calls: none
+	 */
+	public void setNoRanges() {
+		rangeable = false;
+	}
+
+	/**
+	 * Sets the ETag and Last-Modified lines sent with the file
+	 * Called by: WebSrvThread.setValidators()
+	 *     Calls: MetaCache.Meta.codedLines()
+	 * @param meta - validators of file
+	 * @param coding - content coding the file is sent with, null if none
+	 */
+	public void setValidators(MetaCache.Meta meta, String coding) {
+		validators = meta.codedLines(coding);
+	}
+
+	/**
+	 * Sets the content coding the body was compressed with, the entity
+	 * lines must describe the compressed body
+	 * Called by: setCompressed(), WebSrvThread.sendCachedResponse(),
+	 *            WebSrvThread.sendPrecompressedResponse(), WebSrvThread.sendPackResponse(),
+	 *            WebSrvThread.sendMetaResponse()
+	 *     Calls: none
+	 * @param coding - content coding
+	 */
+	public void setEncoding(String coding) {
+		encoding = coding;
+		vary = true;
+	}
+
+	/**
+	 * Compresses the body with a content coding while it is sent, the
+	 * body is sent in chunks since its length is not known
+	 * Called by: WebSrvThread.sendCompressedResponse()
+	 *     Calls: setEncoding(), setChunked()
+	 * @param coding - content coding
+	 */
+	public void setCompressed(String coding) {
+		setEncoding(coding);
+		setChunked();
+		compress = true;
+	}
+
+	/**
+	 * Sends the content with the chunked transfer coding instead of with
+	 * its length, used for a stream whose length is not known. Only
+	 * HTTP/1.1 clients accept it
+	 * Called by: setCompressed(), WebSrvThread.sendMetaResponse()
+	 *     Calls: none
+	 */
+	public void setChunked() {
+		chunked = true;
+	}
+
+	/**
+	 * Sets the length sent for the body, used when the header of a coded
+	 * copy is built from the validators of the file as it is
+	 * Called by: WebSrvThread.sendMetaResponse()
+	 *     Calls: none
+	 * @param length - byte count of body
+	 */
+	public void setContentLength(long length) {
+		contentLength = length;
+	}
+
+	/**
+	 * Sends a generated body without chunks or a length for clients that
+	 * do not accept the chunked transfer coding, the connection must be
+	 * closed once it is sent
+	 * Called by: WebSrvThread.sendListing()
+	 *     Calls: none
+	 */
+	public void setCloseDelimited() {
+		chunked = false;
+		connection = "close";
+	}
+
+	/**
+	 * Sets a field sent after a chunked body. Its name is announced in the
+	 * header, its value may be set again while the body is written since
+	 * trailers are encoded once the body is sent
+	 * Called by: Body.write()
+	 *     Calls: LinkedHashMap()
+	 * @param name - name of field
+	 * @param value - value of field
+	 */
+	public void setTrailer(String name, String value) {
+		if (trailers == null) {
+			trailers = new LinkedHashMap<String, String>();
+		}
+		trailers.put(name, value);
+	}
+
+	/**
+	 * Sends the Vary field since the body sent depends on the
+	 * Accept-Encoding field of the request
+	 * Called by: WebSrvThread.setValidators()
+	 *     Calls: none
+	 */
+	public void setVary() {
+		vary = true;
+	}
+
+	/**
+	 * Sets the content type of the body and its encoded line, also used
+	 * when a file is sent in place of another such as a precompressed copy
+	 * Called by: HttpRespSrv(), WebSrvThread.sendPrecompressedResponse()
+	 *     Calls: none
+	 * @param type - content type from the table of types
+	 */
+	public void setType(MimeTypes.Type type) {
+		contentType = type.name;
+		typeLine = type.line;
+	}
+
+	/**
+	 * Limits the response to byte ranges of the file. One range is sent
+	 * as it is with a Content-Range field, several are sent as parts of a
+	 * multipart/byteranges body whose headers are encoded here so the
+	 * Content-Length is known. Only used with the File constructor
+	 * Called by: WebSrvThread.sendResponse()
+	 *     Calls: HttpRange.toContentRange(), setField(), HttpRespHeader.encode()
+	 * @param ranges - ranges of file in order, not overlapping
+	 */
+	public void setRanges(List<HttpRange> ranges) {
+		long total = contentLength;
+		this.ranges = ranges;
+		if (ranges.size() == 1) {
+			HttpRange r = ranges.get(0);
+			contentLength = r.length();
+			setField("Content-Range", r.toContentRange(total));
+			return;
+		}
+
+		parts = new byte[ranges.size() + 1][];
+		long length = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			HttpRange r = ranges.get(i);
+			parts[i] = HttpRespHeader.encode("\r\n--" + BOUNDARY + "\r\n"
+					+ "Content-type: " + contentType + "\r\n"
+					+ "Content-range: " + r.toContentRange(total) + "\r\n\r\n");
+			length += parts[i].length + r.length();
+		}
+		parts[ranges.size()] = HttpRespHeader.encode("\r\n--" + BOUNDARY + "--\r\n");
+		length += parts[ranges.size()].length;
+
+		contentType = "multipart/byteranges; boundary=" + BOUNDARY;
+		contentLength = length;
+	}
+
+	/**
+	 * Sets an extra header field to send in the response
+	 * Called by: buildUnavailable(), setKeepAlive(), setRanges(),
+	 *            WebSrvThread.sendErrorResponse(), WebSrvThread.sendOptions()
+	 *     Calls: none
+	 * @param name - name of field
+	 * @param value - value of field
+	 */
+	public void setField(String name, String value) {
+		fields.put(name, value);
+	}
+
+	/**
+	 * Marks the connection as kept alive after the response and advertises
+	 * how long it stays idle and how many more requests it accepts
+	 * Called by: WebSrvThread.setConnection()
+	 *     Calls: setField()
+	 * @param timeout - seconds connection is kept open while idle
+	 * @param max - number of requests remaining on connection
+	 */
+	public void setKeepAlive(int timeout, int max) {
+		connection = "keep-alive";
+		setField("Keep-Alive", "timeout=" + timeout + ", max=" + max);
+	}
+
+	/**
+	 * Builds a simple HTML page with the response message of the code
+	 * Called by: WebSrvThread.sendErrorResponse(), buildUnavailable()
+	 *     Calls: getCodeMessage(), StringBuilder()
+	 * @param code - HTTP response code
+	 * @return html page as string
+	 */
+	public static String getErrorPage(int code) {
+		StringBuilder content = new StringBuilder("<!DOCTYPE html><html><head></head><body>");
+		content.append(getCodeMessage(code));
+		content.append("</body></html>");
+		return content.toString();
+	}
+
+	/**
+	 * Gets the error page of a code rendered with its entity lines so it
+	 * can be sent like a cached file
+	 * Called by: WebSrvThread.sendErrorResponse()
+	 *     Calls: getErrorPage(), FileCache.Entry()
+	 * @param code - HTTP response code
+	 * @return - rendered error page
+	 */
+	public static FileCache.Entry getErrorEntry(int code) {
+		return errorPages.computeIfAbsent(code,
+				c -> new FileCache.Entry("", "text/html", getErrorPage(c).getBytes()));
+	}
+
+	/**
+	 * Builds a complete 503 response once so it can be written by a busy
+	 * server without creating a thread. The Date field is left out since
+	 * the bytes are reused for the life of the server, writeUnavailable()
+	 * adds it when the response is sent.
+	 * Called by: Srv.start()
+	 *     Calls: HttpRespSrv(), setField(), send(), getErrorPage()
+	 * @param server - name of server sending response
+	 * @param retryAfter - seconds client should wait before retrying
+	 * @return - bytes of the response
+	 */
+	public static byte[] buildUnavailable(String server, int retryAfter) {
+		HttpRespSrv resp = new HttpRespSrv(null, server, 503, getErrorPage(503));
+		resp.dated = false;
+		resp.setField("Retry-After", String.valueOf(retryAfter));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			resp.send(out);
+		}
+		catch (IOException e) {
+			// writing to memory does not fail
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes a response built by buildUnavailable() with the Date line of
+	 * the current second added after its status line
+	 * Called by: Srv.shed(), Test
+	 *     Calls: HttpRespHeader.getStatusLine(), HttpRespHeader.getDateLine(),
+	 *            OutputStream.write()
+	 * @param out - stream response is written to
+	 * @param unavailable - bytes of the 503 response
+	 * @throws IOException - if writing fails
+	 */
+	public static void writeUnavailable(OutputStream out, byte[] unavailable) throws IOException {
+		int status = HttpRespHeader.getStatusLine(503).length;
+		out.write(unavailable, 0, status);
+		out.write(HttpRespHeader.getDateLine());
+		out.write(unavailable, status, unavailable.length - status);
+	}
+
+	/**
+	 * Gets content type of a file from its name. If the type is not
+	 * known application/octet-stream is returned
+	 * Called by: FileCache.load(), MappedFileCache.load()
+	 *     Calls: MimeTypes.get()
+	 * @param name - name of file
+	 * @return - content type
+	 */
+	public static String getContentType(String name) {
+		return MimeTypes.get(name).name;
+	}
+
 	/**
 	 * Gets response message based on code passed to it. If
 	 * code is not known a "Unknown code" message is returned
@@ -211,6 +1059,10 @@ public class HttpRespSrv {
 		switch (code) {
 		case 200:
 			return "OK";
+		case 206:
+			return "Partial Content";
+		case 304:
+			return "Not Modified";
 		case 400:
 			return "Bad Request";
 		case 403:
@@ -221,8 +1073,12 @@ public class HttpRespSrv {
 			return "Method Not Allowed";
 		case 408:
 			return "Request Timeout";
+		case 416:
+			return "Range Not Satisfiable";
 		case 500:
 			return "Internal Server Error";
+		case 503:
+			return "Service Unavailable";
 		default:
 			return "Unknown code";
 		}
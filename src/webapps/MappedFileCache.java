@@ -0,0 +1,342 @@
+package webapps;
+/**
+ * Name: MappedFileCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps memory mappings of files too large for the
+ *              FileCache but still requested often. The content of a mapped
+ *              file lives in the page cache instead of the heap and is written
+ *              to the socket straight from the mapping. The total size mapped
+ *              is bounded and the least recently used mappings are evicted
+ *              first. Each mapping is reference counted, one reference is held
+ *              by the cache and one by each response sending it, so a mapping
+ *              evicted or dropped because its file changed is only unmapped
+ *              once the last response using it has finished.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class MappedFileCache implements DirWatcher.Listener {
+	LinkedHashMap<String, Mapping> entries; // mapped files in least recently used order
+	long minFileSize; // files this size or smaller are left to the FileCache
+	long maxFileSize; // largest file that is mapped
+	long maxBytes; // maximum total size mapped
+	long bytes; // total size mapped
+	long generation; // incremented on every change so stale loads are discarded
+	AtomicLong hits; // requests answered from a mapping
+	AtomicLong misses; // files mapped on request
+	AtomicLong evictions; // mappings removed to make space
+
+	// unmaps a buffer without waiting for it to be collected, null if not supported
+	final static Method cleaner = findCleaner();
+	final static Object unsafe = findUnsafe();
+
+	/**
+	 * Class that holds a mapped file
+	 */
+	public static class Mapping {
+		String resource; // normalized resource path
+		String type; // content type of file
+		byte[] header; // encoded Content-type and Content-length lines
+		MappedByteBuffer buf; // mapping of file
+		AtomicInteger refs; // references held by cache and responses
+
+		/**
+		 * Class constructor that holds the reference of its creator
+		 * Called by: MappedFileCache.load()
+		 *     Calls: HttpRespHeader.encode(), AtomicInteger()
+		 * @param resource - normalized resource path
+		 * @param type - content type of file
+		 * @param buf - mapping of file
+		 */
+		public Mapping(String resource, String type, MappedByteBuffer buf) {
+			this.resource = resource;
+			this.type = type;
+			this.buf = buf;
+			this.header = HttpRespHeader.encode("Content-type: " + type + "\r\n"
+					+ "Content-length: " + buf.capacity() + "\r\n");
+			refs = new AtomicInteger(1);
+		}
+
+		/**
+		 * Gets a view of the mapping with its own position so it can be
+		 * written by several responses at once
+		 * Called by: HttpRespSrv.sendMapped()
+		 *     Calls: MappedByteBuffer.duplicate()
+		 * @return - view of mapping
+		 */
+		public ByteBuffer slice() {
+			return buf.duplicate();
+		}
+
+		/**
+		 * Releases a reference and unmaps the file when it was the last
+		 * Called by: MappedFileCache, WebSrvThread.sendMappedResponse()
+		 *     Calls: AtomicInteger.decrementAndGet(), unmap()
+		 */
+		public void release() {
+			if (refs.decrementAndGet() == 0) {
+				unmap(buf);
+			}
+		}
+
+		/**
+		 * Gets size of mapping
+		 * Called by: MappedFileCache
+		 *     Calls: none
+		 * @return - byte count of file
+		 */
+		long size() {
+			return buf.capacity();
+		}
+	}
+
+	/**
+	 * Class constructor that creates an empty cache
+	 * Called by: WebSrv.start()
+	 *     Calls: LinkedHashMap(), AtomicLong()
+	 * @param minFileSize - files this size or smaller are not mapped
+	 * @param maxFileSize - largest file that is mapped
+	 * @param maxBytes - maximum total size mapped
+	 */
+	public MappedFileCache(long minFileSize, long maxFileSize, long maxBytes) {
+		this.minFileSize = minFileSize;
+		this.maxFileSize = Math.min(Math.min(maxFileSize, maxBytes), Integer.MAX_VALUE);
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<String, Mapping>(16, 0.75f, true);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+	}
+
+	/**
+	 * Gets mapping of a resource and takes a reference to it that the
+	 * caller must release
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), LinkedHashMap.get()
+	 * @param resource - requested resource
+	 * @return - mapping or null if resource is not mapped
+	 */
+	public Mapping get(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return null;
+		}
+		synchronized (this) {
+			Mapping m = entries.get(key);
+			if (m != null) {
+				m.refs.incrementAndGet();
+				hits.incrementAndGet();
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Maps a file and keeps the mapping under its resource if the file
+	 * is within the size range. Takes a reference that the caller must
+	 * release. If the cache changed while the file was mapped the mapping
+	 * is returned but not kept since it may be stale
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), FileChannel.open(), FileChannel.map(),
+	 *            HttpRespSrv.getContentType(), Mapping(), evict()
+	 * @param resource - requested resource
+	 * @param file - file resource was found at
+	 * @return - mapping or null if the file is not mapped
+	 */
+	public Mapping load(String resource, File file) {
+		String key = DirWatcher.normalize(resource);
+		long length = file.length();
+		if (key == null || length <= minFileSize || length > maxFileSize || !file.isFile()) {
+			return null;
+		}
+
+		long gen;
+		synchronized (this) {
+			gen = generation;
+		}
+
+		// mapping stays valid after channel is closed
+		Mapping m;
+		try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = chan.size();
+			if (size <= minFileSize || size > maxFileSize) {
+				return null;
+			}
+			m = new Mapping(key, HttpRespSrv.getContentType(file.getName()),
+					chan.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+		catch (IOException e) {
+			return null;
+		}
+		misses.incrementAndGet();
+
+		ArrayList<Mapping> released = new ArrayList<Mapping>();
+		synchronized (this) {
+			if (gen == generation) {
+				m.refs.incrementAndGet(); // reference held by cache
+				Mapping old = entries.put(key, m);
+				if (old != null) {
+					bytes -= old.size();
+					released.add(old);
+				}
+				bytes += m.size();
+				evict(released);
+			}
+		}
+		for (Mapping r : released) {
+			r.release();
+		}
+		return m;
+	}
+
+	/**
+	 * Removes least recently used mappings until the cache fits its
+	 * bound, must hold lock
+	 * Called by: load()
+	 *     Calls: Iterator.remove()
+	 * @param released - list evicted mappings are added to for release
+	 */
+	private void evict(ArrayList<Mapping> released) {
+		Iterator<Mapping> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Mapping m = it.next();
+			bytes -= m.size();
+			it.remove();
+			released.add(m);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops mapping of a changed resource and all mappings below it in
+	 * case the resource is a directory
+	 * Called by: DirWatcher.run()
+	 *     Calls: Iterator.remove(), Mapping.release()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public void changed(String resource) {
+		ArrayList<Mapping> released = new ArrayList<Mapping>();
+		String prefix = resource.endsWith("/") ? resource : resource + "/";
+		synchronized (this) {
+			generation++;
+			Iterator<Mapping> it = entries.values().iterator();
+			while (it.hasNext()) {
+				Mapping m = it.next();
+				if (m.resource.equals(resource) || m.resource.startsWith(prefix)) {
+					bytes -= m.size();
+					it.remove();
+					released.add(m);
+				}
+			}
+		}
+		for (Mapping m : released) {
+			m.release();
+		}
+	}
+
+	/**
+	 * Drops all mappings
+	 * Called by: DirWatcher.run()
+	 *     Calls: Mapping.release()
+	 */
+	@Override
+	public void changedAll() {
+		ArrayList<Mapping> released;
+		synchronized (this) {
+			generation++;
+			released = new ArrayList<Mapping>(entries.values());
+			entries.clear();
+			bytes = 0;
+		}
+		for (Mapping m : released) {
+			m.release();
+		}
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public synchronized String report() {
+		return "mapped: " + hits.get() + " hits, " + misses.get() + " misses, "
+				+ evictions.get() + " evictions, " + entries.size() + " files, "
+				+ bytes + "/" + maxBytes + " bytes";
+	}
+
+	/**
+	 * Unmaps a buffer so its address space is returned at once rather
+	 * than when the buffer is collected. Only called once no response
+	 * can read the buffer
+	 * Called by: Mapping.release()
+	 *     Calls: Method.invoke()
+	 * @param buf - buffer to unmap
+	 */
+	static void unmap(MappedByteBuffer buf) {
+		if (cleaner == null || unsafe == null) {
+			return; // unmapped when collected
+		}
+		try {
+			cleaner.invoke(unsafe, buf);
+		}
+		catch (ReflectiveOperationException | IllegalArgumentException e) {
+			// unmapped when collected
+		}
+	}
+
+	/**
+	 * Finds the method that unmaps a buffer, available since JDK 9
+	 * Called by: static initializer
+	 *     Calls: Class.forName(), Class.getMethod()
+	 * @return - method or null if it is not available
+	 */
+	private static Method findCleaner() {
+		try {
+			return Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the instance the unmap method is called on
+	 * Called by: static initializer
+	 *     Calls: Class.forName(), Field.get()
+	 * @return - instance or null if it is not available
+	 */
+	private static Object findUnsafe() {
+		try {
+			Field f = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			return f.get(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
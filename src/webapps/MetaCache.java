@@ -0,0 +1,329 @@
+package webapps;
+/**
+ * Name: MetaCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that keeps the validators and length of served files
+ *              so conditional and HEAD requests can be answered without
+ *              opening the file. The ETag is built from the size and
+ *              modification time of the file, the same values the
+ *              Last-Modified field is built from, and both lines are encoded
+ *              once when the file is first seen. Entries are keyed by the
+ *              normalized resource path, the least recently used are dropped
+ *              once the cache is full and DirWatcher drops those of changed
+ *              files.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class MetaCache implements DirWatcher.Listener {
+	LinkedHashMap<String, Meta> entries; // validators of files in least recently used order
+	int maxEntries; // number of files kept
+	long generation; // incremented on every change so stale loads are discarded
+	AtomicLong hits; // requests answered from cache
+	AtomicLong notModified; // requests answered with 304
+
+	/**
+	 * Class that holds the validators of a file
+	 */
+	public static class Meta {
+		String resource; // normalized resource path
+		String etag; // entity tag including quotes
+		long modified; // modification time in milliseconds, whole seconds
+		long length; // byte count of file
+		byte[] lines; // encoded ETag and Last-Modified lines
+
+		/**
+		 * Class constructor that builds and encodes the validators of a
+		 * file with an entity tag built from its length and modification
+		 * time
+		 * Called by: MetaCache.read(), Pack.Entry.getMeta()
+		 *     Calls: this()
+		 * @param resource - normalized resource path
+		 * @param length - byte count of file
+		 * @param modified - modification time of file in milliseconds
+		 */
+		public Meta(String resource, long length, long modified) {
+			this(resource, length, modified, null);
+		}
+
+		/**
+		 * Class constructor that builds and encodes the validators of a
+		 * file with a given entity tag, such as the hash of its content
+		 * Called by: Meta(), HashIndex.Hash.getMeta()
+		 *     Calls: HttpRespHeader.formatDate(), HttpRespHeader.encode()
+		 * @param resource - normalized resource path
+		 * @param length - byte count of file
+		 * @param modified - modification time of file in milliseconds
+		 * @param tag - entity tag including quotes, null builds it from length and modified
+		 */
+		public Meta(String resource, long length, long modified, String tag) {
+			this.resource = resource;
+			this.length = length;
+			// HTTP dates have whole seconds
+			this.modified = modified - Math.floorMod(modified, 1000L);
+			etag = (tag != null) ? tag
+					: "\"" + Long.toHexString(this.modified / 1000) + "-" + Long.toHexString(length) + "\"";
+			lines = HttpRespHeader.encode("ETag: " + etag + "\r\n"
+					+ "Last-Modified: " + HttpRespHeader.formatDate(
+							ZonedDateTime.ofInstant(Instant.ofEpochMilli(this.modified), ZoneOffset.UTC))
+					+ "\r\n");
+		}
+
+		/**
+		 * Gets entity tag of the file sent with a content coding, each
+		 * coding is a different representation so has its own tag
+		 * Called by: codedLines(), matchesTag()
+		 *     Calls: none
+		 * @param coding - content coding
+		 * @return - entity tag including quotes
+		 */
+		String codedTag(String coding) {
+			return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+		}
+
+		/**
+		 * Builds ETag and Last-Modified lines of the file sent with a
+		 * content coding
+		 * Called by: HttpRespSrv.setValidators()
+		 *     Calls: codedTag(), HttpRespHeader.encode()
+		 * @param coding - content coding, null for the file as it is
+		 * @return - encoded lines
+		 */
+		public byte[] codedLines(String coding) {
+			if (coding == null) {
+				return lines;
+			}
+			String last = new String(lines, StandardCharsets.ISO_8859_1);
+			last = last.substring(last.indexOf("\r\n") + 2);
+			return HttpRespHeader.encode("ETag: " + codedTag(coding) + "\r\n" + last);
+		}
+
+		/**
+		 * Checks if the client's copy is current. If-None-Match is used
+		 * when it was sent, If-Modified-Since only when it was not
+		 * Called by: WebSrvThread.serve()
+		 *     Calls: matchesTag(), parseDate()
+		 * @param ifNoneMatch - value of If-None-Match field or null
+		 * @param ifModifiedSince - value of If-Modified-Since field or null
+		 * @return - true if a 304 response may be sent
+		 */
+		public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+			if (ifNoneMatch != null) {
+				return matchesTag(ifNoneMatch);
+			}
+			if (ifModifiedSince != null) {
+				long since = parseDate(ifModifiedSince);
+				return since >= 0 && modified <= since;
+			}
+			return false;
+		}
+
+		/**
+		 * Checks if a list of entity tags holds the tag of the file or of
+		 * the file sent with a content coding, using the weak comparison
+		 * required for If-None-Match
+		 * Called by: isNotModified()
+		 *     Calls: String.split(), codedTag()
+		 * @param list - comma separated tags or *
+		 * @return - true if a tag matches
+		 */
+		boolean matchesTag(String list) {
+			for (String tag : list.split(",")) {
+				tag = tag.trim();
+				if (tag.equals("*")) {
+					return true;
+				}
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals(etag) || tag.equals(codedTag(ContentEncoding.GZIP))
+						|| tag.equals(codedTag(ContentEncoding.DEFLATE))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Class constructor that creates an empty cache
+	 * Called by: WebSrv.start()
+	 *     Calls: LinkedHashMap(), AtomicLong()
+	 * @param maxEntries - number of files kept
+	 */
+	public MetaCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		hits = new AtomicLong();
+		notModified = new AtomicLong();
+		entries = new LinkedHashMap<String, Meta>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Meta> eldest) {
+				return size() > MetaCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Gets validators of a resource
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), LinkedHashMap.get()
+	 * @param resource - requested resource
+	 * @return - validators or null if they are not cached
+	 */
+	public Meta get(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return null;
+		}
+		Meta meta;
+		synchronized (entries) {
+			meta = entries.get(key);
+		}
+		if (meta != null) {
+			hits.incrementAndGet();
+		}
+		return meta;
+	}
+
+	/**
+	 * Reads validators of a file and caches them under its resource. If
+	 * the cache changed while the file was read they are returned but not
+	 * cached since they may be stale
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: read(), LinkedHashMap.put()
+	 * @param resource - requested resource
+	 * @param file - file resource was found at
+	 * @return - validators or null if file has none
+	 */
+	public Meta load(String resource, File file) {
+		long gen;
+		synchronized (entries) {
+			gen = generation;
+		}
+		Meta meta = read(resource, file);
+		if (meta != null) {
+			synchronized (entries) {
+				if (gen == generation) {
+					entries.put(meta.resource, meta);
+				}
+			}
+		}
+		return meta;
+	}
+
+	/**
+	 * Reads validators of a file without caching them, used when there is
+	 * no cache to keep them current
+	 * Called by: load(), WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), File.lastModified(), File.length(), Meta()
+	 * @param resource - requested resource
+	 * @param file - file resource was found at
+	 * @return - validators or null if file has none
+	 */
+	public static Meta read(String resource, File file) {
+		String key = DirWatcher.normalize(resource);
+		long modified = file.lastModified();
+		if (key == null || modified == 0) {
+			return null; // not a file or not readable
+		}
+		return new Meta(key, file.length(), modified);
+	}
+
+	/**
+	 * Parses an HTTP date
+	 * Called by: Meta.isNotModified()
+	 *     Calls: ZonedDateTime.parse()
+	 * @param date - date in RFC 1123 format
+	 * @return - time in milliseconds or -1 if date is invalid
+	 */
+	static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+					.toInstant().toEpochMilli();
+		}
+		catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Counts a request answered with 304
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: AtomicLong.incrementAndGet()
+	 */
+	public void countNotModified() {
+		notModified.incrementAndGet();
+	}
+
+	/**
+	 * Drops validators of a changed resource and all below it in case
+	 * the resource is a directory
+	 * Called by: DirWatcher.run()
+	 *     Calls: Iterator.remove()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public void changed(String resource) {
+		String prefix = resource.endsWith("/") ? resource : resource + "/";
+		synchronized (entries) {
+			generation++;
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				String key = it.next();
+				if (key.equals(resource) || key.startsWith(prefix)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all validators
+	 * Called by: DirWatcher.run()
+	 *     Calls: LinkedHashMap.clear()
+	 */
+	@Override
+	public void changedAll() {
+		synchronized (entries) {
+			generation++;
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Builds report of cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public String report() {
+		int size;
+		synchronized (entries) {
+			size = entries.size();
+		}
+		return "metadata: " + hits.get() + " hits, " + notModified.get() + " not modified, "
+				+ size + "/" + maxEntries + " files";
+	}
+}
@@ -0,0 +1,316 @@
+package webapps;
+/**
+ * Name: MimeTypes.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that maps file extensions to content types. The table
+ *              is built once from the types the server knows and optionally
+ *              a mime.types file, and is not changed after it is built. Text
+ *              types have their charset appended and the Content-type line
+ *              of each type is encoded when the table is built. Extensions
+ *              are found in an open addressing table hashed over the
+ *              characters of the name in place, so a lookup neither cuts the
+ *              extension out of the name nor lowers its case and allocates
+ *              nothing.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class definition
+ */
+public class MimeTypes {
+	static final String DEFAULT = "application/octet-stream"; // type of unknown extensions
+	static final String CHARSET = "; charset=utf-8"; // appended to text types
+
+	// extensions and types known without a mime.types file
+	static final String[][] BUILT_IN = {
+		{"text/html", "html", "htm", "shtml"},
+		{"text/css", "css"},
+		{"text/plain", "txt", "text", "log", "conf", "ini"},
+		{"text/csv", "csv"},
+		{"text/markdown", "md", "markdown"},
+		{"text/xml", "xml"},
+		{"text/calendar", "ics"},
+		{"text/vcard", "vcf"},
+		{"text/yaml", "yaml", "yml"},
+		{"application/javascript", "js", "mjs"},
+		{"application/json", "json", "map"},
+		{"application/ld+json", "jsonld"},
+		{"application/manifest+json", "webmanifest"},
+		{"application/atom+xml", "atom"},
+		{"application/rss+xml", "rss"},
+		{"application/xhtml+xml", "xhtml"},
+		{"application/wasm", "wasm"},
+		{"application/pdf", "pdf"},
+		{"application/rtf", "rtf"},
+		{"application/epub+zip", "epub"},
+		{"application/zip", "zip"},
+		{"application/gzip", "gz", "tgz"},
+		{"application/x-bzip2", "bz2"},
+		{"application/x-xz", "xz"},
+		{"application/x-7z-compressed", "7z"},
+		{"application/x-tar", "tar"},
+		{"application/java-archive", "jar", "war", "ear"},
+		{"application/vnd.android.package-archive", "apk"},
+		{"application/x-debian-package", "deb"},
+		{"application/x-rpm", "rpm"},
+		{"application/x-msdownload", "exe", "dll", "msi"},
+		{"application/x-iso9660-image", "iso"},
+		{"application/msword", "doc"},
+		{"application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx"},
+		{"application/vnd.ms-excel", "xls"},
+		{"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx"},
+		{"application/vnd.ms-powerpoint", "ppt"},
+		{"application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx"},
+		{"application/vnd.oasis.opendocument.text", "odt"},
+		{"application/vnd.oasis.opendocument.spreadsheet", "ods"},
+		{"image/png", "png"},
+		{"image/jpeg", "jpg", "jpeg", "jpe"},
+		{"image/gif", "gif"},
+		{"image/webp", "webp"},
+		{"image/avif", "avif"},
+		{"image/svg+xml", "svg"},
+		{"image/x-icon", "ico"},
+		{"image/bmp", "bmp"},
+		{"image/tiff", "tif", "tiff"},
+		{"font/woff", "woff"},
+		{"font/woff2", "woff2"},
+		{"font/ttf", "ttf"},
+		{"font/otf", "otf"},
+		{"application/vnd.ms-fontobject", "eot"},
+		{"audio/mpeg", "mp3"},
+		{"audio/ogg", "ogg", "oga", "opus"},
+		{"audio/wav", "wav"},
+		{"audio/flac", "flac"},
+		{"audio/mp4", "m4a"},
+		{"audio/aac", "aac"},
+		{"video/mp4", "mp4", "m4v"},
+		{"video/webm", "webm"},
+		{"video/ogg", "ogv"},
+		{"video/quicktime", "mov"},
+		{"video/x-msvideo", "avi"},
+		{"video/x-matroska", "mkv"},
+	};
+
+	// extensions of files stored gzip compressed, sent with the default type
+	// even when a mime.types file names one so they are not compressed again
+	static final String[] CODED = {"svgz"};
+
+	static volatile MimeTypes table = new MimeTypes(null); // table used by lookups
+
+	/**
+	 * Class that holds a content type and its encoded header line
+	 */
+	public static class Type {
+		final String name; // content type including charset
+		final byte[] line; // encoded Content-type line
+		final boolean compressible; // bodies of type are worth compressing
+
+		/**
+		 * Class constructor that appends the charset of text types and
+		 * encodes the header line
+		 * Called by: MimeTypes()
+		 *     Calls: isText(), HttpRespHeader.encode(), ContentEncoding.isCompressible()
+		 * @param type - content type
+		 */
+		Type(String type) {
+			name = isText(type) ? type + CHARSET : type;
+			line = HttpRespHeader.encode("Content-type: " + name + "\r\n");
+			compressible = ContentEncoding.isCompressible(type);
+		}
+	}
+
+	String[] keys; // extensions in lower case, null where slot is empty
+	Type[] values; // type of extension in same slot
+	int mask; // table size less one, size is a power of two
+	Type fallback; // type of names without a known extension
+
+	/**
+	 * Class constructor that builds the table from the built-in types and
+	 * the types read from a mime.types file, which take precedence. Coded
+	 * extensions are left out
+	 * Called by: MimeTypes, load()
+	 *     Calls: Type(), put()
+	 * @param extra - extensions and types read from a file, null if none
+	 */
+	MimeTypes(Map<String, String> extra) {
+		LinkedHashMap<String, String> all = new LinkedHashMap<String, String>();
+		for (String[] row : BUILT_IN) {
+			for (int i = 1; i < row.length; i++) {
+				all.put(row[i], row[0]);
+			}
+		}
+		if (extra != null) {
+			all.putAll(extra);
+		}
+		for (String ext : CODED) {
+			all.remove(ext);
+		}
+
+		// keep table at most half full so probes stay short
+		int size = Integer.highestOneBit(Math.max(all.size(), 8) * 2) * 2;
+		keys = new String[size];
+		values = new Type[size];
+		mask = size - 1;
+
+		// types are shared by their extensions
+		LinkedHashMap<String, Type> types = new LinkedHashMap<String, Type>();
+		for (Map.Entry<String, String> e : all.entrySet()) {
+			put(e.getKey(), types.computeIfAbsent(e.getValue(), Type::new));
+		}
+		fallback = new Type(DEFAULT);
+	}
+
+	/**
+	 * Adds an extension to the table
+	 * Called by: MimeTypes()
+	 *     Calls: hash()
+	 * @param ext - extension in lower case
+	 * @param type - type of extension
+	 */
+	private void put(String ext, Type type) {
+		int i = hash(ext, 0, ext.length()) & mask;
+		while (keys[i] != null && !keys[i].equals(ext)) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = ext;
+		values[i] = type;
+	}
+
+	/**
+	 * Finds the type of a file name or path from its extension
+	 * Called by: get()
+	 *     Calls: hash(), String.regionMatches()
+	 * @param name - file name or path
+	 * @return - type of extension or the default type
+	 */
+	Type lookup(String name) {
+		int end = name.length();
+		int start = end;
+		while (start > 0) {
+			char c = name.charAt(start - 1);
+			if (c == '.') {
+				break;
+			}
+			if (c == '/') {
+				return fallback; // name has no extension
+			}
+			start--;
+		}
+		if (start == 0 || start == end) {
+			return fallback;
+		}
+		int len = end - start;
+		int i = hash(name, start, end) & mask;
+		while (keys[i] != null) {
+			if (keys[i].length() == len && keys[i].regionMatches(true, 0, name, start, len)) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return fallback;
+	}
+
+	/**
+	 * Hashes part of a string ignoring the case of ASCII letters
+	 * Called by: put(), lookup()
+	 *     Calls: none
+	 * @param s - string to hash
+	 * @param start - index of first character
+	 * @param end - index after last character
+	 * @return - hash spread over the low bits
+	 */
+	static int hash(String s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Checks if a type is text whose charset is sent with it
+	 * Called by: Type()
+	 *     Calls: none
+	 * @param type - content type without parameters
+	 * @return - true if charset is appended
+	 */
+	static boolean isText(String type) {
+		return type.startsWith("text/")
+				|| type.endsWith("+xml")
+				|| type.endsWith("+json")
+				|| type.equals("application/javascript")
+				|| type.equals("application/json")
+				|| type.equals("application/xml");
+	}
+
+	/**
+	 * Gets the type of a file name or path
+	 * Called by: HttpRespSrv, WebSrvThread.serve()
+	 *     Calls: lookup()
+	 * @param name - file name or path
+	 * @return - type of its extension or the default type
+	 */
+	public static Type get(String name) {
+		return table.lookup(name);
+	}
+
+	/**
+	 * Replaces the table with one that also holds the types of a file in
+	 * mime.types format, a type followed by its extensions on each line
+	 * Called by: WebSrv.checkParams()
+	 *     Calls: read(), MimeTypes()
+	 * @param file - mime.types file
+	 * @return - number of extensions read
+	 * @throws IOException - if file fails to be read
+	 */
+	public static int load(File file) throws IOException {
+		Map<String, String> extra = read(file);
+		table = new MimeTypes(extra);
+		return extra.size();
+	}
+
+	/**
+	 * Reads a file in mime.types format, text after # is ignored
+	 * Called by: load()
+	 *     Calls: Files.newBufferedReader(), String.split()
+	 * @param file - mime.types file
+	 * @return - extensions in lower case and their types
+	 * @throws IOException - if file fails to be read
+	 */
+	static Map<String, String> read(File file) throws IOException {
+		LinkedHashMap<String, String> extra = new LinkedHashMap<String, String>();
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int hash = line.indexOf('#');
+				if (hash >= 0) {
+					line = line.substring(0, hash);
+				}
+				String[] words = line.trim().split("[\\s;]+");
+				if (words.length < 2 || words[0].indexOf('/') < 0) {
+					continue;
+				}
+				for (int i = 1; i < words.length; i++) {
+					extra.put(words[i].toLowerCase(), words[0].toLowerCase());
+				}
+			}
+		}
+		return extra;
+	}
+}
@@ -0,0 +1,224 @@
+package webapps;
+/**
+ * Name: NegativeCache.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that answers requests for resources that do not exist
+ *              without searching the served directories. A Bloom filter holds
+ *              every existing resource path, a path it has never seen can not
+ *              exist. Paths the filter lets through that were searched and
+ *              not found are kept in a bounded cache of recent misses. Used by
+ *              WebSrvThread when directories are searched on each request
+ *              instead of indexed. DirWatcher keeps both current, a deleted
+ *              file can not be removed from the filter so it is rebuilt once
+ *              enough files were deleted or added. A miss found by a search
+ *              that started before a change is not kept since the change may
+ *              have created the resource.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class NegativeCache implements DirWatcher.Listener {
+	static final double FALSE_POSITIVE = 0.01; // false positive rate of filter
+	static final int MIN_CAPACITY = 1024; // smallest number of paths filter is sized for
+
+	List<File> dirs; // served directories
+	volatile BloomFilter known; // paths of existing resources
+	int deleted; // resources deleted since filter was built
+	LinkedHashMap<String, Boolean> misses; // recently searched paths that did not exist
+	int maxMisses; // number of misses kept
+	long generation; // incremented on every change so misses found before it are discarded
+	AtomicLong filtered; // requests answered by filter
+	AtomicLong hits; // requests answered by recent misses
+
+	/**
+	 * Class constructor that builds the filter from the directories
+	 * Called by: WebSrv.start()
+	 *     Calls: LinkedHashMap(), build()
+	 * @param dirs - served directories
+	 * @param maxMisses - number of misses kept
+	 */
+	public NegativeCache(List<File> dirs, int maxMisses) {
+		this.dirs = dirs;
+		this.maxMisses = maxMisses;
+		filtered = new AtomicLong();
+		hits = new AtomicLong();
+		misses = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > NegativeCache.this.maxMisses;
+			}
+		};
+		known = build();
+	}
+
+	/**
+	 * Checks if a resource is known not to exist
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), BloomFilter.mightContain(),
+	 *            LinkedHashMap.containsKey()
+	 * @param resource - requested resource
+	 * @return - true if resource does not exist, false if it must be searched for
+	 */
+	public boolean isMissing(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return true;
+		}
+		if (!known.mightContain(key)) {
+			filtered.incrementAndGet();
+			return true;
+		}
+		synchronized (misses) {
+			if (misses.containsKey(key)) {
+				hits.incrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the generation of the cache, read before a resource is searched
+	 * for so its miss can be discarded if the cache changed meanwhile
+	 * Called by: WebSrvThread.serve(), Test
+	 *     Calls: none
+	 * @return - current generation
+	 */
+	public long getGeneration() {
+		synchronized (misses) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Records a resource that was searched for and not found, unless the
+	 * cache changed since the search started
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), LinkedHashMap.put()
+	 * @param resource - requested resource
+	 * @param gen - generation read before the search
+	 */
+	public void addMiss(String resource, long gen) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null || maxMisses == 0) {
+			return;
+		}
+		synchronized (misses) {
+			if (gen == generation) {
+				misses.put(key, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * Builds filter of every file in the directories, sized with room
+	 * for the directories to grow
+	 * Called by: NegativeCache(), changed(), changedAll()
+	 *     Calls: ResourceIndex.walk(), BloomFilter(), BloomFilter.add()
+	 * @return - new filter
+	 */
+	private BloomFilter build() {
+		ArrayList<String> paths = new ArrayList<String>();
+		for (File dir : dirs) {
+			Path root = dir.toPath().toAbsolutePath().normalize();
+			paths.addAll(ResourceIndex.walk(root, root));
+		}
+		BloomFilter filter = new BloomFilter(Math.max(paths.size() * 2, MIN_CAPACITY), FALSE_POSITIVE);
+		for (String p : paths) {
+			filter.add(p);
+		}
+		deleted = 0;
+		return filter;
+	}
+
+	/**
+	 * Adds created files to the filter and forgets misses of the changed
+	 * resource and any below it. Rebuilds the filter once it is full or
+	 * many of its paths were deleted
+	 * Called by: DirWatcher.run()
+	 *     Calls: ResourceIndex.walk(), BloomFilter.add(), build()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public void changed(String resource) {
+		boolean exists = false;
+		for (File dir : dirs) {
+			Path root = dir.toPath().toAbsolutePath().normalize();
+			Path path = root.resolve(resource.substring(1));
+			if (Files.exists(path)) {
+				exists = true;
+				for (String p : ResourceIndex.walk(root, path)) {
+					known.add(p);
+				}
+			}
+		}
+		if (!exists) {
+			deleted++;
+		}
+
+		String prefix = resource.endsWith("/") ? resource : resource + "/";
+		synchronized (misses) {
+			generation++;
+			Iterator<String> it = misses.keySet().iterator();
+			while (it.hasNext()) {
+				String key = it.next();
+				if (key.equals(resource) || key.startsWith(prefix)) {
+					it.remove();
+				}
+			}
+		}
+
+		if (known.isFull() || deleted > known.count / 10) {
+			known = build();
+		}
+	}
+
+	/**
+	 * Rebuilds filter and forgets all misses
+	 * Called by: DirWatcher.run()
+	 *     Calls: build(), LinkedHashMap.clear()
+	 */
+	@Override
+	public void changedAll() {
+		known = build();
+		synchronized (misses) {
+			generation++;
+			misses.clear();
+		}
+	}
+
+	/**
+	 * Builds report of negative cache counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public String report() {
+		int size;
+		synchronized (misses) {
+			size = misses.size();
+		}
+		return "negative cache: " + filtered.get() + " filtered, " + hits.get() + " hits, "
+				+ size + "/" + maxMisses + " misses kept";
+	}
+}
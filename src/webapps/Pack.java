@@ -0,0 +1,444 @@
+package webapps;
+/**
+ * Name: Pack.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that serves a whole site from one memory mapped file
+ *              so a request opens, stats and closes nothing. Two formats
+ *              are read. A pack built by PackBuilder holds the files one
+ *              after another followed by an index of fixed size records
+ *              sorted by resource path, which is searched in the mapping so
+ *              the index is never loaded into the heap. A zip or jar archive
+ *              is read from its central directory into a map once when it is
+ *              opened. Stored entries are sent straight from the mapping,
+ *              deflated entries are sent as gzip by framing the deflate data
+ *              with a gzip header and the CRC and size the archive already
+ *              holds, or inflated while sent to clients that do not accept
+ *              gzip. The mapping is kept until the server stops, a new pack
+ *              is served once the server is restarted.
+ *
+ *              Pack layout, numbers are big endian:
+ *              	magic "WEBPACK1", entry count (int), reserved (int),
+ *              	index offset (long), names offset (long), file data,
+ *              	index records of data offset, length, modified time
+ *              	(longs), name offset and name length (ints), names
+ *              	in UTF-8
+ *              No file crosses a SEGMENT boundary so each segment is mapped
+ *              as one buffer.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Class definition
+ */
+public class Pack {
+	static final byte[] MAGIC = "WEBPACK1".getBytes(StandardCharsets.US_ASCII); // first bytes of a pack
+	static final int HEADER_SIZE = 32; // bytes before file data
+	static final int RECORD_SIZE = 32; // bytes of each index record
+	static final int SEGMENT_BITS = 30; // files do not cross 1 GB boundaries
+	static final long SEGMENT = 1L << SEGMENT_BITS; // size of each mapped segment
+
+	// gzip header of deflate data with no name and unknown time and system
+	static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+	File file; // pack or archive served
+	ByteBuffer[] segments; // mappings of file data
+	ByteBuffer index; // mapping of index records and names, null for archives
+	int count; // number of files
+	HashMap<String, Entry> entries; // files of an archive, null for packs
+	AtomicLong hits; // requests found in pack
+	AtomicLong misses; // requests not found in pack
+
+	/**
+	 * Class that holds where a file is in the pack
+	 */
+	public static class Entry {
+		String resource; // normalized resource path
+		ByteBuffer data; // stored or deflated bytes of file
+		long size; // byte count of file once inflated
+		long modified; // modification time in milliseconds
+		boolean deflated; // data is deflate compressed
+		int crc; // CRC-32 of inflated file, used for gzip framing
+
+		/**
+		 * Gets the validators of the file
+		 * Called by: WebSrvThread.serve()
+		 *     Calls: MetaCache.Meta()
+		 * @return - validators
+		 */
+		public MetaCache.Meta getMeta() {
+			return new MetaCache.Meta(resource, size, modified);
+		}
+
+		/**
+		 * Gets the file as it is stored, views with their own positions
+		 * Called by: WebSrvThread.sendPackResponse()
+		 *     Calls: ByteBuffer.duplicate()
+		 * @return - buffers holding file
+		 */
+		public ByteBuffer[] getBody() {
+			return new ByteBuffer[] {data.duplicate()};
+		}
+
+		/**
+		 * Gets deflated data framed as a gzip body
+		 * Called by: WebSrvThread.sendPackResponse()
+		 *     Calls: ByteBuffer.wrap(), ByteBuffer.allocate()
+		 * @return - buffers of gzip header, data and trailer
+		 */
+		public ByteBuffer[] getGzipBody() {
+			ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			trailer.putInt(crc).putInt((int)size).flip();
+			return new ByteBuffer[] {ByteBuffer.wrap(GZIP_HEADER), data.duplicate(), trailer};
+		}
+
+		/**
+		 * Opens a stream of the inflated file
+		 * Called by: WebSrvThread.sendPackResponse()
+		 *     Calls: InflaterInputStream(), Inflater()
+		 * @return - stream of file
+		 */
+		public InputStream openStream() {
+			ByteBuffer buf = data.duplicate();
+			InputStream raw = new InputStream() {
+				@Override
+				public int read() {
+					return buf.hasRemaining() ? buf.get() & 0xff : -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (!buf.hasRemaining()) {
+						return -1;
+					}
+					int n = Math.min(len, buf.remaining());
+					buf.get(b, off, n);
+					return n;
+				}
+			};
+			if (!deflated) {
+				return raw;
+			}
+			Inflater inf = new Inflater(true);
+			return new InflaterInputStream(raw, inf, 8192) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inf.end(); // release native memory of the inflater created here
+				}
+			};
+		}
+	}
+
+	/**
+	 * Class constructor
+	 * Called by: open()
+	 *     Calls: AtomicLong()
+	 * @param file - pack or archive served
+	 */
+	Pack(File file) {
+		this.file = file;
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	/**
+	 * Maps a pack or a zip or jar archive
+	 * Called by: WebSrv.checkParams()
+	 *     Calls: Pack(), readPack(), readZip()
+	 * @param file - pack or archive
+	 * @return - pack ready to serve
+	 * @throws IOException - if file can not be read or is not a pack or archive
+	 */
+	public static Pack open(File file) throws IOException {
+		Pack pack = new Pack(file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel chan = raf.getChannel();
+			byte[] magic = new byte[MAGIC.length];
+			if (chan.size() >= HEADER_SIZE) {
+				raf.readFully(magic);
+			}
+			if (Arrays.equals(magic, MAGIC)) {
+				pack.readPack(chan);
+			}
+			else {
+				pack.readZip(chan);
+			}
+		}
+		return pack;
+	}
+
+	/**
+	 * Maps the segments and the index of a pack
+	 * Called by: open()
+	 *     Calls: FileChannel.map()
+	 * @param chan - channel of pack
+	 * @throws IOException - if pack is damaged
+	 */
+	private void readPack(FileChannel chan) throws IOException {
+		ByteBuffer header = chan.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		count = header.getInt(8);
+		long indexOffset = header.getLong(16);
+		long namesOffset = header.getLong(24);
+		if (count < 0 || indexOffset < HEADER_SIZE || namesOffset != indexOffset + (long)count * RECORD_SIZE
+				|| namesOffset > chan.size() || chan.size() - indexOffset > Integer.MAX_VALUE) {
+			throw new IOException("damaged pack index");
+		}
+		index = chan.map(FileChannel.MapMode.READ_ONLY, indexOffset, chan.size() - indexOffset);
+		segments = new ByteBuffer[(int)((indexOffset + SEGMENT - 1) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; i++) {
+			long start = (long)i << SEGMENT_BITS;
+			segments[i] = chan.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, indexOffset - start));
+		}
+	}
+
+	/**
+	 * Maps a zip or jar archive and reads its central directory. Entries
+	 * that are encrypted or compressed other than by deflate are skipped
+	 * Called by: open()
+	 *     Calls: FileChannel.map(), findEnd(), getModified()
+	 * @param chan - channel of archive
+	 * @throws IOException - if file is not an archive that can be served
+	 */
+	private void readZip(FileChannel chan) throws IOException {
+		if (chan.size() > Integer.MAX_VALUE) {
+			throw new IOException("archives over 2 GB are not served, build a pack instead");
+		}
+		ByteBuffer zip = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size())
+				.order(ByteOrder.LITTLE_ENDIAN);
+		segments = new ByteBuffer[] {zip};
+		int end = findEnd(zip);
+		if (end < 0) {
+			throw new IOException("not a pack, zip or jar file");
+		}
+		int total = zip.getShort(end + 10) & 0xffff;
+		long dirOffset = zip.getInt(end + 16) & 0xffffffffL;
+		if (dirOffset == 0xffffffffL || dirOffset >= zip.limit()) {
+			throw new IOException("zip64 archives are not served, build a pack instead");
+		}
+
+		entries = new HashMap<String, Entry>(total * 2);
+		int p = (int)dirOffset;
+		for (int i = 0; i < total; i++) {
+			if (p + 46 > zip.limit() || zip.getInt(p) != 0x02014b50) {
+				throw new IOException("damaged zip central directory");
+			}
+			int flags = zip.getShort(p + 8) & 0xffff;
+			int method = zip.getShort(p + 10) & 0xffff;
+			int time = zip.getShort(p + 12) & 0xffff;
+			int date = zip.getShort(p + 14) & 0xffff;
+			int crc = zip.getInt(p + 16);
+			long csize = zip.getInt(p + 20) & 0xffffffffL;
+			long usize = zip.getInt(p + 24) & 0xffffffffL;
+			int nameLen = zip.getShort(p + 28) & 0xffff;
+			int extraLen = zip.getShort(p + 30) & 0xffff;
+			int commentLen = zip.getShort(p + 32) & 0xffff;
+			long local = zip.getInt(p + 42) & 0xffffffffL;
+			byte[] name = new byte[nameLen];
+			zip.position(p + 46);
+			zip.get(name);
+			p += 46 + nameLen + extraLen + commentLen;
+
+			String resource = DirWatcher.normalize("/" + new String(name, StandardCharsets.UTF_8));
+			boolean encrypted = (flags & 1) != 0;
+			if (resource == null || nameLen == 0 || name[nameLen - 1] == '/' || encrypted
+					|| (method != 0 && method != 8) || local + 30 > zip.limit()) {
+				continue; // directory or entry that can not be served
+			}
+			long start = local + 30 + (zip.getShort((int)local + 26) & 0xffff)
+					+ (zip.getShort((int)local + 28) & 0xffff);
+			if (start + csize > zip.limit()) {
+				throw new IOException("damaged zip entry: " + resource);
+			}
+
+			Entry e = new Entry();
+			e.resource = resource;
+			e.data = slice(zip, (int)start, (int)csize);
+			e.size = usize;
+			e.modified = getModified(date, time);
+			e.deflated = method == 8;
+			e.crc = crc;
+			entries.put(resource, e);
+		}
+		count = entries.size();
+	}
+
+	/**
+	 * Finds the end of central directory record, searching back over the
+	 * longest comment an archive may have
+	 * Called by: readZip()
+	 *     Calls: none
+	 * @param zip - mapping of archive
+	 * @return - position of record or -1 if file is not an archive
+	 */
+	static int findEnd(ByteBuffer zip) {
+		int last = Math.max(0, zip.limit() - 22 - 0xffff);
+		for (int p = zip.limit() - 22; p >= last; p--) {
+			if (zip.getInt(p) == 0x06054b50) {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Converts the MS-DOS date and time of an archive entry, which are in
+	 * local time, to milliseconds
+	 * Called by: readZip()
+	 *     Calls: LocalDateTime.of()
+	 * @param date - MS-DOS date
+	 * @param time - MS-DOS time
+	 * @return - time in milliseconds
+	 */
+	static long getModified(int date, int time) {
+		try {
+			return LocalDateTime.of(1980 + (date >> 9), (date >> 5) & 0xf, date & 0x1f,
+					time >> 11, (time >> 5) & 0x3f, (time & 0x1f) * 2)
+					.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		catch (DateTimeException e) {
+			return 1000; // invalid date, any fixed time keeps the ETag stable
+		}
+	}
+
+	/**
+	 * Gets a view of part of a buffer
+	 * Called by: readZip(), get()
+	 *     Calls: ByteBuffer.duplicate(), ByteBuffer.slice()
+	 * @param buf - buffer
+	 * @param start - position of first byte
+	 * @param length - byte count
+	 * @return - view starting at position 0
+	 */
+	static ByteBuffer slice(ByteBuffer buf, int start, int length) {
+		ByteBuffer view = buf.duplicate();
+		view.limit(start + length).position(start);
+		return view.slice();
+	}
+
+	/**
+	 * Gets the entry of a resource
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), HashMap.get(), find()
+	 * @param resource - requested resource
+	 * @return - entry or null if pack does not hold it
+	 */
+	public Entry get(String resource) {
+		String key = DirWatcher.normalize(resource);
+		Entry e = null;
+		if (key != null) {
+			e = (entries != null) ? entries.get(key) : find(key);
+		}
+		if (e == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		return e;
+	}
+
+	/**
+	 * Binary searches the index records of a pack for a resource, names
+	 * are compared as unsigned bytes in the mapping
+	 * Called by: get()
+	 *     Calls: compare(), slice()
+	 * @param key - normalized resource path
+	 * @return - entry or null if pack does not hold it
+	 */
+	private Entry find(String key) {
+		byte[] name = key.getBytes(StandardCharsets.UTF_8);
+		int namesStart = count * RECORD_SIZE;
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int rec = mid * RECORD_SIZE;
+			int c = compare(index, namesStart + index.getInt(rec + 24), index.getInt(rec + 28), name);
+			if (c < 0) {
+				lo = mid + 1;
+			}
+			else if (c > 0) {
+				hi = mid - 1;
+			}
+			else {
+				long offset = index.getLong(rec);
+				Entry e = new Entry();
+				e.resource = key;
+				e.size = index.getLong(rec + 8);
+				e.modified = index.getLong(rec + 16);
+				if (e.size == 0) {
+					e.data = ByteBuffer.allocate(0); // may sit past the last segment
+				}
+				else {
+					e.data = slice(segments[(int)(offset >>> SEGMENT_BITS)],
+							(int)(offset & (SEGMENT - 1)), (int)e.size);
+				}
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares a name in a buffer with a name as unsigned bytes
+	 * Called by: find()
+	 *     Calls: none
+	 * @param buf - buffer holding names
+	 * @param start - position of name in buffer
+	 * @param length - byte count of name in buffer
+	 * @param name - name to compare with
+	 * @return - negative, zero or positive as the name in the buffer is
+	 *           before, equal to or after the name
+	 */
+	static int compare(ByteBuffer buf, int start, int length, byte[] name) {
+		int n = Math.min(length, name.length);
+		for (int i = 0; i < n; i++) {
+			int c = (buf.get(start + i) & 0xff) - (name[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - name.length;
+	}
+
+	/**
+	 * Gets number of files in pack
+	 * Called by: WebSrv.start()
+	 *     Calls: none
+	 * @return - file count
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Builds report of pack counters
+	 * Called by: WebSrv.report()
+	 *     Calls: AtomicLong.get()
+	 * @return - report string
+	 */
+	public String report() {
+		return "pack: " + hits.get() + " hits, " + misses.get() + " misses, " + count + " files";
+	}
+}
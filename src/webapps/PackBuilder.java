@@ -0,0 +1,283 @@
+package webapps;
+/**
+ * Name: PackBuilder.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class used to bundle a directory into one pack file that
+ *              WebSrv serves with the --pack option. Files are copied into
+ *              the pack as they are found, a file that would cross a segment
+ *              boundary starts at the next segment instead. The index records
+ *              are sorted by resource path and written after the files
+ *              followed by the names. The pack is written beside its target
+ *              and moved over it once complete so a server mapping the old
+ *              pack is not disturbed. Run with -h to see help manual.
+ *
+ *              Basic usage:
+ *              	java webapps.PackBuilder [options] <directory>
+ *
+ * Inherits: Main
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import webapps.Option.OptionException;
+import webapps.Option.OptionString;
+
+/**
+ * Class definition
+ */
+public class PackBuilder extends Main {
+	OptionString outOpt; // pack file written
+	File dir; // directory packed
+
+	/**
+	 * Class that holds the index record of a packed file
+	 */
+	static class Record {
+		byte[] name; // resource path in UTF-8
+		long offset; // position of file in pack
+		long length; // byte count of file
+		long modified; // modification time in milliseconds
+	}
+
+	/**
+	 * Constructor of PackBuilder initiates options
+	 * Called By: main()
+	 *     Calls: super(String, String, String), OptionString(), Main.addOption()
+	 * @param name - name of program
+	 * @param desc - description of program
+	 * @param usage - usage syntax of program
+	 */
+	public PackBuilder(String name, String desc, String usage) throws OptionException {
+		super(name, desc, usage);
+
+		outOpt = new OptionString("o", "Pack file written, default: site.pack", "site.pack");
+		addOption(outOpt);
+	}
+
+	/**
+	 * Sets directory packed
+	 * Called By: super.parseOptions()
+	 *     Calls: File()
+	 * @param param - directory path
+	 */
+	@Override
+	public void setParam(String param) throws OptionException {
+		params.add(param);
+		dir = new File(param);
+	}
+
+	/**
+	 * Sets option of builder
+	 * @param name - name of option
+	 * @param value - value of option
+	 * @throws OptionException - if error with option exists
+	 */
+	@Override
+	public void setOption(String name, String value) throws OptionException {
+		getOption(name).setValue(value);
+	}
+
+	/**
+	 * Checks directory is valid
+	 * @throws OptionException - if directory is missing or invalid
+	 */
+	@Override
+	public void checkParams() throws OptionException {
+		if (dir == null || !dir.isDirectory()) {
+			throw new OptionException("directory must be provided, use -h option for help");
+		}
+	}
+
+	/**
+	 * Writes the pack of the directory
+	 * Called by: main()
+	 *     Calls: build(), Files.move()
+	 * @return - number of files packed
+	 * @throws IOException - if a file fails to be read or the pack to be written
+	 */
+	int run() throws IOException {
+		Path target = new File(outOpt.getValue()).toPath().toAbsolutePath();
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		int count;
+		try {
+			count = build(dir.toPath().toAbsolutePath().normalize(), tmp);
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the files of a directory into a pack and writes its index
+	 * Called by: run(), Test
+	 *     Calls: Files.walk(), FileChannel.open(), FileChannel.transferTo(), writeIndex()
+	 * @param root - directory packed
+	 * @param out - pack file written
+	 * @return - number of files packed
+	 * @throws IOException - if a file fails to be read or the pack to be written
+	 */
+	static int build(Path root, Path out) throws IOException {
+		ArrayList<Record> records = new ArrayList<Record>();
+		try (FileChannel pack = FileChannel.open(out, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				Stream<Path> files = Files.walk(root)) {
+			long pos = Pack.HEADER_SIZE;
+			for (Path p : (Iterable<Path>)files::iterator) {
+				if (!Files.isRegularFile(p) || p.equals(out)) {
+					continue;
+				}
+				long length = Files.size(p);
+				if (length > Pack.SEGMENT) {
+					printError("skipped file larger than a segment: " + p);
+					continue;
+				}
+
+				// start file at next segment rather than across a boundary
+				if (length > 0 && (pos >>> Pack.SEGMENT_BITS) != ((pos + length - 1) >>> Pack.SEGMENT_BITS)) {
+					pos = ((pos >>> Pack.SEGMENT_BITS) + 1) << Pack.SEGMENT_BITS;
+				}
+				Record r = new Record();
+				r.name = DirWatcher.getResource(root, p).getBytes(StandardCharsets.UTF_8);
+				r.offset = pos;
+				r.modified = Files.getLastModifiedTime(p).toMillis();
+				try (FileChannel in = FileChannel.open(p, StandardOpenOption.READ)) {
+					long n = 0;
+					while (n < length) {
+						long m = in.transferTo(n, length - n, pack.position(pos + n));
+						if (m <= 0) {
+							break; // file was truncated while read
+						}
+						n += m;
+					}
+					r.length = n;
+				}
+				pos += r.length;
+				records.add(r);
+			}
+			writeIndex(pack, pos, records);
+		}
+		return records.size();
+	}
+
+	/**
+	 * Writes the sorted index records, the names and the header
+	 * Called by: build()
+	 *     Calls: Arrays.compareUnsigned(), FileChannel.write()
+	 * @param pack - channel of pack
+	 * @param indexOffset - position after the last file
+	 * @param records - records of packed files
+	 * @throws IOException - if the pack fails to be written
+	 */
+	static void writeIndex(FileChannel pack, long indexOffset, ArrayList<Record> records) throws IOException {
+		records.sort((a, b) -> Arrays.compareUnsigned(a.name, b.name));
+		long namesOffset = indexOffset + (long)records.size() * Pack.RECORD_SIZE;
+
+		// records are written in batches so memory does not grow with the count
+		ByteBuffer buf = ByteBuffer.allocate(Pack.RECORD_SIZE * 1024);
+		long pos = indexOffset;
+		long nameOffset = 0;
+		for (Record r : records) {
+			if (nameOffset + r.name.length > Integer.MAX_VALUE) {
+				throw new IOException("names of packed files exceed 2 GB");
+			}
+			buf.putLong(r.offset).putLong(r.length).putLong(r.modified)
+					.putInt((int)nameOffset).putInt(r.name.length);
+			nameOffset += r.name.length;
+			if (!buf.hasRemaining()) {
+				pos += writeFully(pack, buf, pos);
+			}
+		}
+		pos += writeFully(pack, buf, pos);
+
+		for (Record r : records) {
+			if (buf.remaining() < r.name.length) {
+				pos += writeFully(pack, buf, pos);
+			}
+			if (r.name.length > buf.capacity()) {
+				pos += writeFully(pack, ByteBuffer.wrap(r.name).position(r.name.length), pos);
+				continue;
+			}
+			buf.put(r.name);
+		}
+		writeFully(pack, buf, pos);
+
+		ByteBuffer header = ByteBuffer.allocate(Pack.HEADER_SIZE);
+		header.put(Pack.MAGIC).putInt(records.size()).putInt(0).putLong(indexOffset).putLong(namesOffset);
+		writeFully(pack, header, 0);
+	}
+
+	/**
+	 * Writes what was put in a buffer to a position of the pack and clears
+	 * the buffer
+	 * Called by: writeIndex()
+	 *     Calls: FileChannel.write()
+	 * @param pack - channel of pack
+	 * @param buf - buffer being filled
+	 * @param pos - position to write at
+	 * @return - byte count written
+	 * @throws IOException - if the pack fails to be written
+	 */
+	private static int writeFully(FileChannel pack, ByteBuffer buf, long pos) throws IOException {
+		buf.flip();
+		int n = buf.remaining();
+		while (buf.hasRemaining()) {
+			pos += pack.write(buf, pos);
+		}
+		buf.clear();
+		return n;
+	}
+
+	/**
+	 * Main function used to run the builder
+	 * @param args - command line arguments
+	 */
+	public static void main(String[] args) {
+		PackBuilder builder = null;
+		try {
+			builder = new PackBuilder("PackBuilder",
+					"Bundles the files of a directory into one pack file that WebSrv serves "
+					+ "with the --pack option",
+					"java webapps.PackBuilder [options] <directory>");
+
+			builder.parseOptions(args);
+
+			if (builder.getHelp()) {
+				builder.printHelp();
+				System.exit(0);
+			}
+
+			builder.checkParams();
+		}
+		catch (OptionException e) {
+			printError(e.getMessage());
+			System.exit(1);
+		}
+
+		try {
+			int count = builder.run();
+			System.out.println("Packed " + count + " files into " + builder.outOpt.getValue());
+		}
+		catch (IOException e) {
+			printError("failed to build pack: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+}
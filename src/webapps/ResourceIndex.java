@@ -0,0 +1,223 @@
+package webapps;
+/**
+ * Name: ResourceIndex.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that maps every resource served by WebSrv to the file
+ *              it is read from so finding a file is one hash lookup instead
+ *              of a stat of each served directory. The index is built by
+ *              walking the directories at start, a file in an earlier
+ *              directory hides a file with the same path in a later one just
+ *              as searching them in order does. DirWatcher keeps the index
+ *              current as files are created, changed and deleted.
+ *
+ * Implements: DirWatcher.Listener
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class definition
+ */
+public class ResourceIndex implements DirWatcher.Listener {
+	List<File> dirs; // directories in order of precedence
+	volatile ConcurrentHashMap<String, Resource> resources; // file of each resource
+
+	/**
+	 * Class that holds the file a resource is read from
+	 */
+	public static class Resource {
+		File file; // file resource is read from
+		boolean readable; // indicates server can read file
+
+		/**
+		 * Class constructor
+		 * Called by: ResourceIndex.resolve()
+		 * @param file - file resource is read from
+		 * @param readable - indicates server can read file
+		 */
+		public Resource(File file, boolean readable) {
+			this.file = file;
+			this.readable = readable;
+		}
+	}
+
+	/**
+	 * Class constructor that builds the index
+	 * Called by: WebSrv.start()
+	 *     Calls: build()
+	 * @param dirs - directories in order of precedence
+	 */
+	public ResourceIndex(List<File> dirs) {
+		this.dirs = dirs;
+		resources = build();
+	}
+
+	/**
+	 * Gets the file of a resource
+	 * Called by: WebSrvThread.serve()
+	 *     Calls: DirWatcher.normalize(), ConcurrentHashMap.get()
+	 * @param resource - requested resource
+	 * @return - file of resource or null if there is none
+	 */
+	public Resource get(String resource) {
+		String key = DirWatcher.normalize(resource);
+		if (key == null) {
+			return null;
+		}
+		return resources.get(key);
+	}
+
+	/**
+	 * Gets number of resources indexed
+	 * Called by: WebSrv.printStartMessage()
+	 *     Calls: ConcurrentHashMap.size()
+	 * @return - number of resources
+	 */
+	public int size() {
+		return resources.size();
+	}
+
+	/**
+	 * Walks every directory and indexes its files, files of earlier
+	 * directories take precedence
+	 * Called by: ResourceIndex(), changedAll()
+	 *     Calls: walk(), resolve()
+	 * @return - new index
+	 */
+	private ConcurrentHashMap<String, Resource> build() {
+		ConcurrentHashMap<String, Resource> index = new ConcurrentHashMap<String, Resource>();
+		for (File dir : dirs) {
+			Path root = dir.toPath().toAbsolutePath().normalize();
+			for (String key : walk(root, root)) {
+				if (!index.containsKey(key)) {
+					Resource r = resolve(key);
+					if (r != null) {
+						index.put(key, r);
+					}
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the resource path of every regular file below a path
+	 * Called by: build(), changed(), NegativeCache
+	 *     Calls: Files.walkFileTree(), DirWatcher.getResource()
+	 * @param root - root directory of path
+	 * @param path - file or directory to walk
+	 * @return - resource paths found
+	 */
+	static Set<String> walk(Path root, Path path) {
+		Set<String> found = new HashSet<String>();
+		if (!Files.exists(path)) {
+			return found;
+		}
+		try {
+			Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile()) {
+						found.add(DirWatcher.getResource(root, file));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					// unreadable entry or link loop, skip it
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to index: " + path);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the file of a resource by searching the directories in order
+	 * Called by: build(), changed()
+	 *     Calls: File(), File.isFile(), File.canRead()
+	 * @param key - normalized resource path
+	 * @return - file of resource or null if no directory has it
+	 */
+	private Resource resolve(String key) {
+		for (File dir : dirs) {
+			File file = new File(dir, key);
+			if (file.isFile()) {
+				return new Resource(file, file.canRead());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Updates the index for a changed resource. If the resource is a
+	 * directory or was one every resource below it is updated
+	 * Called by: DirWatcher.run()
+	 *     Calls: resolve(), walk(), ConcurrentHashMap.put(), ConcurrentHashMap.remove()
+	 * @param resource - path of resource that changed
+	 */
+	@Override
+	public void changed(String resource) {
+		ConcurrentHashMap<String, Resource> index = resources;
+		Set<String> keys = new HashSet<String>();
+		keys.add(resource);
+
+		// a file only affects its own entry
+		Resource r = resolve(resource);
+		if (r == null && !index.containsKey(resource)) {
+			// directory was created, deleted or moved
+			String prefix = resource.endsWith("/") ? resource : resource + "/";
+			for (String key : index.keySet()) {
+				if (key.startsWith(prefix)) {
+					keys.add(key);
+				}
+			}
+			for (File dir : dirs) {
+				Path root = dir.toPath().toAbsolutePath().normalize();
+				keys.addAll(walk(root, root.resolve(resource.substring(1))));
+			}
+		}
+
+		for (String key : keys) {
+			r = resolve(key);
+			if (r == null) {
+				index.remove(key);
+			}
+			else {
+				index.put(key, r);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the index when changes were lost
+	 * Called by: DirWatcher.run()
+	 *     Calls: build()
+	 */
+	@Override
+	public void changedAll() {
+		resources = build();
+	}
+}
@@ -0,0 +1,150 @@
+package webapps;
+/**
+ * Name: SlabAllocator.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that hands out fixed size pages of direct memory for
+ *              the DirectFileCache. Memory is allocated in large slabs
+ *              outside the heap as it is needed, up to a byte budget, and is
+ *              never returned to the JVM. Pages that are freed are kept on a
+ *              free list and reused, so the garbage collector never sees the
+ *              content held in them.
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Class definition
+ */
+public class SlabAllocator {
+	int pageSize; // bytes in each page
+	int pagesPerSlab; // pages carved from each slab
+	int maxSlabs; // slabs that fit in the budget
+	ArrayList<ByteBuffer> slabs; // direct memory allocated so far
+	int[] free; // stack of free page numbers
+	int freeCount; // number of free pages on stack
+	boolean exhausted; // direct memory ran out before budget was reached
+
+	/**
+	 * Class constructor, no memory is allocated until pages are needed
+	 * Called by: DirectFileCache()
+	 *     Calls: ArrayList()
+	 * @param budget - maximum bytes of direct memory used
+	 * @param pageSize - bytes in each page
+	 * @param slabSize - bytes allocated at a time, a multiple of pageSize
+	 */
+	public SlabAllocator(long budget, int pageSize, int slabSize) {
+		this.pageSize = pageSize;
+		pagesPerSlab = Math.max(1, slabSize / pageSize);
+		long slabBytes = (long)pagesPerSlab * pageSize;
+		maxSlabs = (int)Math.max(1, Math.min(budget / slabBytes, Integer.MAX_VALUE / pagesPerSlab));
+		slabs = new ArrayList<ByteBuffer>();
+		free = new int[0];
+	}
+
+	/**
+	 * Gets number of pages needed to hold a byte count
+	 * Called by: DirectFileCache.read()
+	 *     Calls: none
+	 * @param bytes - byte count
+	 * @return - number of pages
+	 */
+	public int pagesFor(long bytes) {
+		return (int)Math.max(1, (bytes + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * Gets total bytes the allocator may hand out
+	 * Called by: DirectFileCache()
+	 *     Calls: none
+	 * @return - byte count
+	 */
+	public long capacity() {
+		return (long)maxSlabs * pagesPerSlab * pageSize;
+	}
+
+	/**
+	 * Allocates pages, adding slabs while the budget allows
+	 * Called by: DirectFileCache.read()
+	 *     Calls: addSlab()
+	 * @param count - number of pages
+	 * @return - page numbers or null if not enough pages are free
+	 */
+	public synchronized int[] allocate(int count) {
+		while (freeCount < count && slabs.size() < maxSlabs && !exhausted) {
+			addSlab();
+		}
+		if (freeCount < count) {
+			return null;
+		}
+		int[] pages = new int[count];
+		for (int i = 0; i < count; i++) {
+			pages[i] = free[--freeCount];
+		}
+		return pages;
+	}
+
+	/**
+	 * Returns pages to the free list
+	 * Called by: DirectFileCache.DirectEntry.release()
+	 *     Calls: none
+	 * @param pages - page numbers to free
+	 */
+	public synchronized void free(int[] pages) {
+		for (int p : pages) {
+			free[freeCount++] = p;
+		}
+	}
+
+	/**
+	 * Gets a view of a page with its own position and limit
+	 * Called by: DirectFileCache
+	 *     Calls: ByteBuffer.duplicate(), ByteBuffer.slice()
+	 * @param page - page number
+	 * @return - buffer over page
+	 */
+	public ByteBuffer page(int page) {
+		ByteBuffer slab;
+		synchronized (this) {
+			slab = slabs.get(page / pagesPerSlab);
+		}
+		ByteBuffer buf = slab.duplicate();
+		int offset = (page % pagesPerSlab) * pageSize;
+		buf.position(offset);
+		buf.limit(offset + pageSize);
+		return buf.slice();
+	}
+
+	/**
+	 * Allocates a slab of direct memory and puts its pages on the free
+	 * list, stops growing if the JVM's direct memory limit is reached
+	 * Called by: allocate()
+	 *     Calls: ByteBuffer.allocateDirect()
+	 */
+	private void addSlab() {
+		ByteBuffer slab;
+		try {
+			slab = ByteBuffer.allocateDirect(pagesPerSlab * pageSize);
+		}
+		catch (OutOfMemoryError e) {
+			exhausted = true;
+			Srv.errorLog.warning("direct memory limit reached at " + slabs.size()
+					+ " slabs, raise -XX:MaxDirectMemorySize to use the full cache");
+			return;
+		}
+		int first = slabs.size() * pagesPerSlab;
+		slabs.add(slab);
+
+		int[] grown = new int[slabs.size() * pagesPerSlab];
+		System.arraycopy(free, 0, grown, 0, freeCount);
+		free = grown;
+		for (int i = pagesPerSlab - 1; i >= 0; i--) {
+			free[freeCount++] = first + i;
+		}
+	}
+}
@@ -15,10 +15,20 @@ package webapps;
 
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.StreamHandler;
@@ -34,14 +44,24 @@ import webapps.Option.OptionInt;
 public abstract class Srv extends Main {
 	OptionInt portOpt; // listen port option
 	OptionBool debugOpt; // print debug logs
+	OptionBool nioOpt; // wait on connections with selector event loops
+	OptionBool virtualOpt; // run each connection on a virtual thread
+	OptionInt workersOpt; // maximum number of worker threads, 0 is unbounded
+	OptionInt queueOpt; // connections waiting for a worker before shedding
+	OptionInt listenersOpt; // number of listeners sharing the port
 	Level debug; // sets debug level for threads
-	ServerSocket sockSrv; // defines socket server listens on
+	SrvListener[] listeners; // listening channels of server
 	ExecutorService threads; // handles thread execution
+	SrvLoop[] loops; // selector event loops used in nio mode
+	AtomicInteger nextLoop; // index of loop to receive next accepted connection
+	byte[] unavailable; // pre-built response sent when workers are full
 	
 	//logs for threads
 	static Logger accessLog = Logger.getLogger("tma1.websrv.log.access");
 	static Logger errorLog = Logger.getLogger("tma1.websrv.log.error");
 	static final Level DEFAULT_LEVEL = Level.FINE;
+	static final int RETRY_AFTER = 1; // seconds sent to shed clients
+	static final int REPORT_INTERVAL = 10; // seconds between reports
 	
 	/**
 	 * Static block sets up properties for logging
@@ -61,19 +81,13 @@ public abstract class Srv extends Main {
 	/**
 	 * Constructor of WebSrv initiates options and directories
 	 * Called By: None
-	 *     Calls: super(), OptionInt(), Executors.newCachedThreadPool(), Vector<File>()
+	 *     Calls: super(), initOptions()
 	 */
 	public Srv() throws OptionException {
 		super();
 		
-		//initialize debug option
-		debugOpt = new OptionBool("d", "Allow debug messages to be printed to error log");
-
-		//add options
-		addOption(debugOpt);
-		
-		//initialize thread pool
-		threads = Executors.newCachedThreadPool();
+		//initialize options
+		initOptions();
 
 		debug = DEFAULT_LEVEL;
 	}
@@ -81,7 +95,7 @@ public abstract class Srv extends Main {
 	/**
 	 * Constructor of WebSrv initiates options and directories
 	 * Called By: main()
-	 *     Calls: super(String, String), OptionInt(), Executors.newCachedThreadPool(), Vector<File>()
+	 *     Calls: super(String, String), initOptions()
 	 * @param name - name of program
 	 * @param desc - description of program
 	 * @param usage - usage syntax of program
@@ -89,17 +103,47 @@ public abstract class Srv extends Main {
 	public Srv(String name, String desc, String usage) throws OptionException {
 		super(name, desc, usage);
 		
+		//initialize options
+		initOptions();
+		
+		// initialize debug level
+		debug = DEFAULT_LEVEL;
+	}
+
+	/**
+	 * Initializes options shared by all servers and adds them
+	 * Called By: Srv()
+	 *     Calls: OptionBool(), OptionInt(), Main.addOption()
+	 */
+	private void initOptions() throws OptionException {
 		//initialize debug option
 		debugOpt = new OptionBool("d", "Allow debug messages to be printed to error log");
 		
-		//add options
-		addOption(debugOpt);
+		//initialize nio option
+		nioOpt = new OptionBool("nio", "Wait on connections with one selector event loop per core "
+				+ "instead of accepting with a blocking loop");
 		
-		//initialize thread pool
-		threads = Executors.newCachedThreadPool();
+		//initialize virtual thread option
+		virtualOpt = new OptionBool("virtual", "Handle each connection on a virtual thread "
+				+ "instead of a thread pool, requires JDK 21 or newer");
 		
-		// initialize debug level
-		debug = DEFAULT_LEVEL;
+		//initialize worker pool options
+		workersOpt = new OptionInt("workers", "Maximum number of worker threads, connections "
+				+ "beyond workers and queue are answered with 503, default: 0 (unbounded)", "0");
+		queueOpt = new OptionInt("queue", "Number of connections that may wait for a worker "
+				+ "when workers is set, default: 0", "0");
+		
+		//initialize listeners option
+		listenersOpt = new OptionInt("listeners", "Number of listeners opened on the port with "
+				+ "SO_REUSEPORT, each with its own acceptor and workers, default: 1", "1");
+		
+		//add options
+		addOption(debugOpt);
+		addOption(nioOpt);
+		addOption(virtualOpt);
+		addOption(workersOpt);
+		addOption(queueOpt);
+		addOption(listenersOpt);
 	}
 
 	/**
@@ -130,36 +174,324 @@ public abstract class Srv extends Main {
 		if (opt.equals(debugOpt) && ((OptionBool)opt).getValue()) {
 			debug = Level.INFO;
 		}
+		
+		if (opt.equals(virtualOpt) && getVirtualExecutor() == null) {
+			throw new OptionException("virtual threads are not supported by this JVM, "
+					+ "JDK 21 or newer is required");
+		}
+		
+		if ((opt.equals(workersOpt) || opt.equals(queueOpt)) && ((OptionInt)opt).getValue() < 0) {
+			throw new OptionException(name + " must not be negative");
+		}
+		
+		if (opt.equals(listenersOpt) && ((OptionInt)opt).getValue() < 1) {
+			throw new OptionException(name + " must be at least 1");
+		}
+	}
+
+	/**
+	 * Creates executor that handles connections. If workers option is set a
+	 * bounded pool with a bounded queue is used which rejects connections
+	 * once both are full, otherwise falls back to newTaskExecutor()
+	 * Called by: start()
+	 *     Calls: ThreadPoolExecutor(), ArrayBlockingQueue(), SynchronousQueue(),
+	 *            newTaskExecutor()
+	 * @return - executor for connection threads
+	 */
+	protected ExecutorService newWorkerExecutor() {
+		int workers = workersOpt.getValue();
+		if (workers == 0 || virtualOpt.getValue()) {
+			return newTaskExecutor();
+		}
+		
+		// hand off directly to a worker when no queue is wanted
+		int depth = queueOpt.getValue();
+		BlockingQueue<Runnable> queue = depth > 0 
+				? new ArrayBlockingQueue<Runnable>(depth) 
+				: new SynchronousQueue<Runnable>();
+		
+		// abort policy raises RejectedExecutionException when full
+		return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, queue,
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Creates executor used to run connection threads. Uses a new virtual
+	 * thread for each task if virtual option is set otherwise a cached
+	 * thread pool is used
+	 * Called by: newWorkerExecutor(), WebProxSrv.start()
+	 *     Calls: getVirtualExecutor(), Executors.newCachedThreadPool()
+	 * @return - executor for connection threads
+	 */
+	protected ExecutorService newTaskExecutor() {
+		if (virtualOpt.getValue()) {
+			return getVirtualExecutor();
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Gets a virtual thread per task executor. Looked up by reflection since
+	 * the project is built against JDK 11 where virtual threads do not exist
+	 * Called by: setOption(), newTaskExecutor()
+	 *     Calls: Class.getMethod(), Method.invoke()
+	 * @return - executor or null if JVM does not support virtual threads
+	 */
+	static ExecutorService getVirtualExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
 	}
 
 	/**
 	 * Starts the server listening on socket for requests
+	 * Called by: WebSrv.main(), WebProxSrv.main()
+	 *     Calls: newWorkerExecutor(), HttpRespSrv.buildUnavailable(), openListeners(),
+	 *            startLoops(), printStartMessage(), serve()
 	 * @throws IOException
 	 */
 	public void start() throws IOException {
-		sockSrv = new ServerSocket(portOpt.getValue());
+		// initialize executor for connection threads
+		threads = newWorkerExecutor();
+		unavailable = HttpRespSrv.buildUnavailable(name == null ? "Srv" : name, RETRY_AFTER);
+		
+		openListeners();
+		
+		if (nioOpt.getValue()) {
+			startLoops();
+			return;
+		}
 		printStartMessage();
 		serve();
 	}
 
 	/**
-	 * Places server into infinite loop serving requests
+	 * Opens the listeners of the server. The first listener uses the server's
+	 * executor, any other listener gets its own workers unless connections
+	 * are handed off by the event loops which share the server's executor.
+	 * A single listener without event loops accepts on a plain socket if
+	 * the server asks for one
+	 * Called by: start(), Test
+	 *     Calls: SrvListener(), plainSockets(), newWorkerExecutor()
+	 * @throws IOException - if a listener fails to open
+	 */
+	void openListeners() throws IOException {
+		int count = listenersOpt.getValue();
+		boolean plain = count == 1 && !nioOpt.getValue() && plainSockets();
+		listeners = new SrvListener[count];
+		for (int i = 0; i < count; i++) {
+			boolean shared = i == 0 || nioOpt.getValue();
+			listeners[i] = new SrvListener(this, i, portOpt.getValue(), count > 1, plain,
+					shared ? threads : newWorkerExecutor());
+		}
+	}
+
+	/**
+	 * Indicates the listener accepts on a plain socket rather than a channel,
+	 * overridden by servers whose threads read and write one connection at
+	 * the same time
+	 * Called by: openListeners()
+	 *     Calls: none
+	 * @return - false, sockets are accepted with channels
+	 */
+	protected boolean plainSockets() {
+		return false;
+	}
+
+	/**
+	 * Starts the server waiting on connections with one selector event loop
+	 * per core. Listeners are spread across the loops and the first loop runs
+	 * on the calling thread.
 	 * Called by: start()
-	 *     Calls: SocketServer.accept(), ExecutorServer.submit()
+	 *     Calls: SrvLoop(), SrvLoop.listen(), Executors.newFixedThreadPool(),
+	 *            startReports(), SrvLoop.run()
+	 * @throws IOException - if selectors fail to open
+	 */
+	public void startLoops() throws IOException {
+		// create one loop per core
+		loops = new SrvLoop[Runtime.getRuntime().availableProcessors()];
+		nextLoop = new AtomicInteger();
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new SrvLoop(this);
+		}
+		for (int i = 0; i < listeners.length; i++) {
+			loops[i % loops.length].listen(listeners[i]);
+		}
+		
+		printStartMessage();
+		startReports();
+		
+		// run remaining loops on their own threads
+		ExecutorService loopThreads = Executors.newFixedThreadPool(loops.length);
+		for (int i = 1; i < loops.length; i++) {
+			loopThreads.submit(loops[i]);
+		}
+		loops[0].run();
+	}
+
+	/**
+	 * Gets the next event loop to hand an accepted connection to
+	 * Called by: SrvLoop.accept()
+	 *     Calls: AtomicInteger.getAndIncrement()
+	 * @return - event loop
+	 */
+	SrvLoop nextLoop() {
+		return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+	}
+
+	/**
+	 * Places server into infinite loop serving requests. Each listener
+	 * other than the first accepts on its own thread
+	 * Called by: start()
+	 *     Calls: Thread(), startReports(), SrvListener.run()
 	 */
 	public void serve() {
-		while(true) {
+		for (int i = 1; i < listeners.length; i++) {
+			new Thread(listeners[i], "listener-" + i).start();
+		}
+		startReports();
+		listeners[0].run();
+	}
+
+	/**
+	 * Schedules the reports of the server to be logged when it has any
+	 * Called by: serve(), startLoops()
+	 *     Calls: hasReports(), Executors.newSingleThreadScheduledExecutor(), 
+	 *            ScheduledExecutorService.scheduleAtFixedRate(), report()
+	 */
+	private void startReports() {
+		if (!hasReports()) {
+			return;
+		}
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "report");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleAtFixedRate(this::report, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Indicates the server has something to report, the accept rate of
+	 * each listener is reported when the port is shared by more than one
+	 * Called by: startReports()
+	 *     Calls: none
+	 * @return - true if reports are logged
+	 */
+	boolean hasReports() {
+		return listeners.length > 1;
+	}
+
+	/**
+	 * Logs the accept rate of each listener since the last report
+	 * Called by: startReports()
+	 *     Calls: SrvListener.report(), Logger.info()
+	 */
+	void report() {
+		if (listeners.length < 2) {
+			return;
+		}
+		for (SrvListener l : listeners) {
+			errorLog.info(l.report(REPORT_INTERVAL));
+		}
+	}
+
+	/**
+	 * Hands socket with request bytes waiting to the server's executor
+	 * Called by: SrvLoop.handOff()
+	 *     Calls: getThread(Socket, int), submit()
+	 * @param sock - socket used for communications
+	 * @param served - requests already served on connection
+	 */
+	public void dispatch(Socket sock, int served) {
+		submit(sock, getThread(sock, served), threads);
+	}
+
+	/**
+	 * Creates thread for socket and submits it for processing
+	 * Called by: SrvListener.run()
+	 *     Calls: getThread(), submit()
+	 * @param sock - socket used for communications
+	 * @param threads - executor to submit thread to
+	 */
+	public void dispatch(Socket sock, ExecutorService threads) {
+		submit(sock, getThread(sock), threads);
+	}
+
+	/**
+	 * Submits thread of socket for processing. If the workers are full the
+	 * connection is shed instead
+	 * Called by: dispatch()
+	 *     Calls: ExecutorService.submit(), shed()
+	 * @param sock - socket used for communications
+	 * @param thread - thread handling socket
+	 * @param threads - executor to submit thread to
+	 */
+	private void submit(Socket sock, Thread thread, ExecutorService threads) {
+		// submit thread for processing
+		try {
+			threads.submit(thread);
+		}
+		catch (RejectedExecutionException e) {
+			shed(sock);
+		}
+	}
+
+	/**
+	 * Hands an idle kept alive connection back to an event loop to wait for
+	 * its next request so no thread is held while it is idle. Only done in
+	 * nio mode where connections are channels
+	 * Called by: WebSrvThread.run()
+	 *     Calls: Socket.getChannel(), nextLoop(), SrvLoop.register()
+	 * @param sock - idle connection with no request bytes buffered
+	 * @param served - requests already served on connection
+	 * @param idle - seconds connection may stay idle
+	 * @return - true if connection was handed to a loop
+	 */
+	boolean park(Socket sock, int served, int idle) {
+		if (loops == null || sock.getChannel() == null) {
+			return false;
+		}
+		nextLoop().register(sock.getChannel(), served, idle);
+		return true;
+	}
+
+	/**
+	 * Writes the pre-built 503 response to socket and closes it from the
+	 * calling thread. Any request bytes already received are discarded first
+	 * so closing does not reset the connection before the client reads the
+	 * response
+	 * Called by: submit()
+	 *     Calls: Socket.getInputStream(), InputStream.skip(), HttpRespSrv.writeUnavailable(),
+	 *            Socket.close()
+	 * @param sock - socket to shed
+	 */
+	protected void shed(Socket sock) {
+		errorLog.log(debug, "shedding connection from: " + 
+				sock.getInetAddress().getHostAddress());
+		try {
+			InputStream in = sock.getInputStream();
+			in.skip(in.available());
+			
+			OutputStream out = sock.getOutputStream();
+			HttpRespSrv.writeUnavailable(out, unavailable);
+			out.flush();
+			sock.shutdownOutput();
+		}
+		catch (IOException e) {
+			errorLog.warning("failed writing unavailable response to client: " + 
+					sock.getInetAddress().getHostAddress());
+		}
+		finally {
 			try {
-				Socket sock = sockSrv.accept(); // listen on socket, blocks
-				
-				// creates new thread
-				Thread thread = getThread(sock);
-				
-				// submit thread for processing
-				threads.submit(thread);
+				sock.close();
 			}
 			catch (IOException e) {
-				errorLog.warning("failed to process socket");
+				errorLog.warning("failed to close socket");
 			}
 		}
 	}
@@ -170,6 +502,19 @@ public abstract class Srv extends Main {
 	 * @return - returns thread to be submitted into processor
 	 */
 	public abstract Thread getThread(Socket sock);
+
+	/**
+	 * Gets thread for a connection resumed by an event loop, servers that
+	 * do not keep connections alive ignore the requests already served
+	 * Called by: dispatch(Socket, int)
+	 *     Calls: getThread(Socket)
+	 * @param sock - socket used for communications
+	 * @param served - requests already served on connection
+	 * @return - returns thread to be submitted into processor
+	 */
+	public Thread getThread(Socket sock, int served) {
+		return getThread(sock);
+	}
 	
 	/**
 	 * Print start message for server providing basic info
@@ -0,0 +1,136 @@
+package webapps;
+/**
+ * Name: SrvListener.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that owns one listening channel of a Srv together with
+ *              the workers that handle connections accepted from it. When a
+ *              server opens several listeners on the same port with
+ *              SO_REUSEPORT the kernel spreads new connections across them,
+ *              so each listener runs its own accept loop. Counts accepted
+ *              connections so the accept rate can be reported per listener.
+ *              Listeners accept on a channel so the sockets handed to the
+ *              workers have channels to send files through. A server whose
+ *              threads read and write one connection at the same time asks
+ *              for a plain ServerSocket instead, the sockets of a channel
+ *              share one lock between their streams before JDK 13 so a
+ *              thread blocked reading one blocks writes to it from another.
+ *
+ * Implements: Runnable
+ */
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class definition
+ */
+public class SrvListener implements Runnable {
+	Srv srv; // server that owns listener
+	int id; // index of listener, used in logs
+	ServerSocketChannel chan; // channel listener accepts on, null if a plain socket is used
+	ServerSocket sockSrv; // plain socket listener accepts on, null if a channel is used
+	ExecutorService threads; // workers handling connections of this listener
+	AtomicLong accepts; // connections accepted since start
+	long reported; // accepts at time of last report
+
+	/**
+	 * Class constructor that opens and binds the listening socket. A
+	 * channel is opened unless a plain socket is asked for, SO_REUSEPORT is
+	 * set when the port is shared with other listeners
+	 * Called by: Srv.openListeners()
+	 *     Calls: ServerSocket(), ServerSocketChannel.open(), ServerSocketChannel.setOption(),
+	 *            ServerSocketChannel.bind()
+	 * @param srv - server that owns listener
+	 * @param id - index of listener
+	 * @param port - port to listen on
+	 * @param shared - indicates port is shared with other listeners
+	 * @param plain - indicates a plain socket is used instead of a channel
+	 * @param threads - workers handling connections of this listener
+	 * @throws IOException - if socket fails to bind or SO_REUSEPORT is not supported
+	 */
+	public SrvListener(Srv srv, int id, int port, boolean shared, boolean plain,
+			ExecutorService threads) throws IOException {
+		this.srv = srv;
+		this.id = id;
+		this.threads = threads;
+		accepts = new AtomicLong();
+
+		if (plain) {
+			sockSrv = new ServerSocket(port);
+			return;
+		}
+		chan = ServerSocketChannel.open();
+		if (shared) {
+			if (!chan.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+				chan.close();
+				throw new IOException("SO_REUSEPORT is not supported on this platform");
+			}
+			chan.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+		}
+		chan.bind(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Places listener into infinite loop accepting connections and handing
+	 * them to its workers
+	 * Called by: Srv.serve()
+	 *     Calls: accept(), Srv.dispatch()
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Socket cli = accept(); // listen on socket or channel, blocks
+				accepts.incrementAndGet();
+
+				// hand socket to thread
+				srv.dispatch(cli, threads);
+			}
+			catch (IOException e) {
+				Srv.errorLog.warning("failed to process socket");
+			}
+		}
+	}
+
+	/**
+	 * Accepts the next connection on the socket or channel of the listener
+	 * Called by: run(), Test
+	 *     Calls: ServerSocket.accept(), ServerSocketChannel.accept()
+	 * @return - socket of accepted connection
+	 * @throws IOException - if accepting fails
+	 */
+	Socket accept() throws IOException {
+		if (sockSrv != null) {
+			return sockSrv.accept();
+		}
+		SocketChannel c = chan.accept();
+		return c.socket();
+	}
+
+	/**
+	 * Builds report of connections accepted since last report
+	 * Called by: Srv.report()
+	 *     Calls: AtomicLong.get()
+	 * @param seconds - seconds since last report
+	 * @return - report string
+	 */
+	String report(long seconds) {
+		long total = accepts.get();
+		long count = total - reported;
+		reported = total;
+		return "listener " + id + ": " + count + " accepts, "
+				+ (count / Math.max(seconds, 1)) + "/s, " + total + " total";
+	}
+}
@@ -0,0 +1,284 @@
+package webapps;
+/**
+ * Name: SrvLoop.java
+ * Course: COMP 489
+ * Assignment: tma1
+ * Student: Matt MacKay
+ *
+ * Date: Oct. 18, 2026
+ * Description: Class that implements a selector event loop used by Srv when
+ *              running in non-blocking mode. Each loop owns a Selector that
+ *              waits on many idle client connections without holding a thread
+ *              for each of them. Once a connection has request bytes waiting
+ *              it is removed from the selector, switched back to blocking mode
+ *              and passed to the server to be handled by a SrvThread. A loop
+ *              may also own listening channels and accepts new connections
+ *              which are spread across all loops. Kept alive connections are
+ *              handed back to a loop by their SrvThread once idle and closed
+ *              by the loop if no request arrives before their idle timeout.
+ *
+ * Implements: Runnable
+ */
+
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class definition
+ */
+public class SrvLoop implements Runnable {
+	static final int SWEEP_INTERVAL = 1000; // milliseconds between checks for idle connections
+
+	Srv srv; // server that handles ready connections
+	Selector selector; // selector waiting on connections
+	ConcurrentLinkedQueue<Conn> pending; // connections waiting to be registered
+	ArrayList<Conn> ready; // connections ready to be handed to server
+	long swept; // time of last check for idle connections in nanoseconds
+
+	/**
+	 * Class that holds a connection waited on by the loop
+	 */
+	static class Conn {
+		SocketChannel chan; // client connection
+		int served; // requests already served on connection
+		long deadline; // time connection is closed if still idle in nanoseconds, 0 if never
+
+		/**
+		 * Class constructor
+		 * Called by: SrvLoop.register()
+		 *     Calls: none
+		 * @param chan - client connection
+		 * @param served - requests already served on connection
+		 * @param deadline - time connection is closed if still idle, 0 if never
+		 */
+		Conn(SocketChannel chan, int served, long deadline) {
+			this.chan = chan;
+			this.served = served;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Class constructor that opens the selector for the loop
+	 * Called by: Srv.startLoops()
+	 *     Calls: Selector.open(), ConcurrentLinkedQueue(), ArrayList()
+	 * @param srv - server that handles ready connections
+	 * @throws IOException - if selector fails to open
+	 */
+	public SrvLoop(Srv srv) throws IOException {
+		this.srv = srv;
+		selector = Selector.open();
+		pending = new ConcurrentLinkedQueue<Conn>();
+		ready = new ArrayList<Conn>();
+		swept = System.nanoTime();
+	}
+
+	/**
+	 * Registers the channel of a listener with the loop so that the loop
+	 * accepts new connections for it
+	 * Called by: Srv.startLoops()
+	 *     Calls: ServerSocketChannel.configureBlocking(), ServerSocketChannel.register()
+	 * @param listener - listener whose channel is accepted on
+	 * @throws IOException - if channel fails to register
+	 */
+	public void listen(SrvListener listener) throws IOException {
+		listener.chan.configureBlocking(false);
+		listener.chan.register(selector, SelectionKey.OP_ACCEPT, listener);
+	}
+
+	/**
+	 * Queues connection to be registered with this loop's selector, can
+	 * be called from any thread
+	 * Called by: this.accept()
+	 *     Calls: register(SocketChannel, int, int)
+	 * @param chan - client connection to wait on
+	 */
+	public void register(SocketChannel chan) {
+		register(chan, 0, 0);
+	}
+
+	/**
+	 * Queues a kept alive connection to be registered with this loop's
+	 * selector, the connection is closed if no request arrives before its
+	 * idle timeout. Can be called from any thread
+	 * Called by: register(SocketChannel), Srv.park()
+	 *     Calls: System.nanoTime(), ConcurrentLinkedQueue.add(), Selector.wakeup()
+	 * @param chan - client connection to wait on
+	 * @param served - requests already served on connection
+	 * @param idle - seconds connection may stay idle, 0 waits forever
+	 */
+	public void register(SocketChannel chan, int served, int idle) {
+		long deadline = idle > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(idle) : 0;
+		pending.add(new Conn(chan, served, deadline));
+		selector.wakeup();
+	}
+
+	/**
+	 * Loops forever waiting on selector for new connections and for
+	 * connections that have request bytes ready to be read. Wakes at least
+	 * every SWEEP_INTERVAL to close connections idle too long
+	 * Called by: Srv.startLoops()
+	 *     Calls: Selector.select(), accept(), handOff(), registerPending(),
+	 *            closeIdle()
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select(SWEEP_INTERVAL);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept((SrvListener)key.attachment());
+					}
+					else if (key.isReadable()) {
+						// request bytes waiting, stop watching connection
+						key.cancel();
+						ready.add((Conn)key.attachment());
+					}
+				}
+
+				// pass ready connections to server
+				handOff();
+
+				// register connections queued by other threads, done after
+				// handOff() since selectNow() clears any pending wakeup
+				registerPending();
+
+				closeIdle();
+			}
+			catch (IOException e) {
+				Srv.errorLog.warning("event loop failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Accepts all waiting connections from listener's channel and passes
+	 * each to the next loop of the server
+	 * Called by: run()
+	 *     Calls: ServerSocketChannel.accept(), Srv.nextLoop(), register()
+	 * @param listener - listener with connections waiting
+	 */
+	private void accept(SrvListener listener) {
+		SocketChannel cli;
+		try {
+			while ((cli = listener.chan.accept()) != null) {
+				listener.accepts.incrementAndGet();
+				srv.nextLoop().register(cli);
+			}
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to accept connection");
+		}
+	}
+
+	/**
+	 * Registers all queued connections with the selector for reading
+	 * Called by: run()
+	 *     Calls: SocketChannel.configureBlocking(), SocketChannel.register(),
+	 *            close()
+	 */
+	private void registerPending() {
+		Conn conn;
+		while ((conn = pending.poll()) != null) {
+			SocketChannel chan = conn.chan;
+			try {
+				chan.configureBlocking(false);
+				chan.register(selector, SelectionKey.OP_READ, conn);
+			}
+			catch (ClosedChannelException e) {
+				// client went away while connection was queued
+			}
+			catch (IOException e) {
+				Srv.errorLog.warning("failed to register connection");
+				close(chan);
+			}
+		}
+	}
+
+	/**
+	 * Closes connections that stayed idle past their deadline, checked once
+	 * every SWEEP_INTERVAL
+	 * Called by: run()
+	 *     Calls: System.nanoTime(), Selector.keys(), SelectionKey.cancel(), close()
+	 */
+	private void closeIdle() {
+		long now = System.nanoTime();
+		if (now - swept < TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL)) {
+			return;
+		}
+		swept = now;
+		for (SelectionKey key : selector.keys()) {
+			Object att = key.attachment();
+			if (!key.isValid() || !(att instanceof Conn)) {
+				continue; // listener or already handed off
+			}
+			Conn conn = (Conn)att;
+			if (conn.deadline != 0 && now - conn.deadline > 0) {
+				key.cancel();
+				close(conn.chan);
+			}
+		}
+	}
+
+	/**
+	 * Removes cancelled connections from selector, switches them to blocking
+	 * mode and passes them to the server to be handled
+	 * Called by: run()
+	 *     Calls: Selector.selectNow(), SocketChannel.configureBlocking(),
+	 *            Srv.dispatch(), close()
+	 * @throws IOException - if selector fails
+	 */
+	private void handOff() throws IOException {
+		if (ready.isEmpty()) {
+			return;
+		}
+
+		// cancelled keys are only deregistered on the next selection
+		selector.selectNow();
+
+		for (Conn conn : ready) {
+			try {
+				conn.chan.configureBlocking(true);
+				srv.dispatch(conn.chan.socket(), conn.served);
+			}
+			catch (IOException e) {
+				Srv.errorLog.warning("failed to hand off connection");
+				close(conn.chan);
+			}
+		}
+		ready.clear();
+	}
+
+	/**
+	 * Closes connection ignoring any errors
+	 * Called by: registerPending(), closeIdle(), handOff()
+	 *     Calls: SocketChannel.close()
+	 * @param chan - connection to close
+	 */
+	private void close(SocketChannel chan) {
+		try {
+			chan.close();
+		}
+		catch (IOException e) {
+			Srv.errorLog.warning("failed to close socket");
+		}
+	}
+}
@@ -11,9 +11,26 @@ package webapps;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import webapps.HttpHeader.HttpHeaderException;
+import webapps.HttpReq.HttpException;
 
 public class Test {
 	public static void main(String[] args) {
@@ -244,6 +261,929 @@ public class Test {
 			System.err.println("unknown exception occured");
 			System.exit(1);
 		}
+		
+		System.out.println("Testing parsing pipelined HTTP headers,");
+		StringBuilder pipelinedStr = new StringBuilder();
+		pipelinedStr.append("GET /a.css HTTP/1.1\r\n");
+		pipelinedStr.append("Host: test.org\r\n\r\n");
+		pipelinedStr.append("GET /b.js HTTP/1.1\r\n");
+		pipelinedStr.append("Host: test.org\r\n");
+		pipelinedStr.append("Connection: close\r\n\r\n");
+		InputStream pipelined = new ByteArrayInputStream(pipelinedStr.toString().getBytes());
+		
+		try {
+			HttpHeader pipelinedHeader = new HttpHeader(pipelined);
+			pipelinedHeader.parse();
+			testStringEqual("Test resource of first request", "HttpHeader.getField(\"head2\")", pipelinedHeader.getField("head2"), "/a.css");
+			testNull("Test first request has no connection field", "HttpHeader.getField(\"connection\")", pipelinedHeader.getField("connection"));
+			testBoolEqual("Test second request is buffered", "HttpHeader.buffered() > 0", pipelinedHeader.buffered() > 0, true);
+			pipelinedHeader.parse();
+			testStringEqual("Test resource of second request", "HttpHeader.getField(\"head2\")", pipelinedHeader.getField("head2"), "/b.js");
+			testStringEqual("Test connection of second request", "HttpHeader.getField(\"connection\")", pipelinedHeader.getField("connection"), "close");
+			testIntEqual("Test nothing buffered after both requests", "HttpHeader.buffered()", pipelinedHeader.buffered(), 0);
+			testIntEqual("Test stream is empty after both requests", "InputStream.available()", pipelined.available(), 0);
+		} catch (HttpHeaderException e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+		
+		System.out.println("Testing request bodies,");
+		try {
+			InputStream smuggle = new ByteArrayInputStream(("POST /form HTTP/1.1\r\n"
+					+ "Host: test.org\r\n"
+					+ "Transfer-Encoding: chunked\r\n\r\n"
+					+ "20\r\nGET /admin HTTP/1.1\r\nHost: x\r\n\r\n0\r\n\r\n"
+					+ "GET / HTTP/1.1\r\n"
+					+ "Host: test.org\r\n\r\n").getBytes());
+			HttpReq chunked = new HttpReq(null, new HttpHeader(smuggle));
+			chunked.parse();
+			chunked.skipContent();
+			testBoolEqual("Test chunked request closes connection so its body is not read as a request",
+					"HttpReq.isPersistent()", chunked.isPersistent(), false);
+
+			InputStream framed = new ByteArrayInputStream(("POST /form HTTP/1.1\r\n"
+					+ "Host: test.org\r\n"
+					+ "Content-Length: 4\r\n\r\n"
+					+ "a=bc"
+					+ "GET / HTTP/1.1\r\n"
+					+ "Host: test.org\r\n\r\n").getBytes());
+			HttpHeader framedHeader = new HttpHeader(framed);
+			HttpReq post = new HttpReq(null, framedHeader);
+			post.parse();
+			post.skipContent();
+			testBoolEqual("Test request with length persists", "HttpReq.isPersistent()", post.isPersistent(), true);
+			HttpReq next = new HttpReq(null, framedHeader);
+			next.parse();
+			testStringEqual("Test request after body is read", "HttpReq.getResource()", next.getResource(), "/");
+
+			HttpReq both = new HttpReq(null, new HttpHeader(new ByteArrayInputStream(("POST /form HTTP/1.1\r\n"
+					+ "Host: test.org\r\n"
+					+ "Content-Length: 4\r\n"
+					+ "Transfer-Encoding: chunked\r\n\r\n"
+					+ "0\r\n\r\n").getBytes())));
+			String bothError = null;
+			try {
+				both.parse();
+			}
+			catch (HttpException e) {
+				bothError = e.getMessage();
+			}
+			testStringEqual("Test request with length and transfer coding is rejected", "HttpReq.parse()",
+					bothError, "request has both Content-Length and Transfer-Encoding");
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+		
+		System.out.println("Testing parsing HTTP header fed in partial reads,");
+		byte[] partialBytes = ("GET /c.png HTTP/1.1\r\n"
+				+ "Host:test.org\r\n"
+				+ "If-None-Match:  \"abc\"  \r\n\r\n").getBytes();
+		HttpHeader partial = new HttpHeader(null);
+		
+		try {
+			boolean complete = false;
+			int feeds = 0;
+			for (int i = 0; i < partialBytes.length && !complete; i += 5) {
+				int n = Math.min(5, partialBytes.length - i);
+				complete = partial.feed(ByteBuffer.wrap(partialBytes, i, n));
+				feeds++;
+			}
+			testBoolEqual("Test header is complete after last feed", "HttpHeader.feed()", complete, true);
+			testIntEqual("Test every partial read was needed", "HttpHeader.feed()", feeds, (partialBytes.length + 4) / 5);
+			testStringEqual("Test method value from partial header", "HttpHeader.getField(\"head1\")", partial.getField("head1"), "GET");
+			testStringEqual("Test Host value without space after colon", "HttpHeader.getField(\"host\")", partial.getField("host"), "test.org");
+			testStringEqual("Test If-None-Match value is trimmed", "HttpHeader.getField(\"if-none-match\")", partial.getField("if-none-match"), "\"abc\"");
+			testNull("Test missing field", "HttpHeader.getField(\"range\")", partial.getField("range"));
+		} catch (HttpHeaderException e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing building response header,");
+		try {
+			testStringEqual("Test date is formatted as RFC 1123", "HttpRespHeader.formatDate()",
+					HttpRespHeader.formatDate(ZonedDateTime.of(1994, 11, 6, 8, 49, 37, 0, ZoneOffset.UTC)),
+					"Sun, 06 Nov 1994 08:49:37 GMT");
+			testIntEqual("Test date line is fixed width", "HttpRespHeader.getDateLine()",
+					HttpRespHeader.getDateLine().length, 37);
+
+			HttpRespSrv resp = new HttpRespSrv(null, "Test", 404, "abc");
+			resp.dated = false;
+			resp.setKeepAlive(5, 9);
+			ByteArrayOutputStream respOut = new ByteArrayOutputStream();
+			long headerLength = resp.buildHeader().write(respOut);
+			testStringEqual("Test header built from pre-encoded lines", "HttpRespSrv.buildHeader()",
+					respOut.toString("ISO-8859-1"),
+					"HTTP/1.1 404 Not Found\r\nServer: Test\r\nConnection: keep-alive\r\n"
+					+ "Content-type: text/html\r\nContent-length: 3\r\nKeep-Alive: timeout=5, max=9\r\n\r\n");
+			testIntEqual("Test header byte count", "HttpRespHeader.write()", (int)headerLength, respOut.size());
+
+			respOut.reset();
+			HttpRespSrv.writeUnavailable(respOut, HttpRespSrv.buildUnavailable("Test", 1));
+			String dated = "HTTP/1.1 503 Service Unavailable\r\n"
+					+ new String(HttpRespHeader.getDateLine(), "ISO-8859-1") + "Server: Test\r\n";
+			testStringEqual("Test pre-built 503 is sent with the current date", "HttpRespSrv.writeUnavailable()",
+					respOut.toString("ISO-8859-1").substring(0, dated.length()), dated);
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing file cache,");
+		try {
+			testStringEqual("Test resource path is normalized", "DirWatcher.normalize()",
+					DirWatcher.normalize("//css/./a/../b.css"), "/css/b.css");
+			testNull("Test resource above root is not normalized", "DirWatcher.normalize()",
+					DirWatcher.normalize("/../etc/passwd"));
+
+			File cacheDir = Files.createTempDirectory("webapps-test").toFile();
+			File a = new File(cacheDir, "a.html");
+			File b = new File(cacheDir, "b.html");
+			File c = new File(cacheDir, "c.html");
+			Files.write(a.toPath(), new byte[40]);
+			Files.write(b.toPath(), new byte[40]);
+			Files.write(c.toPath(), new byte[200]);
+
+			FileCache fileCache = new FileCache(200, 100);
+			testNull("Test first request misses", "FileCache.get()", fileCache.get("/a.html"));
+			fileCache.load("/a.html", a);
+			testIntEqual("Test cached body", "FileCache.get()", fileCache.get("/a.html").body.length, 40);
+			fileCache.load("/b.html", b);
+			fileCache.get("/a.html");
+			testNull("Test file over size limit is not cached", "FileCache.load()", fileCache.load("/c.html", c));
+			fileCache.load("/d.html", a);
+			testNull("Test least recently used file is evicted", "FileCache.get()", fileCache.get("/b.html"));
+			testStringEqual("Test recently used file is kept", "FileCache.get()",
+					fileCache.get("/a.html").resource, "/a.html");
+			testIntEqual("Test eviction is counted", "FileCache.evictions", (int)fileCache.evictions.get(), 1);
+			fileCache.changed("/a.html");
+			testNull("Test changed file is dropped", "FileCache.changed()", fileCache.get("/a.html"));
+			testIntEqual("Test hits are counted", "FileCache.hits", (int)fileCache.hits.get(), 3);
+			testIntEqual("Test misses are counted", "FileCache.misses", (int)fileCache.misses.get(), 3);
+
+			a.delete();
+			b.delete();
+			c.delete();
+			cacheDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing resource index,");
+		try {
+			File first = Files.createTempDirectory("webapps-test").toFile();
+			File second = Files.createTempDirectory("webapps-test").toFile();
+			File shared1 = new File(first, "shared.html");
+			File shared2 = new File(second, "shared.html");
+			File sub = new File(second, "sub");
+			File only2 = new File(sub, "only.html");
+			Files.write(shared1.toPath(), new byte[1]);
+			Files.write(shared2.toPath(), new byte[1]);
+			sub.mkdir();
+			Files.write(only2.toPath(), new byte[1]);
+
+			ResourceIndex resIndex = new ResourceIndex(Arrays.asList(first, second));
+			testIntEqual("Test every resource is indexed", "ResourceIndex.size()", resIndex.size(), 2);
+			testStringEqual("Test earlier directory takes precedence", "ResourceIndex.get()",
+					resIndex.get("/shared.html").file.getPath(), shared1.getPath());
+			testStringEqual("Test file below directory is found", "ResourceIndex.get()",
+					resIndex.get("/sub//only.html").file.getPath(), only2.getPath());
+			testNull("Test directory is not a resource", "ResourceIndex.get()", resIndex.get("/sub"));
+
+			shared1.delete();
+			resIndex.changed("/shared.html");
+			testStringEqual("Test deleted file falls back to later directory", "ResourceIndex.changed()",
+					resIndex.get("/shared.html").file.getPath(), shared2.getPath());
+			only2.delete();
+			sub.delete();
+			resIndex.changed("/sub");
+			testNull("Test files of deleted directory are removed", "ResourceIndex.changed()",
+					resIndex.get("/sub/only.html"));
+
+			shared2.delete();
+			first.delete();
+			second.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing negative cache,");
+		try {
+			BloomFilter filter = new BloomFilter(1000, 0.01);
+			for (int i = 0; i < 1000; i++) {
+				filter.add("/file" + i + ".html");
+			}
+			boolean allFound = true;
+			int falsePositives = 0;
+			for (int i = 0; i < 1000; i++) {
+				allFound &= filter.mightContain("/file" + i + ".html");
+				if (filter.mightContain("/other" + i + ".html")) {
+					falsePositives++;
+				}
+			}
+			testBoolEqual("Test added paths are always found", "BloomFilter.mightContain()", allFound, true);
+			testBoolEqual("Test false positive rate is low", "BloomFilter.mightContain()", falsePositives < 50, true);
+
+			File negDir = Files.createTempDirectory("webapps-test").toFile();
+			File exists = new File(negDir, "exists.html");
+			Files.write(exists.toPath(), new byte[1]);
+			NegativeCache negCache = new NegativeCache(Arrays.asList(negDir), 2);
+			testBoolEqual("Test existing resource is searched", "NegativeCache.isMissing()",
+					negCache.isMissing("/exists.html"), false);
+			testBoolEqual("Test unknown resource is missing", "NegativeCache.isMissing()",
+					negCache.isMissing("/nope.html"), true);
+			negCache.addMiss("/exists.html", negCache.getGeneration());
+			testBoolEqual("Test recent miss is missing", "NegativeCache.isMissing()",
+					negCache.isMissing("/exists.html"), true);
+			negCache.changed("/exists.html");
+			testBoolEqual("Test change forgets miss", "NegativeCache.changed()",
+					negCache.isMissing("/exists.html"), false);
+			long staleGen = negCache.getGeneration();
+			File created = new File(negDir, "created.html");
+			Files.write(created.toPath(), new byte[1]);
+			negCache.changed("/created.html");
+			negCache.addMiss("/created.html", staleGen);
+			testBoolEqual("Test miss found before a change is not kept", "NegativeCache.addMiss()",
+					negCache.isMissing("/created.html"), false);
+			testBoolEqual("Test created resource is searched", "NegativeCache.changed()",
+					negCache.isMissing("/created.html"), false);
+
+			exists.delete();
+			created.delete();
+			negDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing mapped file cache,");
+		try {
+			File mapDir = Files.createTempDirectory("webapps-test").toFile();
+			File small = new File(mapDir, "small.bin");
+			File medium = new File(mapDir, "medium.bin");
+			Files.write(small.toPath(), new byte[50]);
+			byte[] mediumBytes = new byte[300];
+			mediumBytes[299] = 7;
+			Files.write(medium.toPath(), mediumBytes);
+
+			MappedFileCache mapCache = new MappedFileCache(100, 1000, 1000);
+			testNull("Test small file is left to file cache", "MappedFileCache.load()",
+					mapCache.load("/small.bin", small));
+			MappedFileCache.Mapping loaded = mapCache.load("/medium.bin", medium);
+			testIntEqual("Test mapping is held by cache and caller", "MappedFileCache.load()",
+					loaded.refs.get(), 2);
+			MappedFileCache.Mapping held = mapCache.get("/medium.bin");
+			testIntEqual("Test each user takes a reference", "MappedFileCache.get()", held.refs.get(), 3);
+			loaded.release();
+			mapCache.changed("/medium.bin");
+			testNull("Test changed file is dropped", "MappedFileCache.changed()", mapCache.get("/medium.bin"));
+			testIntEqual("Test mapping stays readable while held", "MappedFileCache.Mapping.slice()",
+					held.slice().get(299), 7);
+			held.release();
+			testIntEqual("Test last release drops mapping", "MappedFileCache.Mapping.release()", held.refs.get(), 0);
+
+			small.delete();
+			medium.delete();
+			mapDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing slab allocator,");
+		try {
+			SlabAllocator slabs = new SlabAllocator(4096, 1024, 2048);
+			testIntEqual("Test budget is rounded to whole slabs", "SlabAllocator.capacity()",
+					(int)slabs.capacity(), 4096);
+			testIntEqual("Test pages needed are rounded up", "SlabAllocator.pagesFor()",
+					slabs.pagesFor(1025), 2);
+			int[] pages = slabs.allocate(3);
+			testIntEqual("Test pages are allocated", "SlabAllocator.allocate()", pages.length, 3);
+			testNull("Test budget is not exceeded", "SlabAllocator.allocate()", slabs.allocate(2));
+			slabs.free(pages);
+			testIntEqual("Test freed pages are reused", "SlabAllocator.allocate()", slabs.allocate(4).length, 4);
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing direct file cache,");
+		try {
+			File directDir = Files.createTempDirectory("webapps-test").toFile();
+			File big = new File(directDir, "big.bin");
+			byte[] bigBytes = new byte[20000];
+			bigBytes[19999] = 9;
+			Files.write(big.toPath(), bigBytes);
+
+			DirectFileCache direct = new DirectFileCache(64 * 1024, 32 * 1024);
+			FileCache.Entry entry = direct.load("/big.bin", big);
+			testIntEqual("Test length of file is kept", "DirectFileCache.Entry.length()",
+					(int)entry.length(), 20000);
+			ByteBuffer[] body = entry.getBody();
+			ByteBuffer last = body[body.length - 1];
+			testIntEqual("Test file is read into pages", "DirectFileCache.DirectEntry.getBody()",
+					last.get(last.limit() - 1), 9);
+			ByteBuffer entityBuf = entry.getEntity();
+			byte[] entityBytes = new byte[entityBuf.remaining()];
+			entityBuf.get(entityBytes);
+			testStringEqual("Test entity lines are stored with body", "DirectFileCache.DirectEntry.getEntity()",
+					new String(entityBytes), "Content-type: application/octet-stream\r\nContent-length: 20000\r\n");
+			entry.release();
+
+			FileCache.Entry held = direct.get("/big.bin");
+			int freePages = direct.allocator.freeCount;
+			direct.changed("/big.bin");
+			testIntEqual("Test pages are kept while entry is sent", "DirectFileCache.changed()",
+					direct.allocator.freeCount, freePages);
+			held.release();
+			testIntEqual("Test pages are freed on last release", "DirectFileCache.DirectEntry.release()",
+					direct.allocator.freeCount, freePages + 2);
+
+			big.delete();
+			directDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing metadata cache,");
+		try {
+			MetaCache.Meta meta = new MetaCache.Meta("/a.html", 6, 1000500);
+			testStringEqual("Test etag is built from whole seconds and size", "MetaCache.Meta()",
+					meta.etag, "\"3e8-6\"");
+			testBoolEqual("Test matching etag is not modified", "MetaCache.Meta.isNotModified()",
+					meta.isNotModified("\"x\", W/\"3e8-6\"", null), true);
+			testBoolEqual("Test other etag is modified", "MetaCache.Meta.isNotModified()",
+					meta.isNotModified("\"x\"", "Thu, 01 Jan 2099 00:00:00 GMT"), false);
+			testBoolEqual("Test date of file is not modified", "MetaCache.Meta.isNotModified()",
+					meta.isNotModified(null, "Thu, 01 Jan 1970 00:16:40 GMT"), true);
+			testBoolEqual("Test earlier date is modified", "MetaCache.Meta.isNotModified()",
+					meta.isNotModified(null, "Thu, 01 Jan 1970 00:16:39 GMT"), false);
+			testBoolEqual("Test invalid date is modified", "MetaCache.Meta.isNotModified()",
+					meta.isNotModified(null, "yesterday"), false);
+
+			HttpRespSrv notModified = new HttpRespSrv(null, "Test", 304, meta);
+			notModified.dated = false;
+			ByteArrayOutputStream notModifiedOut = new ByteArrayOutputStream();
+			notModified.send(notModifiedOut);
+			testStringEqual("Test 304 has validators and no body", "HttpRespSrv.send()",
+					notModifiedOut.toString(), "HTTP/1.1 304 Not Modified\r\nServer: Test\r\n"
+					+ "Connection: close\r\nETag: \"3e8-6\"\r\n"
+					+ "Last-Modified: Thu, 01 Jan 1970 00:16:40 GMT\r\n\r\n");
+
+			File metaFile = File.createTempFile("webapps-test", ".html");
+			MetaCache metas = new MetaCache(10);
+			metas.load("/" + metaFile.getName(), metaFile);
+			testBoolEqual("Test validators are cached", "MetaCache.get()",
+					metas.get("/" + metaFile.getName()) != null, true);
+			metas.changed("/" + metaFile.getName());
+			testNull("Test changed file is dropped", "MetaCache.changed()", metas.get("/" + metaFile.getName()));
+			metaFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing byte ranges,");
+		try {
+			testStringEqual("Test ranges are sorted and merged", "HttpRange.parse()",
+					HttpRange.parse("bytes=5-6, 0-1,2-3", 10).size() + ":" + HttpRange.parse("bytes=5-6, 0-1,2-3", 10).get(0).end, "2:3");
+			testStringEqual("Test open range ends at file end", "HttpRange.parse()",
+					HttpRange.parse("bytes=4-", 10).get(0).toContentRange(10), "bytes 4-9/10");
+			testStringEqual("Test suffix range is clipped", "HttpRange.parse()",
+					HttpRange.parse("bytes=-20", 10).get(0).toContentRange(10), "bytes 0-9/10");
+			testIntEqual("Test range past end is unsatisfiable", "HttpRange.parse()",
+					HttpRange.parse("bytes=10-", 10).size(), 0);
+			testNull("Test invalid range is ignored", "HttpRange.parse()", HttpRange.parse("bytes=4-2", 10));
+			MetaCache.Meta rangeMeta = new MetaCache.Meta("/r", 10, 1000000);
+			testBoolEqual("Test if-range with current etag", "HttpRange.ifRangeMatches()",
+					HttpRange.ifRangeMatches("\"3e8-a\"", rangeMeta), true);
+			testBoolEqual("Test if-range with weak etag", "HttpRange.ifRangeMatches()",
+					HttpRange.ifRangeMatches("W/\"3e8-a\"", rangeMeta), false);
+
+			File rangeFile = File.createTempFile("webapps-test", ".txt");
+			Files.write(rangeFile.toPath(), "0123456789".getBytes());
+			HttpRespSrv single = new HttpRespSrv(null, "Test", 206, rangeFile);
+			single.setRanges(HttpRange.parse("bytes=2-4", 10));
+			ByteArrayOutputStream singleOut = new ByteArrayOutputStream();
+			long singleCount = single.send(singleOut);
+			testStringEqual("Test single range is sent from its position", "HttpRespSrv.send()",
+					singleOut.toString().substring(singleOut.toString().indexOf("\r\n\r\n") + 4), "234");
+			testIntEqual("Test single range byte count", "HttpRespSrv.send()", (int)singleCount, 3);
+
+			HttpRespSrv multi = new HttpRespSrv(null, "Test", 206, rangeFile);
+			multi.setRanges(HttpRange.parse("bytes=0-0,8-", 10));
+			ByteArrayOutputStream multiOut = new ByteArrayOutputStream();
+			long multiCount = multi.send(multiOut);
+			String multiBody = multiOut.toString().substring(multiOut.toString().indexOf("\r\n\r\n") + 4);
+			testIntEqual("Test multipart length matches header", "HttpRespSrv.setRanges()",
+					(int)multi.contentLength, multiBody.length());
+			testIntEqual("Test multipart byte count", "HttpRespSrv.send()", (int)multiCount, multiBody.length());
+			testStringEqual("Test multipart body holds each range", "HttpRespSrv.send()", multiBody,
+					"\r\n--" + HttpRespSrv.BOUNDARY + "\r\nContent-type: text/plain; charset=utf-8\r\n"
+					+ "Content-range: bytes 0-0/10\r\n\r\n0"
+					+ "\r\n--" + HttpRespSrv.BOUNDARY + "\r\nContent-type: text/plain; charset=utf-8\r\n"
+					+ "Content-range: bytes 8-9/10\r\n\r\n89"
+					+ "\r\n--" + HttpRespSrv.BOUNDARY + "--\r\n");
+			rangeFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing HEAD and OPTIONS responses,");
+		try {
+			HttpRespSrv headResp = new HttpRespSrv(null, "Test", 200, new MetaCache.Meta("/a.html", 6, 1000000));
+			headResp.dated = false;
+			ByteArrayOutputStream headOut = new ByteArrayOutputStream();
+			testIntEqual("Test HEAD sends no body", "HttpRespSrv.send()", (int)headResp.send(headOut), 0);
+			testStringEqual("Test HEAD header is built from metadata", "HttpRespSrv.send()", headOut.toString(),
+					"HTTP/1.1 200 OK\r\nServer: Test\r\nConnection: close\r\n"
+					+ "Content-type: text/html; charset=utf-8\r\nContent-length: 6\r\nAccept-Ranges: bytes\r\n"
+					+ "ETag: \"3e8-6\"\r\nLast-Modified: Thu, 01 Jan 1970 00:16:40 GMT\r\n\r\n");
+
+			HttpRespSrv headError = new HttpRespSrv(null, "Test", 404, HttpRespSrv.getErrorEntry(404));
+			headError.setHeadOnly();
+			ByteArrayOutputStream headErrorOut = new ByteArrayOutputStream();
+			headError.send(headErrorOut);
+			testBoolEqual("Test HEAD error has length but no body", "HttpRespSrv.setHeadOnly()",
+					headErrorOut.toString().endsWith("Content-length: 63\r\n\r\n"), true);
+
+			HttpRespSrv options = new HttpRespSrv(null, "Test", 200);
+			options.dated = false;
+			options.setField("Allow", "GET, HEAD, OPTIONS");
+			ByteArrayOutputStream optionsOut = new ByteArrayOutputStream();
+			options.send(optionsOut);
+			testStringEqual("Test OPTIONS has allow and no content", "HttpRespSrv.send()", optionsOut.toString(),
+					"HTTP/1.1 200 OK\r\nServer: Test\r\nConnection: close\r\n"
+					+ "Content-length: 0\r\nAllow: GET, HEAD, OPTIONS\r\n\r\n");
+
+			File headDir = Files.createTempDirectory("webapps-test").toFile();
+			File smallFile = new File(headDir, "small.txt");
+			Files.write(smallFile.toPath(), "hello\n".getBytes());
+			File largeFile = new File(headDir, "large.txt");
+			byte[] largeText = new byte[1000];
+			Arrays.fill(largeText, (byte)'a');
+			Files.write(largeFile.toPath(), largeText);
+			WebSrv headSrv = new WebSrv();
+			headSrv.parseOptions(new String[] {headDir.getPath()});
+			headSrv.cache = new FileCache(64 * 1024, 512);
+			headSrv.mapped = new MappedFileCache(512, 64 * 1024, 1024 * 1024);
+			headSrv.gzips = new GzipCache(64 * 1024, 32 * 1024);
+
+			String smallHead = serve(headSrv, "HEAD /small.txt HTTP/1.1\r\nHost: test\r\n"
+					+ "Accept-Encoding: gzip\r\nConnection: close\r\n\r\n");
+			testBoolEqual("Test HEAD of small file is sent as it is", "WebSrvThread.serve()",
+					smallHead.contains("Content-length: 6\r\n") && !smallHead.contains("Content-Encoding"), true);
+			testNull("Test HEAD of small file is not cached", "WebSrvThread.serve()",
+					headSrv.cache.get("/small.txt"));
+			testNull("Test HEAD of small file is not mapped", "WebSrvThread.serve()",
+					headSrv.mapped.get("/small.txt"));
+
+			String oldHead = serve(headSrv, "HEAD /large.txt HTTP/1.0\r\nAccept-Encoding: gzip\r\n\r\n");
+			testBoolEqual("Test HTTP/1.0 HEAD is not sent a coding without a copy", "WebSrvThread.serve()",
+					oldHead.contains("Content-length: 1000\r\n") && !oldHead.contains("Content-Encoding"), true);
+			testNull("Test HTTP/1.0 HEAD is not compressed", "WebSrvThread.serve()",
+					headSrv.gzips.get("/large.txt"));
+			testNull("Test HTTP/1.0 HEAD is not cached", "WebSrvThread.serve()",
+					headSrv.cache.get("/large.txt"));
+			testNull("Test HTTP/1.0 HEAD is not mapped", "WebSrvThread.serve()",
+					headSrv.mapped.get("/large.txt"));
+
+			String codedHead = serve(headSrv, "HEAD /large.txt HTTP/1.1\r\nHost: test\r\n"
+					+ "Accept-Encoding: gzip\r\nConnection: close\r\n\r\n");
+			testBoolEqual("Test coded HEAD is sent for chunks", "WebSrvThread.serve()",
+					codedHead.contains("Transfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n")
+					&& codedHead.endsWith("\r\n\r\n"), true);
+			testNull("Test coded HEAD is not compressed", "WebSrvThread.serve()",
+					headSrv.gzips.get("/large.txt"));
+			smallFile.delete();
+			largeFile.delete();
+			headDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing content encoding,");
+		try {
+			testStringEqual("Test gzip is preferred", "ContentEncoding.negotiate()",
+					ContentEncoding.negotiate("deflate, gzip"), "gzip");
+			testStringEqual("Test quality is respected", "ContentEncoding.negotiate()",
+					ContentEncoding.negotiate("gzip;q=0.5, deflate"), "deflate");
+			testNull("Test refused coding is not used", "ContentEncoding.negotiate()",
+					ContentEncoding.negotiate("gzip;q=0, *;q=0"));
+			testBoolEqual("Test text is compressible", "ContentEncoding.isCompressible()",
+					ContentEncoding.isCompressible("text/css; charset=utf-8"), true);
+			testBoolEqual("Test images are not compressible", "ContentEncoding.isCompressible()",
+					ContentEncoding.isCompressible("image/png"), false);
+			testStringEqual("Test coded etag", "MetaCache.Meta.codedLines()",
+					new String(new MetaCache.Meta("/a.css", 6, 1000000).codedLines("gzip")).substring(0, 25),
+					"ETag: \"3e8-6-gzip\"\r\nLast-");
+
+			ByteArrayOutputStream chunkOut = new ByteArrayOutputStream();
+			ChunkedOutputStream chunks = new ChunkedOutputStream(chunkOut, 4);
+			chunks.write("abcdef".getBytes());
+			chunks.close();
+			testStringEqual("Test body is framed in chunks", "ChunkedOutputStream.write()",
+					chunkOut.toString(), "4\r\nabcd\r\n2\r\nef\r\n0\r\n\r\n");
+
+			File textFile = File.createTempFile("webapps-test", ".txt");
+			byte[] text = new byte[1000];
+			Arrays.fill(text, (byte)'a');
+			Files.write(textFile.toPath(), text);
+			GzipCache gzips = new GzipCache(64 * 1024, 32 * 1024);
+			FileCache.Entry gzipped = gzips.load("/" + textFile.getName(), textFile);
+			testBoolEqual("Test copy is compressed", "GzipCache.read()", gzipped.length() < 100, true);
+			testIntEqual("Test copy decompresses to file", "GzipCache.read()",
+					new GZIPInputStream(new ByteArrayInputStream(gzipped.body)).readAllBytes().length, 1000);
+			gzipped.release();
+
+			HttpRespSrv compressed = new HttpRespSrv(null, "Test", 200, textFile);
+			compressed.dated = false;
+			compressed.setCompressed("gzip");
+			ByteArrayOutputStream compressedOut = new ByteArrayOutputStream();
+			compressed.send(compressedOut);
+			String compressedHead = compressedOut.toString().substring(0, compressedOut.toString().indexOf("\r\n\r\n") + 4);
+			testStringEqual("Test compressed body is sent in chunks", "HttpRespSrv.setCompressed()", compressedHead,
+					"HTTP/1.1 200 OK\r\nServer: Test\r\nConnection: close\r\nContent-type: text/plain; charset=utf-8\r\n"
+					+ "Transfer-Encoding: chunked\r\nContent-Encoding: gzip\r\nVary: Accept-Encoding\r\n\r\n");
+			textFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing chunked responses,");
+		try {
+			ByteArrayOutputStream largeOut = new ByteArrayOutputStream();
+			ChunkedOutputStream large = new ChunkedOutputStream(largeOut, 0x1000);
+			large.write(new byte[0x1800]);
+			large.flush();
+			testStringEqual("Test size line of full chunk", "ChunkedOutputStream.writeChunk()",
+					largeOut.toString().substring(0, 6), "1000\r\n");
+			testIntEqual("Test chunks hold whole body", "ChunkedOutputStream.flush()",
+					largeOut.size(), 6 + 0x1000 + 2 + 5 + 0x800 + 2);
+
+			HttpRespSrv streamed = new HttpRespSrv(null, "Test", 200, "text/plain",
+					out -> out.write("generated".getBytes()));
+			streamed.dated = false;
+			streamed.setTrailer("X-Checksum", "unknown");
+			ByteArrayOutputStream streamedOut = new ByteArrayOutputStream();
+			HttpRespSrv.Body summed = streamed.body;
+			streamed.body = out -> {
+				summed.write(out);
+				streamed.setTrailer("X-Checksum", "9");
+			};
+			long streamedCount = streamed.send(streamedOut);
+			testStringEqual("Test generated body is sent in chunks with trailers", "HttpRespSrv.send()",
+					streamedOut.toString(), "HTTP/1.1 200 OK\r\nServer: Test\r\nConnection: close\r\n"
+					+ "Content-type: text/plain\r\nTransfer-Encoding: chunked\r\nTrailer: X-Checksum\r\n\r\n"
+					+ "9\r\ngenerated\r\n0\r\nX-Checksum: 9\r\n\r\n");
+			testIntEqual("Test byte count of generated body", "HttpRespSrv.send()", (int)streamedCount, 9);
+
+			HttpRespSrv stream = new HttpRespSrv(null, "Test", 200, "0123456789abcdefg");
+			stream.dated = false;
+			stream.setChunked();
+			ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+			stream.send(streamOut);
+			testBoolEqual("Test stream of unknown length is chunked", "HttpRespSrv.setChunked()",
+					streamOut.toString().endsWith("\r\n\r\n11\r\n0123456789abcdefg\r\n0\r\n\r\n"), true);
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing directory listings,");
+		try {
+			File listDir = Files.createTempDirectory("webapps-test").toFile();
+			File listed = new File(listDir, "a&b.txt");
+			Files.write(listed.toPath(), "abc".getBytes());
+			new File(listDir, "sub").mkdir();
+
+			DirListing listings = new DirListing(1024 * 1024);
+			ByteArrayOutputStream listingOut = new ByteArrayOutputStream();
+			listings.render("/files/", listDir).write(listingOut);
+			String listing = listingOut.toString("UTF-8");
+			testBoolEqual("Test file is linked and escaped", "DirListing.writeEntry()",
+					listing.contains("<a href=\"a%26b.txt\">a&amp;b.txt</a> "), true);
+			testBoolEqual("Test directory ends with slash", "DirListing.writeEntry()",
+					listing.contains("<a href=\"sub/\">sub/</a> "), true);
+			testBoolEqual("Test parent is linked", "DirListing.write()",
+					listing.contains("<a href=\"../\">../</a>"), true);
+			FileCache.Entry listingEntry = listings.get("/files/");
+			testStringEqual("Test rendered listing is cached", "DirListing.write()",
+					new String(listingEntry.body, "UTF-8"), listing);
+			listingEntry.release();
+			listings.changed("/files/new.txt");
+			testNull("Test change in directory drops listing", "DirListing.changed()", listings.get("/files"));
+
+			DirListing uncached = new DirListing(0);
+			uncached.render("/files/", listDir).write(new ByteArrayOutputStream());
+			testNull("Test listing is not cached without a bound", "DirListing.write()", uncached.get("/files/"));
+
+			listed.delete();
+			new File(listDir, "sub").delete();
+			listDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing content types,");
+		try {
+			testStringEqual("Test text type has charset", "MimeTypes.get()",
+					MimeTypes.get("/a/b.HTML").name, "text/html; charset=utf-8");
+			testStringEqual("Test header line is encoded", "MimeTypes.get()",
+					new String(MimeTypes.get("app.js").line), "Content-type: application/javascript; charset=utf-8\r\n");
+			testStringEqual("Test dot in directory is not an extension", "MimeTypes.get()",
+					MimeTypes.get("/v1.2/README").name, "application/octet-stream");
+			testStringEqual("Test unknown extension", "MimeTypes.get()",
+					MimeTypes.get("data.unknownext").name, "application/octet-stream");
+			testBoolEqual("Test images are not compressed", "MimeTypes.get()",
+					MimeTypes.get("a.png").compressible, false);
+			testBoolEqual("Test types are shared by extensions", "MimeTypes.get()",
+					MimeTypes.get("a.jpg") == MimeTypes.get("a.jpeg"), true);
+			testBoolEqual("Test gzip coded svg is not compressed again", "MimeTypes.get()",
+					MimeTypes.get("logo.svgz").compressible, false);
+
+			File mimeFile = File.createTempFile("webapps-test", ".types");
+			Files.write(mimeFile.toPath(), ("# extra types\ntypes {\n  text/x-rst rst;\n"
+					+ "  application/x-custom png cst;\n  image/svg+xml svgz;\n}\n").getBytes());
+			MimeTypes builtIn = MimeTypes.table;
+			testIntEqual("Test extensions are read", "MimeTypes.load()", MimeTypes.load(mimeFile), 4);
+			testStringEqual("Test read type is found", "MimeTypes.get()",
+					MimeTypes.get("doc.rst").name, "text/x-rst; charset=utf-8");
+			testStringEqual("Test read type replaces built-in", "MimeTypes.get()",
+					MimeTypes.get("a.png").name, "application/x-custom");
+			testStringEqual("Test read coded extension keeps default type", "MimeTypes.get()",
+					MimeTypes.get("logo.svgz").name, "application/octet-stream");
+			MimeTypes.table = builtIn;
+			mimeFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing pack files,");
+		try {
+			File siteDir = Files.createTempDirectory("webapps-test").toFile();
+			new File(siteDir, "css").mkdir();
+			Files.write(new File(siteDir, "index.html").toPath(), "<p>home</p>".getBytes());
+			Files.write(new File(siteDir, "css/site.css").toPath(), "p {}".getBytes());
+			Files.write(new File(siteDir, "empty.txt").toPath(), new byte[0]);
+			File packFile = File.createTempFile("webapps-test", ".pack");
+			testIntEqual("Test files are packed", "PackBuilder.build()",
+					PackBuilder.build(siteDir.toPath(), packFile.toPath()), 3);
+
+			Pack site = Pack.open(packFile);
+			Pack.Entry packed = site.get("/css/../css/site.css");
+			ByteBuffer packedBody = packed.getBody()[0];
+			byte[] packedBytes = new byte[packedBody.remaining()];
+			packedBody.get(packedBytes);
+			testStringEqual("Test file is found in index", "Pack.find()", new String(packedBytes), "p {}");
+			testIntEqual("Test empty file is found", "Pack.find()", (int)site.get("/empty.txt").size, 0);
+			testNull("Test missing file is not found", "Pack.find()", site.get("/css"));
+			testStringEqual("Test validators of packed file", "Pack.Entry.getMeta()",
+					site.get("/index.html").getMeta().etag,
+					MetaCache.read("/index.html", new File(siteDir, "index.html")).etag);
+
+			File zipFile = File.createTempFile("webapps-test", ".zip");
+			byte[] text = "text that is deflated in the archive ".repeat(20).getBytes();
+			try (ZipOutputStream zip = new ZipOutputStream(
+					new FileOutputStream(zipFile))) {
+				zip.putNextEntry(new ZipEntry("docs/"));
+				zip.putNextEntry(new ZipEntry("docs/a.txt"));
+				zip.write(text);
+				ZipEntry stored = new ZipEntry("b.txt");
+				CRC32 crc = new CRC32();
+				crc.update("stored".getBytes());
+				stored.setMethod(ZipEntry.STORED);
+				stored.setSize(6);
+				stored.setCrc(crc.getValue());
+				zip.putNextEntry(stored);
+				zip.write("stored".getBytes());
+			}
+			Pack archive = Pack.open(zipFile);
+			testIntEqual("Test directories of archive are skipped", "Pack.readZip()", archive.size(), 2);
+			Pack.Entry deflated = archive.get("/docs/a.txt");
+			ByteArrayOutputStream gzipBody = new ByteArrayOutputStream();
+			for (ByteBuffer b : deflated.getGzipBody()) {
+				byte[] part = new byte[b.remaining()];
+				b.get(part);
+				gzipBody.write(part);
+			}
+			testBoolEqual("Test deflated entry is framed as gzip", "Pack.Entry.getGzipBody()",
+					Arrays.equals(new GZIPInputStream(new ByteArrayInputStream(gzipBody.toByteArray()))
+							.readAllBytes(), text), true);
+			try (InputStream inflated = deflated.openStream()) {
+				testBoolEqual("Test deflated entry is inflated", "Pack.Entry.openStream()",
+						Arrays.equals(inflated.readAllBytes(), text), true);
+			}
+			try (InputStream storedIn = archive.get("/b.txt").openStream()) {
+				testStringEqual("Test stored entry is read as it is", "Pack.Entry.openStream()",
+						new String(storedIn.readAllBytes()), "stored");
+			}
+
+			HttpRespSrv packResp = new HttpRespSrv(null, "Test", 200, MimeTypes.get("/b.txt"),
+					archive.get("/b.txt").getBody());
+			packResp.dated = false;
+			ByteArrayOutputStream packOut = new ByteArrayOutputStream();
+			packResp.send(packOut);
+			testStringEqual("Test packed file is sent from its buffers", "HttpRespSrv.send()", packOut.toString(),
+					"HTTP/1.1 200 OK\r\nServer: Test\r\nConnection: close\r\n"
+					+ "Content-type: text/plain; charset=utf-8\r\nContent-length: 6\r\n\r\nstored");
+
+			zipFile.delete();
+			packFile.delete();
+			new File(siteDir, "css/site.css").delete();
+			new File(siteDir, "css").delete();
+			new File(siteDir, "index.html").delete();
+			new File(siteDir, "empty.txt").delete();
+			siteDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing content hashes,");
+		try {
+			File hashDir = Files.createTempDirectory("webapps-test").toFile();
+			File hashed = new File(hashDir, "a.txt");
+			Files.write(hashed.toPath(), "same content".getBytes());
+			File hashStore = new File(hashDir, "hashes.idx");
+			HashIndex hashes = new HashIndex(Arrays.asList(hashDir), hashStore);
+			MetaCache.Meta timeMeta = MetaCache.read("/a.txt", hashed);
+			testBoolEqual("Test file not hashed keeps time ETag", "HashIndex.apply()",
+					hashes.apply(timeMeta) == timeMeta, true);
+			hashes.hash("/a.txt");
+			MetaCache.Meta hashMeta = hashes.apply(timeMeta);
+			testBoolEqual("Test hashed file gets content ETag", "HashIndex.apply()",
+					hashMeta.etag.equals(timeMeta.etag), false);
+			testIntEqual("Test content ETag length", "HashIndex.Hash.getMeta()", hashMeta.etag.length(), 24);
+
+			hashes.saveIfDirty();
+			HashIndex reloaded = new HashIndex(Arrays.asList(hashDir), hashStore);
+			reloaded.hash("/a.txt");
+			testIntEqual("Test saved hash is reused", "HashIndex.load()", (int)reloaded.reused.get(), 1);
+
+			hashed.setLastModified(hashed.lastModified() - 60000);
+			reloaded.hash("/a.txt");
+			MetaCache.Meta touchedMeta = reloaded.apply(MetaCache.read("/a.txt", hashed));
+			testStringEqual("Test touched file keeps content ETag", "HashIndex.hash()",
+					touchedMeta.etag, hashMeta.etag);
+			testBoolEqual("Test touched file is hashed again", "HashIndex.hash()",
+					touchedMeta.modified != hashMeta.modified, true);
+
+			Files.write(hashed.toPath(), "new content!".getBytes());
+			MetaCache.Meta changedMeta = MetaCache.read("/a.txt", hashed);
+			testBoolEqual("Test stale hash is not used", "HashIndex.apply()",
+					reloaded.apply(changedMeta) == changedMeta, true);
+
+			hashed.delete();
+			reloaded.hash("/a.txt");
+			testNull("Test hash of removed file is dropped", "HashIndex.hash()", reloaded.hashes.get("/a.txt"));
+			hashStore.delete();
+			hashDir.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing cache control,");
+		try {
+			testBoolEqual("Test hex fingerprint is recognised", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/js/app.3f2a9c1b.js"), true);
+			testBoolEqual("Test base64 fingerprint is recognised", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/assets/index-BfWnX8e3.css"), true);
+			testBoolEqual("Test word is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/css/site-stylesheet.css"), false);
+			testBoolEqual("Test whole name is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/img/3f2a9c1b.png"), false);
+			testBoolEqual("Test dot in directory is not an extension", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/v1.3f2a9c1b/README"), false);
+			testBoolEqual("Test year joined to word is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/report-2024final.pdf"), false);
+			testBoolEqual("Test word joined to year is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/holiday-2023summer.jpg"), false);
+			testBoolEqual("Test capitalised word with year is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/photos/beach-Summer2023.jpg"), false);
+			testBoolEqual("Test hex word with year is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/img/cafe-2019face.png"), false);
+			testBoolEqual("Test lower case word with digits is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/docs/guide-release2notes.html"), false);
+			testBoolEqual("Test date is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/backup-20240101.zip"), false);
+			testBoolEqual("Test camel case name is not a fingerprint", "CacheControl.isFingerprinted()",
+					CacheControl.isFingerprinted("/js/app-UserProfile.js"), false);
+
+			File manifestFile = File.createTempFile("webapps-test", ".json");
+			Files.write(manifestFile.toPath(), ("{\"main.js\": \"static\\/main.1a2b3c4d.js\", \"old.js\": \"old.js?v=2\", "
+					+ "\"logo.png\": \"/img/logo.png\", \"cdn.js\": \"https://cdn.example/cdn.js\"}").getBytes());
+			File rulesFile = File.createTempFile("webapps-test", ".rules");
+			Files.write(rulesFile.toPath(), ("# rules\n/index.html no-cache\n*.html  public, max-age=300\n"
+					+ "/ public, max-age=3600\n").getBytes());
+			CacheControl control = new CacheControl(true);
+			testIntEqual("Test manifest files are read", "CacheControl.readManifest()",
+					control.readManifest(manifestFile), 2);
+			testIntEqual("Test rules are read", "CacheControl.readRules()", control.readRules(rulesFile), 3);
+			testBoolEqual("Test escaped manifest path is read", "CacheControl.readManifest()",
+					control.manifest.contains("/static/main.1a2b3c4d.js"), true);
+			testStringEqual("Test manifest file is immutable", "CacheControl.getLine()",
+					new String(control.getLine("/img/logo.png")),
+					"Cache-Control: public, max-age=31536000, immutable\r\n");
+			testStringEqual("Test first rule is used", "CacheControl.getLine()",
+					new String(control.getLine("/index.html")), "Cache-Control: no-cache\r\n");
+			testStringEqual("Test suffix rule", "CacheControl.getLine()",
+					new String(control.getLine("/docs/a.html")), "Cache-Control: public, max-age=300\r\n");
+			testStringEqual("Test names are not trusted once a manifest is read", "CacheControl.getLine()",
+					new String(control.getLine("/a.3f2a9c1b.html")), "Cache-Control: public, max-age=300\r\n");
+			CacheControl named = new CacheControl(true);
+			named.readRules(rulesFile);
+			testBoolEqual("Test fingerprint comes before rules", "CacheControl.getLine()",
+					named.getLine("/a.3f2a9c1b.html") == CacheControl.IMMUTABLE_LINE, true);
+			CacheControl none = new CacheControl(false);
+			testNull("Test nothing sent without rules", "CacheControl.getLine()", none.getLine("/a.3f2a9c1b.js"));
+
+			HttpRespSrv cachedResp = new HttpRespSrv(null, "Test", 304,
+					new MetaCache.Meta("/a.3f2a9c1b.js", 5, 0, "\"x\""));
+			cachedResp.dated = false;
+			cachedResp.setValidators(new MetaCache.Meta("/a.3f2a9c1b.js", 5, 0, "\"x\""), null);
+			cachedResp.setCacheControl(named.getLine("/a.3f2a9c1b.js"));
+			ByteArrayOutputStream cachedOut = new ByteArrayOutputStream();
+			cachedResp.send(cachedOut);
+			testBoolEqual("Test 304 renews Cache-Control", "HttpRespSrv.buildHeader()",
+					cachedOut.toString().endsWith("ETag: \"x\"\r\nLast-Modified: Thu, 01 Jan 1970 00:00:00 GMT\r\n"
+					+ "Cache-Control: public, max-age=31536000, immutable\r\n\r\n"), true);
+			manifestFile.delete();
+			rulesFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing hot set,");
+		try {
+			File hotFile = File.createTempFile("webapps-test", ".hot");
+			hotFile.delete();
+			HotSet hot = new HotSet(hotFile, 2);
+			testIntEqual("Test nothing warmed without snapshot", "HotSet.warm()", hot.warm(p -> {}), 0);
+			hot.record("/a.css");
+			hot.record("/b.js");
+			hot.record("//b.js");
+			hot.record("/c.png");
+			hot.record("/c.png");
+			hot.record("/c.png");
+			hot.record("/../x");
+			hot.save();
+			testStringEqual("Test most requested paths are saved", "HotSet.save()",
+					new String(Files.readAllBytes(hotFile.toPath())), "/c.png\n/b.js\n");
+
+			HotSet next = new HotSet(hotFile, 2);
+			Set<String> loaded = ConcurrentHashMap.newKeySet();
+			testIntEqual("Test snapshot is warmed", "HotSet.warm()", next.warm(loaded::add), 2);
+			for (int i = 0; i < 100 && loaded.size() < 2; i++) {
+				Thread.sleep(10);
+			}
+			testBoolEqual("Test paths are loaded", "HotSet.warm()", loaded.contains("/b.js"), true);
+			next.record("/d.txt");
+			next.save();
+			testStringEqual("Test warmed paths are kept behind new ones", "HotSet.save()",
+					new String(Files.readAllBytes(hotFile.toPath())).split("\n")[0], "/d.txt");
+			hotFile.delete();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
+
+		System.out.println("Testing listeners,");
+		try {
+			WebSrv listenSrv = new WebSrv();
+			listenSrv.parseOptions(new String[] {"-p", "0", System.getProperty("java.io.tmpdir")});
+			listenSrv.openListeners();
+			SrvListener listener = listenSrv.listeners[0];
+			testBoolEqual("Test default listener accepts on a channel", "SrvListener()",
+					listener.chan != null, true);
+			Socket listenCli = new Socket("localhost", listener.chan.socket().getLocalPort());
+			Socket accepted = listener.accept();
+			testBoolEqual("Test accepted socket has a channel", "SrvListener.accept()",
+					accepted.getChannel() != null, true);
+			accepted.close();
+			listenCli.close();
+			listener.chan.close();
+		} catch (Exception e) {
+			System.err.println("unknown exception occured");
+			System.exit(1);
+		}
 	}
 	
 	public static class TestMain extends Main {
@@ -339,6 +1279,15 @@ public class Test {
 		}
 	}
 	
+	public static String serve(WebSrv srv, String request) throws Exception {
+		try (ServerSocket listen = new ServerSocket(0);
+				Socket cli = new Socket("localhost", listen.getLocalPort())) {
+			cli.getOutputStream().write(request.getBytes());
+			new WebSrvThread(listen.accept(), Srv.accessLog, Srv.errorLog, srv.debug, srv).run();
+			return new String(cli.getInputStream().readAllBytes());
+		}
+	}
+	
 	public static String makeResultMsg(String desc, String funcName, Object o1, Object o2, boolean pass) {
 		String msg = desc + "," + funcName + "," + o1 + "," + o2 + ",";
 		if (pass) {
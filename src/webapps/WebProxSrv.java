@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
 
 import webapps.Option.OptionException;
 import webapps.Option.OptionInt;
@@ -36,6 +37,7 @@ public class WebProxSrv extends Srv {
 
 	InetAddress srvAdd; // address of web server
 	OptionInt srvPort; // listening port of web server
+	ExecutorService forwardThreads; // runs communication threads of all sessions
 	
 	/**
 	 * Constructor of WebProxSrv, initiates options with default values
@@ -124,6 +126,31 @@ public class WebProxSrv extends Srv {
 		}
 	}
 	
+	/**
+	 * Creates executor for communication threads then starts server
+	 * Called By: main()
+	 *     Calls: Srv.newTaskExecutor(), Srv.start()
+	 * @throws IOException - if server fails to listen on port
+	 */
+	@Override
+	public void start() throws IOException {
+		forwardThreads = newTaskExecutor();
+		super.start();
+	}
+
+	/**
+	 * Asks for a plain socket before JDK 13, the client and forward threads
+	 * of a connection would block each other on the lock shared by the
+	 * streams of a channel's socket
+	 * Called By: super.openListeners()
+	 *     Calls: Runtime.version()
+	 * @return - true if running on JDK 12 or older
+	 */
+	@Override
+	protected boolean plainSockets() {
+		return Runtime.version().feature() < 13;
+	}
+
 	/**
 	 * Returns a thread to handle the client-server communications
  	 * Called By: super.Srv()
@@ -138,7 +165,8 @@ public class WebProxSrv extends Srv {
 				errorLog, 
 				debug, 
 				srvAdd, 
-				srvPort.getValue());
+				srvPort.getValue(),
+				forwardThreads);
 		return thread;
 	}
 
@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,26 +33,27 @@ public class WebProxSrvThread extends SrvThread {
 	ExecutorService threads; // executes communication threads
 	
 	/**
-	 * Initializes thread by initializing members and creating
-	 * a fixed thread pool of 2
+	 * Initializes thread by initializing members
 	 * Called by: WebProxSrv.getThread(),
-	 *     Calls; Executors.newFixedThreadPool()
+	 *     Calls; none
 	 * @param sock - client socket
 	 * @param accessLog - log for logging accesses
 	 * @param errorLog - log for logging errors
 	 * @param debug - Log Level to indicate if debug logging should occur
+	 * @param threads - executor shared by server to run communication threads
 	 */
 	public WebProxSrvThread(Socket sock,
 			Logger accessLog, 
 			Logger errorLog, 
 			Level debug, 
 			InetAddress srvAdd, 
-			int srvPort) {
+			int srvPort,
+			ExecutorService threads) {
 		super(sock, accessLog, errorLog, debug);
 		SERVER_NAME = "WebProxSrv"; // name used in logs
 		this.srvAdd = srvAdd;
 		this.srvPort = srvPort;
-		threads = Executors.newFixedThreadPool(2);
+		this.threads = threads;
 	}
 
 	/**
@@ -28,28 +28,61 @@ import java.io.IOException;
 import java.net.Socket;
 import java.util.Iterator;
 import java.util.Vector;
+import webapps.Option.OptionBool;
 import webapps.Option.OptionException;
 import webapps.Option.OptionInt;
+import webapps.Option.OptionString;
 
 /**
  * Class definition
  */
 public class WebSrv extends Srv {
 	Vector<File> dirs; // directory to serve resources from
+	OptionInt keepAliveOpt; // seconds idle connections are kept open
+	OptionInt maxRequestsOpt; // maximum requests served on one connection
+	OptionInt cacheOpt; // megabytes of file content cached in memory
+	OptionInt cacheFileOpt; // largest file cached in kilobytes
+	OptionBool offHeapOpt; // hold cached files in direct memory outside the heap
+	OptionInt mappedOpt; // megabytes of files kept mapped
+	OptionInt mappedFileOpt; // largest file mapped in megabytes
+	OptionBool noIndexOpt; // search directories on each request instead of indexing
+	OptionInt missesOpt; // number of recent misses kept when not indexing
+	OptionInt metasOpt; // number of files whose validators are kept
+	OptionInt gzipOpt; // megabytes of gzip compressed copies cached
+	OptionBool noCompressOpt; // send text files as they are to all clients
+	OptionBool listingOpt; // send listings of requested directories
+	OptionInt listingCacheOpt; // megabytes of rendered listings cached
+	OptionString mimeTypesOpt; // mime.types file of extra content types
+	OptionString packOpt; // pack, zip or jar file the site is served from
+	OptionString hashIndexOpt; // file content hashes of served files are saved to
+	OptionBool immutableOpt; // send fingerprinted file names as immutable
+	OptionString manifestOpt; // asset manifest of fingerprinted files
+	OptionString cacheRulesOpt; // file of Cache-Control rules by path
+	OptionString hotSetOpt; // file the most requested paths are saved to
+	OptionInt hotSetSizeOpt; // number of most requested paths saved
+	FileCache cache; // cache of small files, null if disabled
+	MappedFileCache mapped; // mappings of medium files, null if disabled
+	MetaCache metas; // validators of served files, null if disabled
+	GzipCache gzips; // gzip compressed copies of text files, null if disabled
+	DirListing listings; // rendered directory listings, null if directories are not listed
+	ResourceIndex index; // file of each resource, null if disabled
+	NegativeCache missing; // resources known not to exist, null if disabled
+	DirWatcher watcher; // watches dirs for changes to invalidate caches
+	HashIndex hashes; // content hashes used as ETags, null if disabled
+	CacheControl cacheControl; // Cache-Control of each file, null if none is sent
+	HotSet hotSet; // most requested paths, null if they are not saved
+	Pack pack; // mapped pack the site is served from, null if served from dirs
 	
 	/**
 	 * Constructor of WebSrv initiates options and directories
 	 * Called By: None
-	 *     Calls: super(), OptionInt(), Vector<File>(), Main.addOption()
+	 *     Calls: super(), initOptions(), Vector<File>()
 	 */
 	public WebSrv() throws OptionException {
 		super();
 		
-		//initialize port option with default value of 80
-		portOpt = new OptionInt("p", "Set port that webserver listens on, default: 80", "80");
-		
-		//add options
-		addOption(portOpt);
+		//initialize options
+		initOptions();
 		
 		// set up dirs vector
 		dirs = new Vector<File>();
@@ -58,7 +91,7 @@ public class WebSrv extends Srv {
 	/**
 	 * Constructor of WebSrv initiates options and directories
 	 * Called By: main()
-	 *     Calls: super(String, String), OptionInt(), Vector<File>()
+	 *     Calls: super(String, String), initOptions(), Vector<File>()
 	 * @param name - name of program
 	 * @param desc - description of program
 	 * @param usage - usage syntax of program
@@ -66,15 +99,116 @@ public class WebSrv extends Srv {
 	public WebSrv(String name, String desc, String usage) throws OptionException {
 		super(name, desc, usage);
 		
+		//initialize options
+		initOptions();
+
+		// set up dirs vector		
+		dirs = new Vector<File>();
+		
+	}
+
+	/**
+	 * Initializes options of web server and adds them
+	 * Called By: WebSrv()
+	 *     Calls: OptionInt(), Main.addOption()
+	 */
+	private void initOptions() throws OptionException {
 		//initialize port option with default value of 80
 		portOpt = new OptionInt("p", "Set port that webserver listens on, default: 80", "80");
 		
+		//initialize keep alive options
+		keepAliveOpt = new OptionInt("keepalive", "Seconds an idle connection is kept open "
+				+ "between requests, 0 closes after each response, default: 5", "5");
+		maxRequestsOpt = new OptionInt("requests", "Maximum number of requests served on "
+				+ "one connection, default: 100", "100");
+		
+		//initialize file cache options
+		cacheOpt = new OptionInt("cache", "Megabytes of file content cached in memory, "
+				+ "0 disables, default: 32", "32");
+		cacheFileOpt = new OptionInt("cachefile", "Largest file cached in kilobytes, "
+				+ "default: 256", "256");
+		offHeapOpt = new OptionBool("offheap", "Hold cached files in direct memory outside "
+				+ "the heap so the cache adds no work for the garbage collector");
+		
+		//initialize mapped file options
+		mappedOpt = new OptionInt("mapped", "Megabytes of files larger than cachefile kept "
+				+ "memory mapped, 0 disables, default: 1024", "1024");
+		mappedFileOpt = new OptionInt("mappedfile", "Largest file memory mapped in megabytes, "
+				+ "default: 200", "200");
+		
+		//initialize resource index option
+		noIndexOpt = new OptionBool("noindex", "Search the directories on every request "
+				+ "instead of indexing their files at start");
+		missesOpt = new OptionInt("misses", "Number of missing resources remembered when "
+				+ "directories are searched, 0 disables the negative cache, default: 10000", "10000");
+		
+		//initialize metadata cache option
+		metasOpt = new OptionInt("metadata", "Number of files whose ETag and Last-Modified are "
+				+ "remembered, 0 reads them from the file on each request, default: 10000", "10000");
+		
+		//initialize compression options
+		gzipOpt = new OptionInt("gzip", "Megabytes of gzip compressed copies of text files "
+				+ "cached, files up to cachefile are kept, 0 disables, default: 16", "16");
+		noCompressOpt = new OptionBool("nocompress", "Send text files as they are instead of "
+				+ "compressing them for clients that accept gzip or deflate");
+		
+		//initialize directory listing options
+		listingOpt = new OptionBool("listing", "Send an HTML listing of directories "
+				+ "requested with a trailing /");
+		listingCacheOpt = new OptionInt("listingcache", "Megabytes of rendered directory "
+				+ "listings cached, 0 reads the directory on each request, default: 32", "32");
+		
+		//initialize content type option
+		mimeTypesOpt = new OptionString("mimetypes", "File in mime.types format whose content "
+				+ "types are added to the built-in types");
+		
+		//initialize pack option
+		packOpt = new OptionString("pack", "Pack built by PackBuilder or zip or jar file the "
+				+ "site is served from instead of directories");
+		
+		//initialize content hash option
+		hashIndexOpt = new OptionString("hashindex", "File the content hashes of served files "
+				+ "are saved to, files are hashed in the background and sent with the hash as ETag");
+		
+		//initialize cache-control options
+		immutableOpt = new OptionBool("immutable", "Send files with a fingerprinted name such as "
+				+ "app.3f2a9c1b.js with Cache-Control: " + CacheControl.IMMUTABLE
+				+ ", names are not used when a manifest is given");
+		manifestOpt = new OptionString("manifest", "JSON asset manifest mapping names to "
+				+ "fingerprinted names, the fingerprinted files are sent as immutable");
+		cacheRulesOpt = new OptionString("cachecontrol", "File of Cache-Control rules, a /prefix "
+				+ "or *suffix and the value sent on each line, the first match is used");
+		
+		//initialize hot set options
+		hotSetOpt = new OptionString("hotset", "File the most requested paths are saved to when "
+				+ "the server stops, they are loaded into the caches at the next start");
+		hotSetSizeOpt = new OptionInt("hotsetsize", "Number of most requested paths saved, "
+				+ "default: 1000", "1000");
+		
 		//add options
 		addOption(portOpt);
-
-		// set up dirs vector		
-		dirs = new Vector<File>();
-		
+		addOption(keepAliveOpt);
+		addOption(maxRequestsOpt);
+		addOption(cacheOpt);
+		addOption(cacheFileOpt);
+		addOption(offHeapOpt);
+		addOption(mappedOpt);
+		addOption(mappedFileOpt);
+		addOption(noIndexOpt);
+		addOption(missesOpt);
+		addOption(metasOpt);
+		addOption(gzipOpt);
+		addOption(noCompressOpt);
+		addOption(listingOpt);
+		addOption(listingCacheOpt);
+		addOption(mimeTypesOpt);
+		addOption(packOpt);
+		addOption(hashIndexOpt);
+		addOption(immutableOpt);
+		addOption(manifestOpt);
+		addOption(cacheRulesOpt);
+		addOption(hotSetOpt);
+		addOption(hotSetSizeOpt);
 	}
 
 	/**
@@ -91,15 +225,98 @@ public class WebSrv extends Srv {
 	}
 
 	/**
-	 * Checks directories are valid
+	 * Checks options and directories are valid, reads the extra content
+	 * types and the Cache-Control rules and maps the pack
 	 * Called By: main()
-	 *     Calls: none
+	 *     Calls: MimeTypes.load(), CacheControl(), CacheControl.readManifest(),
+	 *            CacheControl.readRules(), Pack.open()
 	 * @throws - if invalid parameter value is found
 	 */
 	@Override
 	public void checkParams() throws OptionException {
+		//ensure keep alive settings are valid
+		if (keepAliveOpt.getValue() < 0) {
+			throw new OptionException("keepalive must not be negative");
+		}
+		if (maxRequestsOpt.getValue() < 1) {
+			throw new OptionException("requests must be at least 1");
+		}
+		
+		//ensure cache settings are valid
+		if (cacheOpt.getValue() < 0) {
+			throw new OptionException("cache must not be negative");
+		}
+		if (cacheFileOpt.getValue() < 1) {
+			throw new OptionException("cachefile must be at least 1");
+		}
+		if (mappedOpt.getValue() < 0) {
+			throw new OptionException("mapped must not be negative");
+		}
+		if (mappedFileOpt.getValue() < 1) {
+			throw new OptionException("mappedfile must be at least 1");
+		}
+		if (missesOpt.getValue() < 0) {
+			throw new OptionException("misses must not be negative");
+		}
+		if (metasOpt.getValue() < 0) {
+			throw new OptionException("metadata must not be negative");
+		}
+		if (gzipOpt.getValue() < 0) {
+			throw new OptionException("gzip must not be negative");
+		}
+		if (listingCacheOpt.getValue() < 0) {
+			throw new OptionException("listingcache must not be negative");
+		}
+		if (hotSetSizeOpt.getValue() < 1) {
+			throw new OptionException("hotsetsize must be at least 1");
+		}
+		
+		//read extra content types
+		if (!mimeTypesOpt.isDefault()) {
+			try {
+				MimeTypes.load(new File(mimeTypesOpt.getValue()));
+			}
+			catch (IOException e) {
+				throw new OptionException("failed to read mimetypes: " + mimeTypesOpt.getValue());
+			}
+		}
+		
+		//read fingerprinted files and cache-control rules
+		if (immutableOpt.getValue() || !manifestOpt.isDefault() || !cacheRulesOpt.isDefault()) {
+			cacheControl = new CacheControl(immutableOpt.getValue());
+		}
+		if (!manifestOpt.isDefault()) {
+			try {
+				cacheControl.readManifest(new File(manifestOpt.getValue()));
+			}
+			catch (IOException e) {
+				throw new OptionException("failed to read manifest: " + manifestOpt.getValue());
+			}
+		}
+		if (!cacheRulesOpt.isDefault()) {
+			try {
+				cacheControl.readRules(new File(cacheRulesOpt.getValue()));
+			}
+			catch (IOException e) {
+				throw new OptionException("failed to read cachecontrol: " + e.getMessage());
+			}
+		}
+		
+		//map pack, a site is served from a pack or from directories
+		if (!packOpt.isDefault()) {
+			if (dirs.size() > 0) {
+				throw new OptionException("directories can not be served with a pack");
+			}
+			try {
+				pack = Pack.open(new File(packOpt.getValue()));
+			}
+			catch (IOException e) {
+				throw new OptionException("failed to read pack: " + e.getMessage());
+			}
+		}
+		
 		//ensure at least one directory is provided
-		if (dirs.size() < 1) {
+		if (pack == null && dirs.size() < 1) {
 			throw new OptionException("directory must be provided, use -h option for help");
 		}
 
@@ -119,6 +336,215 @@ public class WebSrv extends Srv {
 		}
 	}
 
+	/**
+	 * Creates the resource index or the negative cache, the file, mapped,
+	 * metadata, gzip and listing caches, the content hashes and the watcher
+	 * that keeps them current, then starts the server. The caches, index
+	 * and hashes are disabled if the directories can not be watched since
+	 * changed files would be served stale. The negative cache is only used
+	 * when directories are not indexed, a lookup in the index does not
+	 * touch the file system even when the resource is missing. Directories
+	 * are still listed without the watcher, read on each request. When a
+	 * hot set is kept the caches are warmed with the files most requested
+	 * in the last run while the server already accepts connections. A site
+	 * served from a pack needs none of them
+	 * Called By: main()
+	 *     Calls: DirWatcher(), ResourceIndex(), NegativeCache(), FileCache(),
+	 *            DirectFileCache(), MappedFileCache(), MetaCache(), GzipCache(), DirListing(),
+	 *            HashIndex(), DirWatcher.addListener(), DirWatcher.start(), HashIndex.start(),
+	 *            HotSet(), Runtime.addShutdownHook(), HotSet.warm(), Srv.start()
+	 * @throws IOException - if server fails to listen on port
+	 */
+	@Override
+	public void start() throws IOException {
+		boolean indexed = !noIndexOpt.getValue();
+		boolean negative = !indexed && missesOpt.getValue() > 0;
+		boolean gzip = !noCompressOpt.getValue() && gzipOpt.getValue() > 0;
+		boolean listing = listingOpt.getValue() && listingCacheOpt.getValue() > 0;
+		if (pack != null) {
+			super.start();
+			return;
+		}
+		if (listingOpt.getValue()) {
+			listings = new DirListing(0);
+		}
+		if (cacheOpt.getValue() > 0 || mappedOpt.getValue() > 0 || metasOpt.getValue() > 0
+				|| gzip || listing || indexed || negative || !hashIndexOpt.isDefault()) {
+			try {
+				// watch before indexing so no change is missed
+				watcher = new DirWatcher(dirs);
+				if (indexed) {
+					index = new ResourceIndex(dirs);
+					watcher.addListener(index);
+				}
+				if (negative) {
+					missing = new NegativeCache(dirs, missesOpt.getValue());
+					watcher.addListener(missing);
+				}
+				if (cacheOpt.getValue() > 0) {
+					if (offHeapOpt.getValue()) {
+						cache = new DirectFileCache(cacheOpt.getValue() * 1024L * 1024L,
+								cacheFileOpt.getValue() * 1024L);
+					}
+					else {
+						cache = new FileCache(cacheOpt.getValue() * 1024L * 1024L,
+								cacheFileOpt.getValue() * 1024L);
+					}
+					watcher.addListener(cache);
+				}
+				if (mappedOpt.getValue() > 0) {
+					mapped = new MappedFileCache(cacheFileOpt.getValue() * 1024L,
+							mappedFileOpt.getValue() * 1024L * 1024L,
+							mappedOpt.getValue() * 1024L * 1024L);
+					watcher.addListener(mapped);
+				}
+				if (metasOpt.getValue() > 0) {
+					metas = new MetaCache(metasOpt.getValue());
+					watcher.addListener(metas);
+				}
+				if (gzip) {
+					gzips = new GzipCache(gzipOpt.getValue() * 1024L * 1024L,
+							cacheFileOpt.getValue() * 1024L);
+					watcher.addListener(gzips);
+				}
+				if (listing) {
+					listings = new DirListing(listingCacheOpt.getValue() * 1024L * 1024L);
+					watcher.addListener(listings);
+				}
+				if (!hashIndexOpt.isDefault()) {
+					hashes = new HashIndex(dirs, new File(hashIndexOpt.getValue()));
+					watcher.addListener(hashes);
+				}
+				watcher.start();
+				if (hashes != null) {
+					hashes.start();
+					Runtime.getRuntime().addShutdownHook(new Thread(hashes::saveIfDirty, "hash-save"));
+				}
+			}
+			catch (IOException e) {
+				errorLog.warning("failed to watch directories, resource index and caches disabled");
+				index = null;
+				missing = null;
+				cache = null;
+				mapped = null;
+				metas = null;
+				gzips = null;
+				hashes = null;
+				if (listing) {
+					listings = new DirListing(0);
+				}
+			}
+		}
+		if (!hotSetOpt.isDefault()) {
+			hotSet = new HotSet(new File(hotSetOpt.getValue()), hotSetSizeOpt.getValue());
+			Runtime.getRuntime().addShutdownHook(new Thread(hotSet::save, "hotset-save"));
+			hotSet.warm(this::preload);
+		}
+		super.start();
+	}
+
+	/**
+	 * Loads a file into the metadata cache and the file or mapped cache,
+	 * and its gzip copy if it is compressed
+	 * Called by: HotSet.warm()
+	 *     Calls: ResourceIndex.get(), File(), MetaCache.load(), FileCache.load(),
+	 *            MappedFileCache.load(), GzipCache.load(), MimeTypes.get()
+	 * @param resource - normalized resource path
+	 */
+	void preload(String resource) {
+		File file = null;
+		if (index != null) {
+			ResourceIndex.Resource r = index.get(resource);
+			file = (r != null) ? r.file : null;
+		}
+		else {
+			for (File dir : dirs) {
+				File f = new File(dir, resource);
+				if (f.isFile()) {
+					file = f;
+					break;
+				}
+			}
+		}
+		if (file == null || !file.canRead()) {
+			return;
+		}
+		if (metas != null) {
+			metas.load(resource, file);
+		}
+		FileCache.Entry cached = (cache != null) ? cache.load(resource, file) : null;
+		if (cached != null) {
+			cached.release();
+		}
+		else if (mapped != null) {
+			MappedFileCache.Mapping mapping = mapped.load(resource, file);
+			if (mapping != null) {
+				mapping.release();
+			}
+		}
+		if (gzips != null && MimeTypes.get(resource).compressible
+				&& file.length() >= ContentEncoding.MIN_LENGTH) {
+			FileCache.Entry gzip = gzips.load(resource, file);
+			if (gzip != null) {
+				gzip.release();
+			}
+		}
+	}
+
+	/**
+	 * Indicates reports are logged, the caches are reported when they
+	 * are enabled
+	 * Called by: Srv.startReports()
+	 *     Calls: Srv.hasReports()
+	 * @return - true if reports are logged
+	 */
+	@Override
+	boolean hasReports() {
+		return super.hasReports() || cache != null || mapped != null || missing != null
+				|| metas != null || gzips != null || listings != null || pack != null || hashes != null
+				|| hotSet != null;
+	}
+
+	/**
+	 * Logs the reports of the server and the counters of the caches
+	 * Called by: Srv.startReports()
+	 *     Calls: Srv.report(), FileCache.report(), MappedFileCache.report(),
+	 *            NegativeCache.report(), MetaCache.report(), GzipCache.report(),
+	 *            DirListing.report(), Pack.report(), HashIndex.report(), HotSet.report(),
+	 *            Logger.info()
+	 */
+	@Override
+	void report() {
+		super.report();
+		if (cache != null) {
+			errorLog.info(cache.report());
+		}
+		if (mapped != null) {
+			errorLog.info(mapped.report());
+		}
+		if (missing != null) {
+			errorLog.info(missing.report());
+		}
+		if (metas != null) {
+			errorLog.info(metas.report());
+		}
+		if (gzips != null) {
+			errorLog.info(gzips.report());
+		}
+		if (listings != null) {
+			errorLog.info(listings.report());
+		}
+		if (pack != null) {
+			errorLog.info(pack.report());
+		}
+		if (hashes != null) {
+			errorLog.info(hashes.report());
+		}
+		if (hotSet != null) {
+			errorLog.info(hotSet.report());
+		}
+	}
+
 	/**
 	 * Gets thread to to handle http requests
 	 * Called By: super.Srv()
@@ -126,7 +552,23 @@ public class WebSrv extends Srv {
 	 */
 	@Override
 	public Thread getThread(Socket sock) {
-		WebSrvThread thread = new WebSrvThread(sock, accessLog, errorLog, debug, dirs);
+		WebSrvThread thread = new WebSrvThread(sock, accessLog, errorLog, debug, this);
+		return thread;
+	}
+
+	/**
+	 * Gets thread for a kept alive connection resumed by an event loop,
+	 * the requests already served count toward its request limit
+	 * Called by: Srv.dispatch()
+	 *     Calls: WebSrvThread()
+	 * @param sock - socket used for communications
+	 * @param served - requests already served on connection
+	 * @return - thread that serves the connection
+	 */
+	@Override
+	public Thread getThread(Socket sock, int served) {
+		WebSrvThread thread = new WebSrvThread(sock, accessLog, errorLog, debug, this);
+		thread.requests = served;
 		return thread;
 	}
 	
@@ -142,6 +584,12 @@ public class WebSrv extends Srv {
 		while(d.hasNext()) {
 			System.out.println("Serving dir: " + d.next().getAbsolutePath());
 		}
+		if (index != null) {
+			System.out.println("Indexed files: " + index.size());
+		}
+		if (pack != null) {
+			System.out.println("Serving pack: " + pack.file.getAbsolutePath() + ", " + pack.size() + " files");
+		}
 	}
 	
 	/**
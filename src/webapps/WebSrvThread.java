@@ -9,7 +9,11 @@ package webapps;
  * Description: Class that implements Runnable and is used to handle
  *              HTTP requests received by WebSrv. It reads the client's
  *              request than response with the appropriate content, and
- *              HTTP header
+ *              HTTP header. Connections are kept alive between requests
+ *              until the client closes them, they are idle too long or
+ *              the request limit is reached. In nio mode an idle kept alive
+ *              connection is handed back to an event loop instead of
+ *              holding the thread until its next request.
  *              
  * Inherits: SrvThread
  */
@@ -18,10 +22,14 @@ package webapps;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,216 +39,901 @@ import webapps.HttpReq.HttpException;
  * Class definition
  */
 public class WebSrvThread extends SrvThread {
+	static final int REQUEST_TIMEOUT = 2000; // milliseconds to wait on a request being read
+	static final String ALLOW = "GET, HEAD, OPTIONS"; // methods the server answers
 
 	Vector<File> dirs; // vector of directories for thread to search for files
+	FileCache cache; // cache of small files, null if disabled
+	MappedFileCache mapped; // mappings of medium files, null if disabled
+	ResourceIndex index; // file of each resource, null if directories are searched
+	NegativeCache missing; // resources known not to exist, null if disabled
+	MetaCache metas; // validators of served files, null if disabled
+	MetaCache.Meta meta; // validators of requested file, null if unknown
+	GzipCache gzips; // gzip compressed copies of text files, null if disabled
+	DirListing listings; // rendered directory listings, null if directories are not listed
+	Pack pack; // mapped pack the site is served from, null if served from dirs
+	HashIndex hashes; // content hashes used as ETags, null if disabled
+	CacheControl cacheControl; // Cache-Control of each file, null if none is sent
+	HotSet hotSet; // most requested paths, null if they are not saved
+	boolean compress; // text files are compressed for clients that accept it
+	String coding; // content coding of body sent, null if sent as it is
+	boolean vary; // body depends on Accept-Encoding of request
+	boolean head; // only headers are sent, for HEAD requests
 	HttpReq req; // request from client
+	InputStream in; // stream requests are read from
+	HttpHeader header; // parser that buffers requests read from connection
+	OutputStream out; // buffered stream responses are written to
+	int keepAlive; // seconds an idle connection is kept open, 0 disables
+	int maxRequests; // maximum number of requests served on one connection
+	int requests; // number of requests served on this connection
+	boolean persist; // indicates connection stays open after current response
+	WebSrv srv; // server idle connections are parked with
+	boolean parked; // connection was handed to an event loop and stays open
 
 	/**
 	 * Class constructor that initiates the class members  
 	 * Called by: WebSrv.getThread()
 	 *     Calls: super()
 	 * @param sock - socket used for HTTP session
-	 * @param dirs - vector of directories for thread to search for files 
 	 * @param accessLog - log that stores web server accesses
 	 * @param errorLog - log to store any errors that occur processing request
 	 * @param debug - stores information about HTTP request
+	 * @param srv - web server providing directories and connection settings
 	 */
 	public WebSrvThread(Socket sock, 
 			Logger accessLog, 
 			Logger errorLog, 
 			Level debug, 
-			Vector<File> dirs) {
+			WebSrv srv) {
 		super(sock, accessLog, errorLog, debug);
 		SERVER_NAME = "WebSrv";
-		this.dirs = dirs;
+		this.dirs = srv.dirs;
+		this.cache = srv.cache;
+		this.mapped = srv.mapped;
+		this.index = srv.index;
+		this.missing = srv.missing;
+		this.metas = srv.metas;
+		this.gzips = srv.gzips;
+		this.listings = srv.listings;
+		this.pack = srv.pack;
+		this.hashes = srv.hashes;
+		this.cacheControl = srv.cacheControl;
+		this.hotSet = srv.hotSet;
+		this.compress = !srv.noCompressOpt.getValue();
+		this.keepAlive = srv.keepAliveOpt.getValue();
+		this.maxRequests = srv.maxRequestsOpt.getValue();
+		this.srv = srv;
 	}
 
 	/**
 	 * Override function from SrvThread that is executed by
-	 * WebSrv ExecutorService. Starts by reading request from client,
-	 * then checks for any errors with request. If error is found, such
-	 * as a file not existing, then an error response is returned to
-	 * client. If no errors occur then the requested file will be sent
-	 * to client.
+	 * WebSrv ExecutorService. Opens the streams of the connection and
+	 * serves requests until the client closes the connection, the idle
+	 * timeout expires, the request limit is reached or a request can
+	 * not be kept alive. Requests the client pipelined are answered in
+	 * order and their responses flushed together. Once no request is
+	 * waiting the connection is parked with an event loop if the server
+	 * runs them, the socket is then left open for the next thread.
 	 * Called by: WebSrv ExecutorService
-	 *     Calls: Socket.setSoTimeOut(), createDebugLog(), HttpReq(),
-	 *            HttpReq.parse(), sendResponse(), sendErrorResponse(),
-	 *            createAccessLog(), Socket.close()
+	 *     Calls: createDebugLog(), Socket.getInputStream(), HttpHeader(), SrvThread.getOutputStream(),
+	 *            waitForRequest(), serve(), HttpHeader.buffered(), flush(), Srv.park(),
+	 *            Socket.close()
 	 */
 	@Override
 	public void run() {
 		//Main try block that catches any uncaught errors that are then logged
 		try {
-			// set socket timeout for non responsive clients
-			try {
-				sock.setSoTimeout(2000);// raise exception if read blocks 2 seconds
-			} catch (SocketException e) {
-				throw new Exception("set socket timeout failed");
-			}
-	
-			
 			createDebugLog("Starting thread for client: " 
 		+ sock.getInetAddress().getHostAddress());
 			
-			int code = -1; // stores HTTP status code to send in response
-			long byteCount = -1; // stores byte count of response
-
-			
-			// creates HttpReq which opens socket to read from
+			// open streams that are kept for the whole connection, requests
+			// are buffered by the header parser
 			try {
-				req = new HttpReq(sock);
+				in = sock.getInputStream();
 			}
 			catch (IOException e) {
-				errorLog.warning("Failed to open client socket");
+				createErrorLog("Failed to open client socket");
+				throw new SrvThreadException();
 			}
-
-			createDebugLog("Request parsing");
-
-			// reads and parses request from client
+			header = new HttpHeader(in);
+			out = getOutputStream(sock, "Failed to open client socket");
+			
+			// serve requests while connection is kept alive
+			do {
+				if (!waitForRequest()) {
+					createDebugLog("Connection closed or idle");
+					break;
+				}
+				serve();
+				requests++;
+				
+				// hold responses while pipelined requests are already waiting
+				// so they are written to the client together
+				boolean idle = header.buffered() == 0 && in.available() == 0;
+				if (!persist || idle) {
+					flush();
+				}
+				
+				// wait for next request on an event loop instead of this thread
+				if (persist && idle && srv.park(sock, requests, keepAlive)) {
+					createDebugLog("Connection parked");
+					parked = true;
+					break;
+				}
+			} while (persist);
+		}
+		catch (SrvThreadException e) {
+			// failure already logged
+		}
+		catch (Exception ee) {
+			createErrorLog ("thread failure: " + ee.getMessage());
+			ee.printStackTrace();
+		}
+		finally {
+			// close socket with client unless an event loop holds it
 			try {
-				req.parse();
-			}
-			catch (SocketTimeoutException e) {
-				code = 408;
-				byteCount = sendErrorResponse(code);
+				if (!parked) {
+					sock.close();
+				}
 			}
 			catch (IOException e) {
-				errorLog.warning("Failed to read from client socket");
+				errorLog.warning("failed to close socket");
 			}
-			catch (HttpException e) { // client sent malformed request
-				code = 400;
-				byteCount = sendErrorResponse(code);
+		}
+	}
+
+	/**
+	 * Flushes responses written to the connection
+	 * Called by: run()
+	 *     Calls: OutputStream.flush()
+	 */
+	private void flush() {
+		try {
+			out.flush();
+		}
+		catch (IOException e) {
+			persist = false;
+			errorLog.warning("failed writing to client: " + 
+		sock.getInetAddress().getHostAddress());
+		}
+	}
+
+	/**
+	 * Waits for the first bytes of the next request on a kept alive
+	 * connection for up to the idle timeout, unless a pipelined request
+	 * is already buffered. The first request of a connection is not
+	 * waited on so a slow client still receives 408.
+	 * Called by: run()
+	 *     Calls: Socket.setSoTimeout(), HttpHeader.buffered(), HttpHeader.fill()
+	 * @return - true if a request is waiting to be read
+	 * @throws Exception - if socket timeout could not be set
+	 */
+	private boolean waitForRequest() throws Exception {
+		try {
+			if (requests > 0 && header.buffered() == 0) {
+				sock.setSoTimeout(keepAlive * 1000);// wait for idle timeout
+				try {
+					if (header.fill() == -1) { // client closed connection
+						return false;
+					}
+				}
+				catch (SocketTimeoutException e) { // connection idle too long
+					return false;
+				}
+				catch (IOException e) { // connection reset by client
+					return false;
+				}
 			}
+			sock.setSoTimeout(REQUEST_TIMEOUT);// raise exception if read blocks 2 seconds
+		}
+		catch (SocketException e) {
+			throw new Exception("set socket timeout failed");
+		}
+		return true;
+	}
+
+	/**
+	 * Serves a single request. Starts by reading request from client,
+	 * then checks for any errors with request. If error is found, such
+	 * as a file not existing, then an error response is returned to
+	 * client. If no errors occur then the requested file will be sent
+	 * to client.
+	 * Called by: run()
+	 *     Calls: createDebugLog(), HttpReq(), HttpReq.parse(), HttpReq.isPersistent(),
+	 *            HttpReq.skipContent(), FileCache.get(), MappedFileCache.get(),
+	 *            ResourceIndex.get(), NegativeCache.isMissing(), NegativeCache.getGeneration(),
+	 *            findResource(),
+	 *            NegativeCache.addMiss(), MetaCache.get(), MetaCache.load(),
+	 *            MetaCache.read(), HashIndex.apply(), MetaCache.Meta.isNotModified(),
+	 *            HttpRange.ifRangeMatches(),
+	 *            HttpRange.parse(), MimeTypes.get(), ContentEncoding.negotiate(), Pack.get(),
+	 *            Pack.Entry.getMeta(),
+	 *            findDirectory(), GzipCache.get(), getPackGzipBody(), findPrecompressed(),
+	 *            GzipCache.load(), FileCache.load(),
+	 *            MappedFileCache.load(), sendResponse(), sendCachedResponse(),
+	 *            sendMappedResponse(), sendPrecompressedResponse(), sendCompressedResponse(),
+	 *            sendListing(), sendPackResponse(), sendMetaResponse(), sendOptions(),
+	 *            sendErrorResponse(), createAccessLog()
+	 */
+	private void serve() {
+		int code = -1; // stores HTTP status code to send in response
+		long byteCount = -1; // stores byte count of response
+		persist = false; // close connection unless request allows it
+		meta = null;
+		head = false;
+		coding = null;
+		vary = false;
+
+		// creates HttpReq which reads with the connection's parser
+		req = new HttpReq(sock, header);
+
+		createDebugLog("Request parsing");
 
+		// reads and parses request from client
+		try {
+			req.parse();
+		}
+		catch (SocketTimeoutException e) {
+			code = 408;
+			byteCount = sendErrorResponse(code);
+		}
+		catch (IOException e) {
+			errorLog.warning("Failed to read from client socket");
+			return;
+		}
+		catch (HttpException e) { // client sent malformed request
+			code = 400;
+			byteCount = sendErrorResponse(code);
+		}
+
+		
+		createDebugLog("Request parsed");
+
+		// keep connection alive if request was read and client allows it
+		if (code == -1) {
+			persist = keepAlive > 0 && requests + 1 < maxRequests && req.isPersistent();
 			
-			createDebugLog("Request parsed");
+			// discard any request body so next request can be read
+			try {
+				req.skipContent();
+			}
+			catch (IOException e) {
+				persist = false;
+			}
+		}
 
-			// check GET is requested
-			if (code == -1 && !req.getMethod().contentEquals("GET")) {
+		// check a supported method is requested, OPTIONS is answered
+		// for the whole server
+		if (code == -1) {
+			head = req.getMethod().contentEquals("HEAD");
+			if (req.getMethod().contentEquals("OPTIONS")) {
+				code = 200;
+				byteCount = sendOptions(code);
+			}
+			else if (!head && !req.getMethod().contentEquals("GET")) {
 				createDebugLog("method: " + req.getMethod());
 				code = 405;
+				byteCount = sendErrorResponse(code, "Allow", ALLOW);
+			}
+		}
+
+		// byte ranges are sent from the file, not from the caches or a
+		// pack, HEAD requests get the header of the whole file
+		String range = (code == -1 && !head && pack == null) ? req.getField("range") : null;
+
+		// text files are compressed for clients that accept a coding,
+		// range requests are answered for the file as it is. HEAD is
+		// negotiated like GET so it is sent the header GET would be
+		if (code == -1 && compress) {
+			vary = MimeTypes.get(req.getResource()).compressible;
+			if (vary && range == null) {
+				coding = ContentEncoding.negotiate(req.getField("accept-encoding"));
+			}
+		}
+
+		// find file in the pack, the file system is never touched
+		Pack.Entry packed = null;
+		if (code == -1 && pack != null) {
+			packed = pack.get(req.getResource());
+			if (packed != null) {
+				meta = packed.getMeta();
+			}
+			else {
+				code = 404;
 				byteCount = sendErrorResponse(code);
 			}
+		}
 
-			// loops through directories to search for requested file
-			File resource = null;
-			if (code == -1) {
-				Iterator<File> d = dirs.iterator();
-				while (d.hasNext()) {
-					
-					File dir = d.next();
-					
-					createDebugLog("searching for " + req.getResource() + 
-							"in dir: " + dir.getAbsolutePath());
-					
-					// check if file exists in directory break loop if found
-					File file = new File(dir, req.getResource());
-					if (file.exists()) {
-						resource = file;
-						break;
-					}
+		// answer from the cache without touching the file system, HEAD
+		// only needs the length of a compressed copy
+		FileCache.Entry cached = null;
+		if (code == -1 && !head && range == null && coding == null && cache != null) {
+			cached = cache.get(req.getResource());
+		}
+		else if (code == -1 && ContentEncoding.GZIP.equals(coding) && gzips != null) {
+			cached = gzips.get(req.getResource());
+		}
+		MappedFileCache.Mapping mapping = null;
+		if (code == -1 && !head && range == null && coding == null && cached == null && mapped != null) {
+			mapping = mapped.get(req.getResource());
+		}
+		boolean held = cached != null || mapping != null || packed != null; // content is already in memory
+		if (code == -1 && metas != null) {
+			meta = metas.get(req.getResource());
+		}
+
+		// finds requested file in index or by searching directories, a
+		// file held in memory is only looked up for its validators
+		File resource = null;
+		boolean readable = false;
+		if (code == -1 && (!held || meta == null)) {
+			if (index != null) {
+				ResourceIndex.Resource r = index.get(req.getResource());
+				if (r != null) {
+					resource = r.file;
+					readable = r.readable;
+				}
+			}
+			else if (missing == null || !missing.isMissing(req.getResource())) {
+				long gen = (missing != null) ? missing.getGeneration() : 0;
+				resource = findResource(req.getResource());
+				readable = resource != null && resource.canRead();
+				if (resource == null && missing != null) {
+					missing.addMiss(req.getResource(), gen);
 				}
 			}
+		}
+
+		// list a directory requested with a trailing /, the index only
+		// holds files so directories are found by searching
+		File directory = null;
+		if (code == -1 && !held && listings != null && req.getResource().endsWith("/")) {
+			directory = (resource != null && resource.isDirectory()) ? resource
+					: findDirectory(req.getResource());
+			if (directory != null) {
+				code = 200;
+			}
+		}
 
-			// check if requested file existed
-			if (code == -1 && resource == null) {
+		// check if requested file existed
+		if (code == -1 && !held && resource == null) {
+			code = 404;
+			byteCount = sendErrorResponse(code);
+		}
+
+		// check if file can be read by server
+		if (code == -1 && !held && !readable) {
+			code = 403;
+			byteCount = sendErrorResponse(code);
+		}
+
+		// read validators of file that were not cached
+		if (code == -1 && meta == null && resource != null) {
+			meta = (metas != null) ? metas.load(req.getResource(), resource)
+					: MetaCache.read(req.getResource(), resource);
+		}
+
+		// use the content hash as ETag once the file is hashed
+		if (code == -1 && meta != null && hashes != null) {
+			meta = hashes.apply(meta);
+		}
+
+		// client's copy is current, answer without a body
+		if (code == -1 && meta != null && meta.isNotModified(req.getField("if-none-match"),
+				req.getField("if-modified-since"))) {
+			code = 304;
+			if (metas != null) {
+				metas.countNotModified();
+			}
+		}
+
+		// settle the coding before the body is touched. A small file is
+		// sent as it is, gzip is sent from a .gz sibling or a compressed
+		// copy and a file too large to keep a copy of is compressed while
+		// it is sent in chunks which HTTP/1.0 clients can not receive. HEAD
+		// is not given a copy so the file is never compressed for it
+		File precompressed = null;
+		ByteBuffer[] packedGzip = null;
+		if (code == -1 && coding != null && packed != null) {
+			packedGzip = getPackGzipBody(packed);
+			if (packedGzip == null) {
+				coding = null;
+			}
+		}
+		else if (code == -1 && coding != null && cached == null) {
+			if (meta.length < ContentEncoding.MIN_LENGTH) {
+				coding = null;
+			}
+			else if (coding.equals(ContentEncoding.GZIP)) {
+				precompressed = findPrecompressed(req.getResource(), resource);
+				if (precompressed == null && gzips != null && !head) {
+					cached = gzips.load(req.getResource(), resource);
+				}
+			}
+			if (coding != null && precompressed == null && cached == null
+					&& !req.getVersion().equals("HTTP/1.1")) {
+				coding = null;
+			}
+		}
+
+		// answer HEAD from the validators with the fields GET would send,
+		// the file is not opened and nothing is loaded for it. They are
+		// only missing if the file was removed since it was held
+		long codedLength = -1; // length of coded body, -1 if it is sent in chunks
+		if (code == -1 && head) {
+			if (meta == null) {
 				code = 404;
 				byteCount = sendErrorResponse(code);
 			}
+			else {
+				code = 200;
+				if (cached != null) {
+					codedLength = cached.length();
+				}
+				else if (precompressed != null) {
+					codedLength = precompressed.length();
+				}
+				else if (packedGzip != null) {
+					codedLength = 0;
+					for (ByteBuffer b : packedGzip) {
+						codedLength += b.remaining();
+					}
+				}
+			}
+		}
 
-			// check if file can be read by server
-			if (code == -1 && !resource.canRead()) {
-				code = 403;
-				byteCount = sendErrorResponse(code);
+		// content held in memory is not sent
+		if (code != -1) {
+			if (cached != null) {
+				cached.release();
 			}
+			if (mapping != null) {
+				mapping.release();
+			}
+		}
 
-			try {
-				// builds response with file contents and sends to client				
-				if (code == -1) {
-					code = 200;
-					byteCount = sendResponse(code, resource);
+		// send only the requested byte ranges unless the client's copy
+		// is outdated, a field that can not be parsed is ignored
+		List<HttpRange> ranges = null;
+		if (code == -1 && range != null && HttpRange.ifRangeMatches(req.getField("if-range"), meta)) {
+			long total = resource.length();
+			ranges = HttpRange.parse(range, total);
+			if (ranges != null && ranges.isEmpty()) {
+				code = 416;
+				byteCount = sendErrorResponse(code, "Content-Range", "bytes */" + total);
+			}
+			else if (ranges != null) {
+				code = 206;
+			}
+		}
+
+		// cache file if it is small enough or map it if it is larger
+		if (code == -1 && !held && coding == null && cache != null) {
+			cached = cache.load(req.getResource(), resource);
+		}
+		if (code == -1 && !held && coding == null && cached == null && mapped != null) {
+			mapping = mapped.load(req.getResource(), resource);
+		}
+
+		try {
+			if (directory != null) {
+				byteCount = sendListing(code, directory);
+			}
+			else if (code == 304 || (code == 200 && head)) {
+				byteCount = sendMetaResponse(code, codedLength);
+			}
+			if (code == 206) {
+				byteCount = sendResponse(code, resource, ranges);
+			}
+
+			// builds response with file contents and sends to client				
+			if (code == -1) {
+				code = 200;
+				if (packed != null) {
+					byteCount = sendPackResponse(code, packed, packedGzip);
 				}
-				
-				// log access if bytes were written to client
-				if (byteCount > -1) {
-					createAccessLog(code, byteCount);
+				else if (cached != null) {
+					byteCount = sendCachedResponse(code, cached);
+				}
+				else if (mapping != null) {
+					byteCount = sendMappedResponse(code, mapping);
+				}
+				else if (precompressed != null) {
+					byteCount = sendPrecompressedResponse(code, precompressed);
+				}
+				else if (coding != null) {
+					byteCount = sendCompressedResponse(code, resource);
+				}
+				else {
+					byteCount = sendResponse(code, resource, null);
 				}
 			}
-			catch (FileNotFoundException e) {
-				int codeErr = 404;
-				long byteCountErr = sendErrorResponse(codeErr);
-				createAccessLog(code, byteCountErr);
+			
+			// log access if bytes were written to client
+			if (byteCount > -1) {
+				createAccessLog(code, byteCount);
 			}
-			catch (IOException e) {
-				errorLog.warning("failed writing to client: " + 
-			sock.getInetAddress().getHostAddress());
+		}
+		catch (FileNotFoundException e) {
+			int codeErr = 404;
+			long byteCountErr = sendErrorResponse(codeErr);
+			createAccessLog(code, byteCountErr);
+		}
+		catch (IOException e) {
+			persist = false;
+			errorLog.warning("failed writing to client: " + 
+		sock.getInetAddress().getHostAddress());
+		}
+	}
+
+	/**
+	 * Loops through directories in order to search for requested file,
+	 * used when there is no resource index
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), File(), File.exists()
+	 * @param name - requested resource
+	 * @return - file found or null if no directory has it
+	 */
+	private File findResource(String name) {
+		Iterator<File> d = dirs.iterator();
+		while (d.hasNext()) {
+			
+			File dir = d.next();
+			
+			createDebugLog("searching for " + name + 
+					"in dir: " + dir.getAbsolutePath());
+			
+			// check if file exists in directory return it if found
+			File file = new File(dir, name);
+			if (file.exists()) {
+				return file;
 			}
 		}
-		catch (Exception ee) {
-			createErrorLog ("thread failure: " + ee.getMessage());
-			ee.printStackTrace();
+		return null;
+	}
+
+	/**
+	 * Loops through directories in order to search for a requested
+	 * directory to list
+	 * Called by: serve()
+	 *     Calls: DirWatcher.normalize(), File(), File.isDirectory()
+	 * @param name - requested resource
+	 * @return - directory found or null if no directory has it
+	 */
+	private File findDirectory(String name) {
+		if (DirWatcher.normalize(name) == null) {
+			return null; // climbs above the directories
 		}
-		finally {
-			// close socket with client
-			try {
-				sock.close();	
+		for (File dir : dirs) {
+			File d = new File(dir, name);
+			if (d.isDirectory()) {
+				return d;
 			}
-			catch (IOException e) {
-				errorLog.warning("failed to close socket");
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the precompressed .gz sibling of a file, it is only used when
+	 * it can be read and is not older than the file it was compressed from
+	 * Called by: serve()
+	 *     Calls: ResourceIndex.get(), findResource(), File.canRead(), File.lastModified()
+	 * @param name - requested resource
+	 * @param resource - file resource was found at
+	 * @return - sibling or null if there is none that is current
+	 */
+	private File findPrecompressed(String name, File resource) {
+		File file = null;
+		if (index != null) {
+			ResourceIndex.Resource r = index.get(name + ".gz");
+			if (r != null && r.readable) {
+				file = r.file;
 			}
 		}
+		else {
+			file = findResource(name + ".gz");
+			if (file != null && !file.canRead()) {
+				file = null;
+			}
+		}
+		if (file == null || file.lastModified() < resource.lastModified()) {
+			return null;
+		}
+		return file;
 	}
 
 	/**
 	 * Builds and sends response to client. HTTP header is first sent to client
-	 * then followed by the file requested by client
-	 * Called by: run()
-	 *     Calls: createDebugLog(), HttpRespSrv(), HttpResp.send()
+	 * then followed by the file requested by client or the requested
+	 * byte ranges of it
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), setConnection(), setValidators(),
+	 *            HttpRespSrv.setRanges(), HttpResp.send()
 	 * @param code - HTTP response code
 	 * @param resource - file to send to client
+	 * @param ranges - byte ranges of file to send, null to send whole file
 	 * @return - the byte count written to client
 	 * @throws FileNotFoundException - if file could not be found
 	 * @throws IOException - if writing to client fails
 	 */
-	private long sendResponse(int code, File resource)
+	private long sendResponse(int code, File resource, List<HttpRange> ranges)
 			throws FileNotFoundException, IOException{
 		createDebugLog("Build response with: " + resource.getAbsolutePath());
 
 		// build HTTP response
 		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, resource);
+		setConnection(resp);
+		setValidators(resp);
+		if (ranges != null) {
+			resp.setRanges(ranges);
+		}
 		
 		createDebugLog("Send response");
 		
 		// send HTTP response and return byte sent count
-		return resp.send();
+		return resp.send(out);
+	}
+
+	/**
+	 * Builds and sends response to client from the precompressed sibling
+	 * of the requested file with the content type of the requested file
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), MimeTypes.get(), HttpRespSrv.setType(),
+	 *            HttpRespSrv.setEncoding(), setConnection(), setValidators(), HttpResp.send()
+	 * @param code - HTTP response code
+	 * @param precompressed - compressed sibling of file
+	 * @return - the byte count written to client
+	 * @throws FileNotFoundException - if file could not be found
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendPrecompressedResponse(int code, File precompressed)
+			throws FileNotFoundException, IOException {
+		createDebugLog("Build response with: " + precompressed.getAbsolutePath());
+
+		// build HTTP response
+		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, precompressed);
+		resp.setType(MimeTypes.get(req.getResource()));
+		resp.setEncoding(coding);
+		setConnection(resp);
+		setValidators(resp);
+
+		// send HTTP response and return byte sent count
+		return resp.send(out);
+	}
+
+	/**
+	 * Builds and sends response to client with the file compressed while
+	 * it is sent, the body is sent in chunks
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), HttpRespSrv.setCompressed(), setConnection(),
+	 *            setValidators(), HttpResp.send()
+	 * @param code - HTTP response code
+	 * @param resource - file to send to client
+	 * @return - the byte count written to client
+	 * @throws FileNotFoundException - if file could not be found
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendCompressedResponse(int code, File resource)
+			throws FileNotFoundException, IOException {
+		createDebugLog("Build compressed response with: " + resource.getAbsolutePath());
+
+		// build HTTP response
+		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, resource);
+		resp.setCompressed(coding);
+		setConnection(resp);
+		setValidators(resp);
+
+		// send HTTP response and return byte sent count
+		return resp.send(out);
+	}
+
+	/**
+	 * Gets the gzip body of a file of the pack for a client that accepts
+	 * gzip, a deflated archive entry framed as gzip or the .gz sibling of
+	 * the file in the pack. Only gzip can be framed from the pack without
+	 * compressing
+	 * Called by: serve()
+	 *     Calls: Pack.Entry.getGzipBody(), Pack.get(), Pack.Entry.getBody()
+	 * @param packed - file of pack requested
+	 * @return - buffers of gzip body, null if the file is sent as it is
+	 */
+	private ByteBuffer[] getPackGzipBody(Pack.Entry packed) {
+		if (!ContentEncoding.GZIP.equals(coding) || packed.size < ContentEncoding.MIN_LENGTH) {
+			return null;
+		}
+		if (packed.deflated) {
+			return packed.getGzipBody();
+		}
+		Pack.Entry sibling = pack.get(packed.resource + ".gz");
+		return (sibling != null && !sibling.deflated) ? sibling.getBody() : null;
+	}
+
+	/**
+	 * Builds and sends response to client from a file of the pack. A
+	 * client that accepts gzip is sent the gzip body found for it,
+	 * otherwise a deflated entry is inflated while it is sent. Stored
+	 * files are sent straight from the mapping
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), MimeTypes.get(), HttpRespSrv(), Pack.Entry.getBody(),
+	 *            Pack.Entry.openStream(), HttpRespSrv.setEncoding(), setConnection(),
+	 *            setValidators(), HttpResp.send()
+	 * @param code - HTTP response code
+	 * @param packed - file of pack to send to client
+	 * @param gzipBody - gzip body of file, null if it is sent as it is
+	 * @return - the byte count written to client
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendPackResponse(int code, Pack.Entry packed, ByteBuffer[] gzipBody) throws IOException {
+		createDebugLog("Build response from pack: " + packed.resource);
+
+		MimeTypes.Type type = MimeTypes.get(packed.resource);
+		HttpRespSrv resp;
+		if (gzipBody != null) {
+			resp = new HttpRespSrv(sock, SERVER_NAME, code, type, gzipBody);
+			resp.setEncoding(coding);
+		}
+		else if (packed.deflated) {
+			resp = new HttpRespSrv(sock, SERVER_NAME, code, type, packed.openStream(), packed.size);
+		}
+		else {
+			resp = new HttpRespSrv(sock, SERVER_NAME, code, type, packed.getBody());
+		}
+		setConnection(resp);
+		setValidators(resp);
+
+		// send HTTP response and return byte sent count
+		return resp.send(out);
+	}
+
+	/**
+	 * Builds and sends the listing of a directory to the client, from the
+	 * cached rendering when there is one. Otherwise it is rendered while it
+	 * is sent in chunks, HTTP/1.0 clients receive it until the connection
+	 * is closed
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), DirListing.get(), HttpRespSrv(), DirListing.render(),
+	 *            HttpRespSrv.setCloseDelimited(), HttpRespSrv.setHeadOnly(), setConnection(),
+	 *            HttpResp.send(), FileCache.Entry.release()
+	 * @param code - HTTP response code
+	 * @param directory - directory to list
+	 * @return - the byte count written to client
+	 * @throws IOException - if the directory can not be read or writing to client fails
+	 */
+	private long sendListing(int code, File directory) throws IOException {
+		createDebugLog("Build listing of: " + directory.getAbsolutePath());
+
+		FileCache.Entry cached = listings.get(req.getResource());
+		try {
+			// build HTTP response
+			HttpRespSrv resp;
+			if (cached != null) {
+				resp = new HttpRespSrv(sock, SERVER_NAME, code, cached);
+			}
+			else {
+				resp = new HttpRespSrv(sock, SERVER_NAME, code, DirListing.TYPE,
+						listings.render(req.getResource(), directory));
+				if (!req.getVersion().equals("HTTP/1.1")) {
+					persist = false;
+					resp.setCloseDelimited();
+				}
+			}
+			if (head) {
+				resp.setHeadOnly();
+			}
+			setConnection(resp);
+
+			// send HTTP response and return byte sent count
+			return resp.send(out);
+		}
+		finally {
+			if (cached != null) {
+				cached.release();
+			}
+		}
+	}
+
+	/**
+	 * Builds and sends response to client from a cached file. The file
+	 * is not opened, its content and entity lines are held in memory.
+	 * The reference to the entry is released once it is sent
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), setConnection(), setValidators(), HttpResp.send(),
+	 *            FileCache.Entry.release()
+	 * @param code - HTTP response code
+	 * @param cached - cached file to send to client
+	 * @return - the byte count written to client
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendCachedResponse(int code, FileCache.Entry cached) throws IOException {
+		createDebugLog("Build response from cache: " + cached.resource);
+
+		try {
+			// build HTTP response
+			HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, cached);
+			if (coding != null) {
+				resp.setEncoding(coding); // compressed copy
+			}
+			setConnection(resp);
+			setValidators(resp);
+
+			// send HTTP response and return byte sent count
+			return resp.send(out);
+		}
+		finally {
+			cached.release();
+		}
+	}
+
+	/**
+	 * Builds and sends response to client from a mapped file and releases
+	 * the reference to the mapping once it is sent
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), setConnection(), setValidators(), HttpResp.send(),
+	 *            MappedFileCache.Mapping.release()
+	 * @param code - HTTP response code
+	 * @param mapping - mapped file to send to client
+	 * @return - the byte count written to client
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendMappedResponse(int code, MappedFileCache.Mapping mapping) throws IOException {
+		createDebugLog("Build response from mapping: " + mapping.resource);
+
+		try {
+			// build HTTP response
+			HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, mapping);
+			setConnection(resp);
+			setValidators(resp);
+
+			// send HTTP response and return byte sent count
+			return resp.send(out);
+		}
+		finally {
+			mapping.release();
+		}
 	}
 
 	/**
 	 * Builds and sends error response to client. HTTP header is first sent to client
-	 * then followed by simple HTML file
-	 * Called by: run()
-	 *     Calls: createDebugLog(), HttpRespSrv(), HttpResp.send(), StringBuilder()
+	 * then followed by simple HTML file that is rendered once per code
+	 * Called by: serve()
+	 *     Calls: sendErrorResponse(int, String, String)
 	 * @param code - HTTP response code
 	 * @return - the byte count written to client
 	 */
 	private long sendErrorResponse(int code) {
+		return sendErrorResponse(code, null, null);
+	}
+
+	/**
+	 * Builds and sends error response to client with an extra header field
+	 * Called by: serve(), sendErrorResponse(int)
+	 *     Calls: createDebugLog(), HttpRespSrv(), setConnection(), HttpRespSrv.setField(),
+	 *            HttpResp.send(), HttpRespSrv.getErrorEntry()
+	 * @param code - HTTP response code
+	 * @param name - name of extra field, null if none is sent
+	 * @param value - value of extra field
+	 * @return - the byte count written to client
+	 */
+	private long sendErrorResponse(int code, String name, String value) {
 		createDebugLog("Send error response");
 		
-		// build html to send to client
-		StringBuilder content = new StringBuilder("<!DOCTYPE html><html><head></head><body>");
-		content.append(HttpRespSrv.getCodeMessage(code));
-		content.append("</body></html>");
-
-
-		// build HTTP response
-		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, content.toString());
+		// build HTTP response with html page
+		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, HttpRespSrv.getErrorEntry(code));
+		setConnection(resp);
+		if (name != null) {
+			resp.setField(name, value);
+		}
+		if (head) {
+			resp.setHeadOnly();
+		}
 
 		// send HTTP response
 		long byteCount = 0;
 		try {
-			byteCount = resp.send();
+			byteCount = resp.send(out);
 		}
 		catch (IOException e) {
+			persist = false;
 			errorLog.warning("failed writing error message to client: " + 
 		sock.getInetAddress().getHostAddress());
 		}
@@ -248,9 +941,121 @@ public class WebSrvThread extends SrvThread {
 	}
 
 	/**
-	 * Creates an access log
-	 * Called by: run()
-	 *     Calls: Logger.log(), StringBuilder()
+	 * Sends response without a body built from the validators and length
+	 * of the file, 304 to a client whose copy of the file is current or
+	 * the header of the file to a HEAD request. The header of a coded
+	 * body has the length of the coded copy or is sent for chunks. The
+	 * file is not opened
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), HttpRespSrv.setEncoding(),
+	 *            HttpRespSrv.setContentLength(), HttpRespSrv.setChunked(), setConnection(),
+	 *            setValidators(), HttpResp.send()
+	 * @param code - HTTP response code
+	 * @param codedLength - length of coded body, -1 if it is sent in chunks
+	 * @return - the byte count written to client
+	 * @throws IOException - if writing to client fails
+	 */
+	private long sendMetaResponse(int code, long codedLength) throws IOException {
+		createDebugLog("Build response from metadata: " + meta.resource);
+
+		// build HTTP response
+		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code, meta);
+		if (head && coding != null) {
+			resp.setEncoding(coding);
+			if (codedLength >= 0) {
+				resp.setContentLength(codedLength);
+			}
+			else {
+				resp.setChunked();
+			}
+		}
+		setConnection(resp);
+		setValidators(resp);
+
+		// send HTTP response and return byte sent count
+		return resp.send(out);
+	}
+
+	/**
+	 * Sends response to an OPTIONS request listing the methods the server
+	 * answers, it has no body
+	 * Called by: serve()
+	 *     Calls: createDebugLog(), HttpRespSrv(), setConnection(), HttpRespSrv.setField(),
+	 *            HttpResp.send()
+	 * @param code - HTTP response code
+	 * @return - the byte count written to client
+	 */
+	private long sendOptions(int code) {
+		createDebugLog("Send options response");
+
+		HttpRespSrv resp = new HttpRespSrv(sock, SERVER_NAME, code);
+		setConnection(resp);
+		resp.setField("Allow", ALLOW);
+
+		long byteCount = 0;
+		try {
+			byteCount = resp.send(out);
+		}
+		catch (IOException e) {
+			persist = false;
+			errorLog.warning("failed writing options to client: " + 
+		sock.getInetAddress().getHostAddress());
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Sets the ETag and Last-Modified fields of the response when the
+	 * validators of the requested file are known, and the Vary field when
+	 * the file may be sent compressed. Files of a pack are not sent in
+	 * ranges. The Cache-Control field is set from the name of the file.
+	 * A response to HEAD is sent without its body
+	 * Called by: sendResponse(), sendCachedResponse(), sendMappedResponse(),
+	 *            sendPrecompressedResponse(), sendCompressedResponse(), sendMetaResponse(),
+	 *            sendPackResponse()
+	 *     Calls: HttpRespSrv.setValidators(), HttpRespSrv.setVary(), HttpRespSrv.setNoRanges(),
+	 *            DirWatcher.normalize(), CacheControl.getLine(), HttpRespSrv.setCacheControl(),
+	 *            HttpRespSrv.setHeadOnly()
+	 * @param resp - response to set fields on
+	 */
+	private void setValidators(HttpRespSrv resp) {
+		if (meta != null) {
+			resp.setValidators(meta, coding);
+		}
+		if (vary) {
+			resp.setVary();
+		}
+		if (pack != null) {
+			resp.setNoRanges();
+		}
+		if (cacheControl != null) {
+			String key = (meta != null) ? meta.resource : DirWatcher.normalize(req.getResource());
+			if (key != null) {
+				resp.setCacheControl(cacheControl.getLine(key));
+			}
+		}
+		if (head) {
+			resp.setHeadOnly();
+		}
+	}
+
+	/**
+	 * Sets the connection fields of the response depending on whether the
+	 * connection is kept alive after it is sent
+	 * Called by: sendResponse(), sendErrorResponse()
+	 *     Calls: HttpRespSrv.setKeepAlive()
+	 * @param resp - response to set fields on
+	 */
+	private void setConnection(HttpRespSrv resp) {
+		if (persist) {
+			resp.setKeepAlive(keepAlive, maxRequests - requests - 1);
+		}
+	}
+
+	/**
+	 * Creates an access log and counts the file for the hot set
+	 * Called by: serve()
+	 *     Calls: Logger.log(), StringBuilder(), HotSet.record()
 	 * @param code - HTTP response code
 	 * @param byteCount - byte count written to client
 	 */
@@ -263,5 +1068,10 @@ public class WebSrvThread extends SrvThread {
 		log.append(" ");
 		log.append(req.getResource());	
 		accessLog.log(Level.INFO, log.toString());
+
+		// count files sent or current at the client for the hot set
+		if (hotSet != null && (code == 200 || code == 304)) {
+			hotSet.record(req.getResource());
+		}
 	}
 }